@@ -0,0 +1,19 @@
+package webmedia.cep2019.simplesample;
+
+/**
+ * How the insert rules keep the derived events (LowHumidity and HighTemperature) from deriving new events again.
+ * Since the derived events extend SensorUpdate, every rule on SensorUpdate also receives them
+ */
+public enum DerivationMode {
+    /**
+     * Only events whose type is exactly SensorUpdate derive new events (typeof(s) = 'SensorUpdate').
+     * The check is stateless, so the memory used by the rules does not grow with the number of events
+     */
+    EXACT_TYPE,
+    /**
+     * The original every-distinct(s.timestamp) patterns: an event derives new events only if its timestamp was not seen before.
+     * The pattern keeps every timestamp it has seen, so the memory used grows with the number of events,
+     * and events of different rooms with the same timestamp are suppressed too
+     */
+    DISTINCT_TIMESTAMP
+}
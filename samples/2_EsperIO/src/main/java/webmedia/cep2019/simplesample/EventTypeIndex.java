@@ -0,0 +1,162 @@
+package webmedia.cep2019.simplesample;
+
+import org.reflections.Reflections;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The index of the SensorUpdate subtypes of the event package, so their event types are registered without scanning the classpath.
+ * The index is a resource with a class name per line, supertypes first. It is written at build time by the main method of this class,
+ * which runs in the process-classes phase of the pom.xml, right after the classes are compiled.
+ * An index in a classes directory is ignored when an event class was compiled after it, e.g. by an IDE without running Maven;
+ * an index inside a jar is trusted, the jar is built from the classes it was written with
+ */
+public final class EventTypeIndex {
+
+    public static final String RESOURCE = "META-INF/simplesample/event-types.idx";
+    public static final String EVENT_PACKAGE = "webmedia.cep2019.simplesample.event";
+
+    private EventTypeIndex() {
+    }
+
+    /**
+     * Read the index
+     * @param classLoader the class loader of the index and of the classes
+     * @return the indexed classes, supertypes first, or null if there is no index on the classpath or it is stale
+     */
+    public static List<Class<?>> read(ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        URL resource = classLoader.getResource(RESOURCE);
+        if (resource == null || isStale(resource)) {
+            return null;
+        }
+        InputStream input = resource.openStream();
+        List<Class<?>> classes = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    classes.add(Class.forName(line, false, classLoader));
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * @param resource the index
+     * @return true if the index is a file older than one of the compiled classes of the event package
+     */
+    static boolean isStale(URL resource) throws IOException {
+        if (!resource.getProtocol().equals("file")) {
+            return false;
+        }
+        Path index;
+        try {
+            index = Paths.get(resource.toURI());
+        }catch (URISyntaxException ex){
+            return false;
+        }
+        //The index is at RESOURCE in the classes directory
+        Path classesDirectory = index.getParent().getParent().getParent();
+        Path packageDirectory = classesDirectory.resolve(EVENT_PACKAGE.replace('.', File.separatorChar));
+        if (!Files.isDirectory(packageDirectory)) {
+            return false;
+        }
+        long indexed = Files.getLastModifiedTime(index).toMillis();
+        try (Stream<Path> files = Files.walk(packageDirectory)) {
+            return files.anyMatch(file -> file.toString().endsWith(".class") && file.toFile().lastModified() > indexed);
+        }
+    }
+
+    /**
+     * Find the SensorUpdate subtypes of the event package by scanning the classpath with Reflections, as the sample did before the index
+     * @return the subtypes, supertypes first
+     */
+    public static List<Class<?>> scan() {
+        Reflections reflections = new Reflections(EVENT_PACKAGE);
+        return sorted(new ArrayList<>(reflections.getSubTypesOf(SensorUpdate.class)));
+    }
+
+    /**
+     * Find the SensorUpdate subtypes in the compiled classes of the event package
+     * @param classesDirectory the directory of the compiled classes
+     * @param classLoader a class loader that sees the compiled classes
+     * @return the subtypes, supertypes first
+     */
+    public static List<Class<?>> find(Path classesDirectory, ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        Path packageDirectory = classesDirectory.resolve(EVENT_PACKAGE.replace('.', File.separatorChar));
+        List<Class<?>> classes = new ArrayList<>();
+        if (!Files.isDirectory(packageDirectory)) {
+            return classes;
+        }
+        List<String> names;
+        try (Stream<Path> files = Files.walk(packageDirectory)) {
+            names = files.map(file -> classesDirectory.relativize(file).toString())
+                    .filter(name -> name.endsWith(".class") && !name.contains("$"))
+                    .map(name -> name.substring(0, name.length() - ".class".length()).replace(File.separatorChar, '.'))
+                    .collect(Collectors.toList());
+        }
+        for (String name : names) {
+            Class<?> candidate = Class.forName(name, false, classLoader);
+            if (candidate != SensorUpdate.class && SensorUpdate.class.isAssignableFrom(candidate)) {
+                classes.add(candidate);
+            }
+        }
+        return sorted(classes);
+    }
+
+    /**
+     * Sort the classes so each supertype comes before its subtypes, then by name so the index is the same on every build
+     */
+    private static List<Class<?>> sorted(List<Class<?>> classes) {
+        classes.sort(Comparator.<Class<?>>comparingInt(EventTypeIndex::depth).thenComparing(Class::getName));
+        return classes;
+    }
+
+    private static int depth(Class<?> type) {
+        int depth = 0;
+        for (Class<?> superclass = type.getSuperclass(); superclass != null; superclass = superclass.getSuperclass()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Write the index into the compiled classes.
+     * Usage: EventTypeIndex target/classes
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: EventTypeIndex <classes directory>");
+            System.exit(1);
+        }
+        Path classesDirectory = Paths.get(args[0]);
+        List<Class<?>> classes = find(classesDirectory, EventTypeIndex.class.getClassLoader());
+        List<String> lines = new ArrayList<>();
+        lines.add("#SensorUpdate subtypes of " + EVENT_PACKAGE + ", generated by " + EventTypeIndex.class.getName());
+        for (Class<?> type : classes) {
+            lines.add(type.getName());
+        }
+        Path index = classesDirectory.resolve(RESOURCE);
+        Files.createDirectories(index.getParent());
+        Files.write(index, lines, StandardCharsets.UTF_8);
+        System.out.println("Indexed " + classes.size() + " event types in " + index);
+    }
+}
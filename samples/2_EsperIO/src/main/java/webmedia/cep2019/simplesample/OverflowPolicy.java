@@ -0,0 +1,19 @@
+package webmedia.cep2019.simplesample;
+
+/**
+ * What a bounded queue does when a producer hands over more data than it can hold
+ */
+public enum OverflowPolicy {
+    /**
+     * The producer waits until there is room, slowing it down to the speed of the consumer
+     */
+    BLOCK,
+    /**
+     * The new data is discarded and counted, the producer never waits
+     */
+    DROP,
+    /**
+     * The oldest data waiting on the queue is discarded and counted to make room for the new data, the producer never waits
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,242 @@
+package webmedia.cep2019.simplesample;
+
+import webmedia.cep2019.simplesample.rules.ThresholdRule;
+
+/**
+ * The EPL rules deployed by the SimpleSample.
+ * They are kept in one place so other tools (e.g.: the benchmark module) deploy exactly the same rule shapes
+ */
+public final class Rules {
+
+    /**
+     * Rule that selects every SensorUpdate event
+     */
+    public static final String SELECT_SENSOR_UPDATE = "select * from SensorUpdate";
+
+    /**
+     * Rule that derives a LowHumidity event for each SensorUpdate with humidity below 0.35 (DerivationMode.EXACT_TYPE)
+     */
+    public static final String INSERT_LOW_HUMIDITY = "insert into LowHumidity \n" +
+            "select s.temperature as temperature, s.humidity as humidity, s.roomId as roomId, s.timestamp as timestamp \n" +
+            "from SensorUpdate(humidity<0.35) as s \n" +
+            "where typeof(s) = 'SensorUpdate'";
+
+    /**
+     * Rule that derives a HighTemperature event for each SensorUpdate with temperature above 35 (DerivationMode.EXACT_TYPE)
+     */
+    public static final String INSERT_HIGH_TEMPERATURE = "insert into HighTemperature \n" +
+            "select s.temperature as temperature, s.humidity as humidity, s.roomId as roomId, s.timestamp as timestamp \n" +
+            "from SensorUpdate(temperature>35) as s \n" +
+            "where typeof(s) = 'SensorUpdate'";
+    /* -------- Note -------
+    Since LowHumidity and HighTemperature extend SensorUpdate, every LowHumidity and HighTemperature event would activate
+    the SensorUpdate rules again, creating new LowHumidity and HighTemperature events in a loop.
+    The typeof check only lets the events whose type is exactly SensorUpdate through, the derived events are still
+    delivered to the other SensorUpdate rules (e.g.: select-SensorUpdate)
+    */
+
+    /**
+     * The original LowHumidity rule (DerivationMode.DISTINCT_TIMESTAMP)
+     */
+    public static final String INSERT_LOW_HUMIDITY_DISTINCT = "insert into LowHumidity \n" +
+            "select s.temperature as temperature, s.humidity as humidity, s.roomId as roomId, s.timestamp as timestamp \n" +
+            "from pattern [every-distinct(s.timestamp) s=SensorUpdate(humidity<0.35)]";
+
+    /**
+     * The original HighTemperature rule (DerivationMode.DISTINCT_TIMESTAMP)
+     */
+    public static final String INSERT_HIGH_TEMPERATURE_DISTINCT = "insert into HighTemperature \n" +
+            "select s.temperature as temperature, s.humidity as humidity, s.roomId as roomId, s.timestamp as timestamp \n" +
+            "from pattern [every-distinct(s.timestamp) s=SensorUpdate(temperature>35)]";
+    /* -------- Note -------
+    The every-distinct pattern operator avoids the loop by ignoring an event whose timestamp was already seen,
+    which is the case of the derived events. The pattern keeps every distinct timestamp, so its memory grows forever
+    */
+
+    /**
+     * Rule that reports the readings more than 10 degrees above the average temperature of their room in the previous hour.
+     * The average is computed by HistoryQueries over the HistoryStore, joined to each reading as a method invocation,
+     * so the history is not kept in a window of the runtime; the reading itself is excluded, the range ends before it
+     */
+    public static final String HISTORY_ABOVE_AVERAGE = "select s.roomId as roomId, s.temperature as temperature, s.timestamp as timestamp, \n" +
+            "h.averageTemperature as averageTemperature, h.count as readings \n" +
+            "from SensorUpdate(temperature>35) as s, \n" +
+            "method:HistoryQueries.aggregate(s.roomId, s.timestamp - 3600000, s.timestamp) as h \n" +
+            "where typeof(s) = 'SensorUpdate' and h.count > 0 and s.temperature > h.averageTemperature + 10";
+
+    /**
+     * The statements of the room windows module that report per-room aggregations
+     */
+    public static final String[] ROOM_WINDOW_STATEMENTS = {"room-average", "room-trend", "room-high-average", "room-fast-rising"};
+
+    /**
+     * The statements of the room windows module that alert on per-room aggregations
+     */
+    public static final String[] ROOM_ALERT_STATEMENTS = {"room-high-average", "room-fast-rising"};
+
+    private Rules() {
+    }
+
+    /**
+     * Create a module of per-room window rules over the readings (SensorUpdate events of exact type, as SensorRow events):
+     * room-average - the average temperature and humidity of the last minute of each room
+     * room-trend - the temperature rate of change, in degrees per second, over the last 10 readings of each room
+     * room-high-average - the rooms whose average temperature of the last minute is above 35
+     * room-fast-rising - the rooms whose temperature rises faster than 0.5 degrees per second
+     * The aggregations (count, avg, first, last) are updated as events enter and leave the windows, never recomputed.
+     * The first statement of the module is the one that routes the readings, it is named by the deployer
+     * @param grouping how each room gets its own windows
+     * @return the EPL module
+     */
+    public static String roomWindows(WindowGrouping grouping){
+        //The readings are copied into the SensorRow object-array type, which has no subtypes,
+        //so the derived LowHumidity and HighTemperature events never enter the windows
+        String module = "insert into SensorRow \n" +
+                "select temperature, humidity, roomId, timestamp from SensorUpdate as s \n" +
+                "where typeof(s) = 'SensorUpdate';\n";
+        String context;
+        String minute;
+        String lastTen;
+        String groupBy;
+        if (grouping == WindowGrouping.CONTEXT) {
+            module += "create context RoomContext partition by roomId from SensorRow;\n";
+            context = "context RoomContext ";
+            minute = "SensorRow#time(60 sec)";
+            lastTen = "SensorRow#length(10)";
+            groupBy = "";
+        }else {
+            context = "";
+            minute = "SensorRow#groupwin(roomId)#time(60 sec)";
+            lastTen = "SensorRow#groupwin(roomId)#length(10)";
+            groupBy = " \ngroup by roomId";
+        }
+        String rate = "(last(temperature) - first(temperature)) * 1000.0 / (last(timestamp) - first(timestamp))";
+        module += "@name('room-average') " + context + "\n" +
+                "select roomId, avg(temperature) as averageTemperature, avg(humidity) as averageHumidity, count(*) as readings \n" +
+                "from " + minute + groupBy + ";\n";
+        module += "@name('room-trend') " + context + "\n" +
+                "select roomId, " + rate + " as temperatureRate, count(*) as readings \n" +
+                "from " + lastTen + groupBy + " \n" +
+                "having last(timestamp) > first(timestamp);\n";
+        module += "@name('room-high-average') " + context + "\n" +
+                "select roomId, avg(temperature) as averageTemperature \n" +
+                "from " + minute + groupBy + " \n" +
+                "having avg(temperature) > 35;\n";
+        module += "@name('room-fast-rising') " + context + "\n" +
+                "select roomId, " + rate + " as temperatureRate \n" +
+                "from " + lastTen + groupBy + " \n" +
+                "having last(timestamp) > first(timestamp) and " + rate + " > 0.5";
+        return module;
+    }
+
+    /**
+     * Rule that derives a LowHumidityRow event for each event of a compact type (SensorRow or SensorCursor) with humidity below 0.35.
+     * The compact types have no supertypes, so the derived events never reach this rule again
+     * @param sourceType the compact event type
+     * @return the EPL rule
+     */
+    public static String insertLowHumidityRow(String sourceType){
+        return "insert into LowHumidityRow \n" +
+                "select temperature, humidity, roomId, timestamp \n" +
+                "from " + sourceType + "(humidity<0.35)";
+    }
+
+    /**
+     * Rule that derives a HighTemperatureRow event for each event of a compact type (SensorRow or SensorCursor) with temperature above 35
+     * @param sourceType the compact event type
+     * @return the EPL rule
+     */
+    public static String insertHighTemperatureRow(String sourceType){
+        return "insert into HighTemperatureRow \n" +
+                "select temperature, humidity, roomId, timestamp \n" +
+                "from " + sourceType + "(temperature>35)";
+    }
+
+    /**
+     * @param mode how derived events are kept from deriving new events
+     * @return the rule that derives LowHumidity events
+     */
+    public static String insertLowHumidity(DerivationMode mode){
+        return mode == DerivationMode.DISTINCT_TIMESTAMP ? INSERT_LOW_HUMIDITY_DISTINCT : INSERT_LOW_HUMIDITY;
+    }
+
+    /**
+     * @param mode how derived events are kept from deriving new events
+     * @return the rule that derives HighTemperature events
+     */
+    public static String insertHighTemperature(DerivationMode mode){
+        return mode == DerivationMode.DISTINCT_TIMESTAMP ? INSERT_HIGH_TEMPERATURE_DISTINCT : INSERT_HIGH_TEMPERATURE;
+    }
+
+    /**
+     * Create the template of a threshold rule, the values are substitution parameters set when each rule is deployed:
+     * ruleId (string), threshold (double) and, for a rule of one room, roomId (int).
+     * The template is compiled once per shape and deployed once per rule. With the FILTER layout the conditions are in the
+     * filter of the stream, where the runtime indexes them across all the deployed rules; with WHERE they are in the where clause
+     * @param measure the property compared with the threshold
+     * @param comparison how it is compared
+     * @param perRoom true if the rule applies to one room, false for every room
+     * @param layout where the conditions are written
+     * @return the EPL rule
+     */
+    public static String threshold(ThresholdRule.Measure measure, ThresholdRule.Comparison comparison, boolean perRoom, ThresholdLayout layout){
+        //The filter refers to the properties of the event, the where clause to the properties of the stream
+        String prefix = layout == ThresholdLayout.FILTER ? "" : "s.";
+        String condition = prefix + measure.getProperty() + " " + comparison.getOperator() + " ?:threshold:double";
+        if (perRoom) {
+            condition = prefix + "roomId = ?:roomId:int and " + condition;
+        }
+        String select = "select ?:ruleId:string as ruleId, s.roomId as roomId, s.temperature as temperature, s.humidity as humidity, s.timestamp as timestamp \n";
+        //Only the readings, not the derived events
+        if (layout == ThresholdLayout.FILTER) {
+            return select +
+                    "from SensorUpdate(" + condition + ") as s \n" +
+                    "where typeof(s) = 'SensorUpdate'";
+        }
+        return select +
+                "from SensorUpdate as s \n" +
+                "where " + condition + " and typeof(s) = 'SensorUpdate'";
+    }
+
+    /**
+     * Create a dataflow that reads SensorUpdate events from a csv file and sends them to the runtime
+     * @param dataflowName the name of the dataflow
+     * @param fileName the csv file to read
+     * @return the EPL of the dataflow
+     */
+    public static String fileSourceDataflow(String dataflowName, String fileName){
+        return "create dataflow " + dataflowName + "\n" +
+                        //FileSource is the type of datasource we are creating
+                        //we are generating a stream of SensorUpdate events
+                    "FileSource -> sensorstream<SensorUpdate> {\n" +
+                        //file attribute specifies the file path
+                        "file: '" + fileName + "', \n" +
+                        //propertyNames is the order in wich each event property appears in each csv line
+                        "propertyNames: ['temperature','humidity','roomId', 'timestamp'], \n" +
+                        //repeat the events once after reaching the end of the file
+                        "numLoops: 1\n" +
+                    "}\n" +
+                //Tells the Runtime to consume the generated stream as input
+                "EventBusSink(sensorstream){}";
+    }
+
+    /**
+     * Create a dataflow that writes every event of a given type to a csv file
+     * @param dataflowName the name of the dataflow
+     * @param eventName the name of the event to be outputed
+     * @param fileName the name of the file to save the events
+     * @return the EPL of the dataflow
+     */
+    public static String fileSinkDataflow(String dataflowName, String eventName, String fileName){
+        return "create dataflow " + dataflowName + " \n" +
+                    //We take the outstream of the given event type
+                    "EventBusSource -> outstream<" + eventName + "> {} \n" +
+                    //And send it to a FileSink dataflow that will save the event
+                    "FileSink(outstream) { \n" +
+                    //file attribute specifies the file path
+                    "file: '" + fileName + "', \n" +
+                    //If the file already existed would append the new values to the end
+                    "append: false \n" +
+                    "}";
+    }
+}
@@ -1,7 +1,6 @@
 package webmedia.cep2019.simplesample;
 
 import com.espertech.esper.common.client.EPCompiled;
-import com.espertech.esper.common.client.EventBean;
 import com.espertech.esper.common.client.configuration.Configuration;
 import com.espertech.esper.common.client.dataflow.core.EPDataFlowInstance;
 import com.espertech.esper.common.client.dataflow.core.EPDataFlowInstantiationOptions;
@@ -14,30 +13,88 @@ import com.espertech.esperio.file.FileSinkForge;
 import com.espertech.esper.runtime.client.*;
 import com.espertech.esperio.file.FileSourceForge;
 import org.apache.log4j.varia.NullAppender;
-import org.reflections.Reflections;
+import webmedia.cep2019.simplesample.checkpoint.Checkpoint;
+import webmedia.cep2019.simplesample.checkpoint.Checkpointer;
+import webmedia.cep2019.simplesample.checkpoint.ListenerGate;
+import webmedia.cep2019.simplesample.compact.SensorRowTypes;
 import webmedia.cep2019.simplesample.event.*;
+import webmedia.cep2019.simplesample.history.HistoryQueries;
+import webmedia.cep2019.simplesample.history.HistorySink;
+import webmedia.cep2019.simplesample.history.HistoryStore;
+import webmedia.cep2019.simplesample.ingest.CsvToBinary;
+import webmedia.cep2019.simplesample.ingest.DedupFilter;
+import webmedia.cep2019.simplesample.ingest.DirectoryWatchSource;
+import webmedia.cep2019.simplesample.ingest.FileOffsets;
+import webmedia.cep2019.simplesample.ingest.IngestStats;
+import webmedia.cep2019.simplesample.ingest.MappedBinarySource;
+import webmedia.cep2019.simplesample.ingest.MappedCsvSource;
+import webmedia.cep2019.simplesample.ingest.RuntimeSink;
+import webmedia.cep2019.simplesample.ingest.RuntimeThreading;
+import webmedia.cep2019.simplesample.ingest.SensorIngestor;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+import webmedia.cep2019.simplesample.ingest.SensorUpdatePool;
+import webmedia.cep2019.simplesample.ingest.SequentialCsvSource;
+import webmedia.cep2019.simplesample.listener.AsyncAppender;
+import webmedia.cep2019.simplesample.load.LoadGenerator;
+import webmedia.cep2019.simplesample.listener.PrintListener;
+import webmedia.cep2019.simplesample.metrics.StatementMetrics;
+import webmedia.cep2019.simplesample.net.ReconnectingSensorClient;
+import webmedia.cep2019.simplesample.net.SensorEndpoint;
+import webmedia.cep2019.simplesample.net.WireFormat;
+import webmedia.cep2019.simplesample.output.BufferedFileSink;
+import webmedia.cep2019.simplesample.output.CsvSensorWriter;
+import webmedia.cep2019.simplesample.output.OutputPipeline;
+import webmedia.cep2019.simplesample.rules.CompiledRuleCache;
+import webmedia.cep2019.simplesample.rules.RuleManager;
+import webmedia.cep2019.simplesample.rules.ThresholdDeployer;
+import webmedia.cep2019.simplesample.rules.ThresholdRule;
+import webmedia.cep2019.simplesample.time.EventTimeDriver;
 
 import javax.imageio.IIOException;
+import javax.management.ObjectName;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.rmi.server.ExportException;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class SimpleSample {
 
     Configuration configuration;
-    EPCompiler epCompiler;
+    CompiledRuleCache ruleCache;
+    RuleManager ruleManager;
     CompilerArguments compilerArguments;
-    UpdateListener printListener;
+    AsyncAppender consoleAppender;
     EPRuntime runtime;
+    StatementMetrics metrics;
+    long metricsIntervalMillis;
+    DerivationMode derivation;
+    long checkpointIntervalMillis;
+    ListenerGate listenerGate;
+    Checkpoint restoredCheckpoint;
+    boolean eventClock;
 
     String currentDir;
+    IngestStats inputStats;
+    String eventTypeReport;
+    List<BufferedFileSink> outputSinks = new ArrayList<>();
+    OutputPipeline outputPipeline;
+    DedupFilter dedupFilter;
+    List<CsvSensorWriter> dedupLogs = new ArrayList<>();
+    HistoryStore historyStore;
+    SensorUpdatePool sensorPool;
 
     /**
      * Perform initial configurations of the Esper Engine
@@ -46,27 +103,87 @@ public class SimpleSample {
         //Get the current directory
         currentDir = System.getProperty("user.dir");
 
+        //How the derived events are kept from deriving new events: exact (default) or distinct
+        derivation = System.getProperty("simplesample.derivation", "exact").equals("distinct")
+                ? DerivationMode.DISTINCT_TIMESTAMP : DerivationMode.EXACT_TYPE;
+
+        //Optionally checkpoint how far the input was processed, the listeners are muted while a checkpoint is restored
+        checkpointIntervalMillis = Long.getLong("simplesample.checkpoint", 0) * 1000;
+        if (checkpointIntervalMillis > 0) {
+            listenerGate = new ListenerGate();
+        }
+
         //Log configuration
         org.apache.log4j.BasicConfigurator.configure(new NullAppender()); //This just remove the Warnings
         //org.apache.log4j.BasicConfigurator.configure(); //This prints the logs on the console
 
-        //Get the EPCompiler
-        epCompiler = EPCompilerProvider.getCompiler();
-
         //The configuration is used to configure the Esper engine before the processing starts
         configuration = new Configuration();
 
         //Add the SensorUpdate event
         configuration.getCommon().addEventType(SensorUpdate.class);
         //Add a new event type to each event on the event package
-        Reflections reflections = new Reflections("webmedia.cep2019.simplesample.event");
+        registerEventTypes();
+        //Add the compact SensorRow and SensorCursor event types, so rules can also be written over them
+        SensorRowTypes.register(configuration);
 
-        for(Class eventClass : reflections.getSubTypesOf(SensorUpdate.class)){
-            configuration.getCommon().addEventType(eventClass);
+
+        configuration.getCommon().addImport("com.espertech.esperio.file.*");
+
+        //Optionally evaluate the rules and call the listeners on thread pools of the runtime
+        int inboundThreads = Integer.getInteger("simplesample.threading.inbound", 0);
+        if (inboundThreads > 0) {
+            RuntimeThreading.enableInbound(configuration, inboundThreads, 8192);
+        }
+        int outboundThreads = Integer.getInteger("simplesample.threading.outbound", 0);
+        if (outboundThreads > 0) {
+            RuntimeThreading.enableOutbound(configuration, outboundThreads, 8192);
         }
 
+        //A checkpoint needs every event processed, and its output handed over, by the time the source moves on
+        if (checkpointIntervalMillis > 0 && (inboundThreads > 0 || outboundThreads > 0)) {
+            System.out.println("Checkpoints are disabled: the thread pools of the runtime process the events after they are sent");
+            checkpointIntervalMillis = 0;
+            listenerGate = null;
+        }
+        if (checkpointIntervalMillis > 0 && System.getProperty("simplesample.output", "buffered").equals("filesink")) {
+            System.out.println("Checkpoints are disabled: the output of the FileSink dataflow cannot be flushed before a checkpoint");
+            checkpointIntervalMillis = 0;
+            listenerGate = null;
+        }
 
-        configuration.getCommon().addImport("com.espertech.esperio.file.*");
+        //Optionally drive the runtime time from the timestamps of the events instead of the wall clock
+        eventClock = System.getProperty("simplesample.clock", "wall").equals("event");
+        //The time must advance on the sending thread, between the events it sends
+        if (eventClock && inboundThreads > 0) {
+            System.out.println("The event clock is disabled: the inbound threads of the runtime process the events after the time advanced");
+            eventClock = false;
+        }
+        if (eventClock) {
+            EventTimeDriver.configure(configuration);
+        }
+
+        //Optionally report the CPU time, wall time and events of every statement
+        metricsIntervalMillis = Long.getLong("simplesample.metrics", 0) * 1000;
+        if (metricsIntervalMillis > 0) {
+            StatementMetrics.enable(configuration, metricsIntervalMillis);
+        }
+
+        //The output pipeline delivers the special events to subscriber objects
+        if (System.getProperty("simplesample.output", "buffered").equals("pipeline")) {
+            OutputPipeline.configure(configuration);
+        }
+
+        //Optionally keep the recent readings of every room off the heap, the rules query them through HistoryQueries
+        long historyMillis = Long.getLong("simplesample.history", 0) * 3600000;
+        if (historyMillis > 0) {
+            historyStore = new HistoryStore(historyMillis);
+            HistoryQueries.install(historyStore);
+            HistoryQueries.configure(configuration);
+        }
+
+        //Optionally fill recycled SensorUpdate events while reading the input file, when nothing keeps them
+        sensorPool = newSensorPool(inboundThreads > 0 || outboundThreads > 0);
 
         //Get the runtime environment
         runtime = EPRuntimeProvider.getDefaultRuntime(configuration);
@@ -74,25 +191,110 @@ public class SimpleSample {
         //Compiler Arguments based on the configuration
         compilerArguments = new CompilerArguments(configuration);
 
-        //Create an update listener that just prints the event information
-        printListener = new UpdateListener() {
-            public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
-                for (int i = 0; i < newData.length; i++) {
-                    EventBean event = newData[i];
-                    //Print the name of the event type (e.g.: SensorUpdate)
-                    System.out.print("{" + event.getEventType().getName() + ": ");
-
-                    //Get the list of event properties
-                    String[] propertyNames = event.getEventType().getPropertyNames();
-
-                    //Print the properties and respective values
-                    for (String propertyName : propertyNames){
-                        System.out.print(propertyName + "=" + event.get(propertyName) + ", ");
-                    }
-                    System.out.println("}");
-                }
+        //The compiled rules are kept in the .eplcache directory, so the next start does not compile them again
+        File cacheDirectory = Boolean.parseBoolean(System.getProperty("simplesample.cache", "true")) ? new File(currentDir, ".eplcache") : null;
+        long cacheBytes = Long.getLong("simplesample.cache.maxmb", CompiledRuleCache.DEFAULT_MAX_BYTES >> 20) << 20;
+        long cacheAgeMillis = TimeUnit.DAYS.toMillis(Long.getLong("simplesample.cache.maxdays", TimeUnit.MILLISECONDS.toDays(CompiledRuleCache.DEFAULT_MAX_AGE_MILLIS)));
+        ruleCache = new CompiledRuleCache(cacheDirectory, configuration, Runtime.getRuntime().availableProcessors(), cacheBytes, cacheAgeMillis);
+
+        //The rules can be replaced through JMX while the input is read, without stopping it
+        ruleManager = new RuleManager(runtime, ruleCache, 1);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(ruleManager, new ObjectName("webmedia.cep2019.simplesample:type=RuleManager"));
+        }catch (Exception ex){
+            ex.printStackTrace();
+        }
+
+        //Create an appender that prints the output of the print listeners on a background thread
+        consoleAppender = new AsyncAppender("console-appender", new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16), 1024);
+
+        //Record the metrics of every statement, publish them through JMX and dump them to metrics.csv
+        if (metricsIntervalMillis > 0) {
+            metrics = new StatementMetrics("webmedia.cep2019.simplesample");
+            String deploymentId = compileAndDeploy(StatementMetrics.STATEMENT_NAME, StatementMetrics.EPL, false);
+            metrics.listen(runtime.getDeploymentService().getStatement(deploymentId, StatementMetrics.STATEMENT_NAME));
+            File metricsFile = new File(currentDir, "metrics.csv");
+            if (metricsFile.exists()) {
+                metricsFile.delete();
+            }
+            metrics.startDump(metricsFile, metricsIntervalMillis);
+        }
+    }
+
+    /**
+     * Create the pool of the SensorUpdate events read from the input file, when the system property simplesample.pool is true.
+     * Only the mapped, binary and checkpointed inputs use it, it is refused with the other inputs.
+     * The events are recycled as soon as the runtime processed them (see SensorUpdatePool), so the pool is
+     * refused when something keeps them: the distinct derivation, the room windows, the event clock, the ingestion workers
+     * or the threads of the runtime. Rules deployed later through the RuleManager must keep no event either
+     * @param runtimeThreads true if the runtime evaluates the rules or calls the listeners on its own threads
+     * @return the pool, or null to allocate an event per reading
+     */
+    private SensorUpdatePool newSensorPool(boolean runtimeThreads){
+        if (!Boolean.getBoolean("simplesample.pool")) {
+            return null;
+        }
+        String input = System.getProperty("simplesample.input", "filesource");
+        boolean fromFile = System.getProperty("simplesample.listen") == null && System.getProperty("simplesample.watch") == null;
+        String reason = null;
+        if (!fromFile || (checkpointIntervalMillis <= 0 && !input.equals("mapped") && !input.equals("binary"))) {
+            reason = "only the mapped, binary and checkpointed inputs recycle the events";
+        }else if (derivation == DerivationMode.DISTINCT_TIMESTAMP) {
+            reason = "the distinct derivation keeps the events in its patterns";
+        }else if (!System.getProperty("simplesample.windows", "none").equals("none")) {
+            reason = "the room windows keep the events";
+        }else if (eventClock) {
+            reason = "the event clock buffers the events";
+        }else if (Integer.getInteger("simplesample.ingest.workers", 0) > 0) {
+            reason = "the ingestion workers queue the events";
+        }else if (runtimeThreads) {
+            reason = "the threads of the runtime queue the events";
+        }
+        if (reason != null) {
+            System.out.println("The SensorUpdate pool is not used, " + reason);
+            return null;
+        }
+        return new SensorUpdatePool();
+    }
+
+    /**
+     * Add an event type for each SensorUpdate subtype of the event package.
+     * The subtypes are read from the index generated at build time (EventTypeIndex), the classpath is scanned with Reflections
+     * only when the system property simplesample.eventtypes is scan or the index is missing or stale (e.g. the classes were compiled by an IDE)
+     */
+    private void registerEventTypes(){
+        long start = System.nanoTime();
+        String source = "index";
+        List<Class<?>> eventClasses = null;
+        if (!System.getProperty("simplesample.eventtypes", "index").equals("scan")) {
+            try {
+                eventClasses = EventTypeIndex.read(SimpleSample.class.getClassLoader());
+            }catch (IOException | ClassNotFoundException ex){
+                ex.printStackTrace();
             }
-        };
+        }
+        if (eventClasses == null) {
+            source = "classpath scan";
+            eventClasses = EventTypeIndex.scan();
+        }
+        for (Class<?> eventClass : eventClasses) {
+            configuration.getCommon().addEventType(eventClass);
+        }
+        eventTypeReport = String.format("Event types: %d registered from the %s in %.2f ms",
+                eventClasses.size(), source, (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Measure the time spent by a listener when the metrics are enabled
+     * @param label the label of the statement
+     * @param listener the listener
+     * @return the listener to add to the statement
+     */
+    private UpdateListener instrument(String label, UpdateListener listener){
+        if (listenerGate != null) {
+            listener = listenerGate.wrap(listener);
+        }
+        return metrics == null ? listener : metrics.timed(label, listener);
     }
 
     /**
@@ -104,8 +306,8 @@ public class SimpleSample {
      */
     private String compileAndDeploy(String label, String epl, boolean addPrintListener){
         EPCompiled compiledRule = null;
-        try{ //Compile the rule to java bytecode
-            compiledRule = epCompiler.compile("@name('" + label + "') " + epl, compilerArguments);
+        try{ //Compile the rule to java bytecode, or read it from the cache
+            compiledRule = ruleCache.compile(label, epl);
         }catch (EPCompileException ex){
             ex.printStackTrace();
         }
@@ -121,87 +323,395 @@ public class SimpleSample {
         EPStatement statement = runtime.getDeploymentService().getStatement(deployment.getDeploymentId(), label);
 
 
-        //Add the printListener to the created statement
+        //Add a printListener to the created statement
         if(addPrintListener & (statement != null))
-            statement.addListener(printListener);
+            statement.addListener(instrument(label, new PrintListener(consoleAppender)));
 
 
         return deployment.getDeploymentId();
     }
 
     /**
-     * Generate a new input file with random values
+     * Generate a new input file with random values.
+     * The system properties simplesample.generate.events (default: 30) and simplesample.generate.rooms (default: 3)
+     * set the size of the file, the events are 100 ms apart like the events of the original generator
      * @param directory the directory to create the file
      */
     private void generateInput(String directory){
         File file = new File(directory, "input.csv");
-        System.out.println("No input file was found, generating a new one.\nJust a few seconds...");
+        System.out.println("No input file was found, generating a new one.");
+        LoadGenerator generator = new LoadGenerator();
+        generator.setEvents(Long.getLong("simplesample.generate.events", 30));
+        generator.setRooms(Integer.getInteger("simplesample.generate.rooms", 3));
+        generator.setSeed(System.nanoTime());
+        generator.setEventRate(10);
         try {
-            file.createNewFile();
-            FileOutputStream fos = new FileOutputStream(file);
-            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(fos));
-            Random random = new Random();
-            for (int i = 0; i < 30; i++) {
-                double temp = random.nextInt(50) + random.nextDouble();
-                double hum = random.nextDouble();
-                int room = i % 3;
-                long timestamp = System.currentTimeMillis();
-                String csvLine = "" + temp + "," + hum + "," + room + "," + timestamp;
-                try {
-                    Thread.sleep(100);
-                }catch (Exception ex){
-                    ex.printStackTrace();
-                }
-                bw.write(csvLine);
-                bw.newLine();
-            }
-            bw.close();
-            fos.close();
+            System.out.println(generator.writeCsv(file.toPath()));
         }catch (Exception ex){
             ex.printStackTrace();
         }
     }
 
     /**
-     * Create and instantiate a dataflow that will read sensor events from an input file
+     * Check if there is an input file, creates one if there is not
+     * @return the input file
+     */
+    private File inputFile() throws IOException {
+        File inputFile = new File(currentDir, "input.csv");
+        if (!inputFile.exists()) {
+            File toCopy = new File(Paths.get(currentDir).getParent().toString(), "input.csv");
+            if (toCopy.exists()) {
+                //input_file.createNewFile();
+                Files.copy(toCopy.toPath(), inputFile.toPath());
+            }
+            else{
+                generateInput(currentDir);
+            }
+        }
+        return inputFile;
+    }
+
+    /**
+     * Read sensor events from an input file.
+     * The system property simplesample.input selects how the file is read:
+     * filesource (default) uses the esperio FileSource dataflow, mapped uses the memory-mapped MappedCsvSource and
+     * binary converts the file to input.bin once and reads it with the MappedBinarySource.
+     * When checkpoints are enabled the file is always read in order by a SequentialCsvSource, and so is the filesource input
+     * with the event clock. When the system property simplesample.watch is set, the csv files of that directory are read instead,
+     * as they are written, and when simplesample.listen is set the events are received from the network.
+     * With the event clock the events of every input are sent through an EventTimeDriver
      */
     private void readCSVInput(){
         try {
-            //Check if there is an input file, creates one if there is not
-            File inputFile = new File(currentDir, "input.csv");
-            if (!inputFile.exists()) {
-                File toCopy = new File(Paths.get(currentDir).getParent().toString(), "input.csv");
-                if (toCopy.exists()) {
-                    //input_file.createNewFile();
-                    Files.copy(toCopy.toPath(), inputFile.toPath());
+            String input = System.getProperty("simplesample.input", "filesource");
+            boolean fromFile = System.getProperty("simplesample.listen") == null && System.getProperty("simplesample.watch") == null;
+            if (fromFile && checkpointIntervalMillis > 0) {
+                readCheckpointedCSVInput(inputFile());
+                return;
+            }
+            EventTimeDriver driver = eventClock ? newEventTimeDriver() : null;
+            SensorSink engine = driver != null ? driver : new RuntimeSink(runtime);
+            if (System.getProperty("simplesample.listen") != null) {
+                receiveFromNetwork(Integer.getInteger("simplesample.listen"), engine);
+            }else if (System.getProperty("simplesample.watch") != null) {
+                readWatchedDirectory(new File(System.getProperty("simplesample.watch")), engine);
+            }else if (input.equals("mapped")) {
+                readMappedCSVInput(inputFile(), engine);
+            }else if (input.equals("binary")) {
+                readBinaryInput(inputFile(), engine);
+            }else if (driver != null) {
+                inputStats = new SequentialCsvSource(inputFile().toPath(), 0, Long.MAX_VALUE, 256, inputSink(driver), null).run();
+            }else {
+                readFileSource(inputFile());
+            }
+            if (driver != null) {
+                driver.close();
+                System.out.println(driver);
+            }
+        }catch (Exception iex){
+            iex.printStackTrace();
+        }
+    }
+
+    /**
+     * Read sensor events from an input file with the esperio FileSource dataflow
+     * @param inputFile the input file
+     */
+    private void readFileSource(File inputFile) throws IOException {
+        //Create the input DataFlow the dataflow is created in a EPL statement
+        String createFileSourceEpl = Rules.fileSourceDataflow("SensorCSVInput", "input.csv");
+        String deploymentId = compileAndDeploy("SensorCSVInput", createFileSourceEpl, false);
+        //Using the deploymentId of the EPLStatement, we create an instance of the Dataflow and run it
+        EPDataFlowInstance instance = runtime.getDataFlowService().instantiate(deploymentId, "SensorCSVInput");
+        long start = System.nanoTime();
+        instance.run();
+        long elapsed = System.nanoTime() - start;
+
+        //Count the lines outside of the measured time, so both input paths report comparable numbers
+        long events;
+        try (Stream<String> lines = Files.lines(inputFile.toPath())) {
+            events = lines.filter(line -> !line.isEmpty()).count();
+        }
+        inputStats = new IngestStats("FileSource", inputFile.length(), events, 0, elapsed);
+    }
+
+    /**
+     * Read sensor events from an input file through a memory-mapped buffer parsed by several threads.
+     * The system property simplesample.ingest.workers hands the events over to a SensorIngestor with that many workers,
+     * instead of sending them on the parsing threads, unless the event clock is enabled
+     * @param inputFile the input file
+     * @param engine sends the events to the runtime
+     */
+    private void readMappedCSVInput(File inputFile, SensorSink engine) throws IOException, InterruptedException {
+        int threads = segmentThreads(Integer.getInteger("simplesample.input.threads", Runtime.getRuntime().availableProcessors()));
+        int workers = ingestWorkers();
+        if (workers <= 0) {
+            MappedCsvSource source = new MappedCsvSource(inputFile.toPath(), threads, 256, inputSink(engine));
+            source.setPool(sensorPool);
+            inputStats = source.run();
+            return;
+        }
+        SensorIngestor ingestor = new SensorIngestor(runtime, workers, 8192, OverflowPolicy.BLOCK);
+        inputStats = new MappedCsvSource(inputFile.toPath(), threads, 256, inputSink(ingestor)).run();
+        ingestor.close();
+        System.out.println(ingestor);
+    }
+
+    /**
+     * Read the csv files of a directory continuously: the files already there, the new files and the lines appended to them.
+     * The offset of each file is kept in watch.offsets, so the next run continues where this one stopped.
+     * The system properties simplesample.watch.readers is the number of files read in parallel (default: the number of processors)
+     * and simplesample.watch.idle stops reading after that many seconds without new lines (default: 0, read until the process is stopped)
+     * @param directory the directory
+     * @param engine sends the events to the runtime
+     */
+    private void readWatchedDirectory(File directory, SensorSink engine) throws IOException, InterruptedException {
+        int readers = Integer.getInteger("simplesample.watch.readers", Runtime.getRuntime().availableProcessors());
+        long idleMillis = Long.getLong("simplesample.watch.idle", 0) * 1000;
+        FileOffsets offsets = new FileOffsets(new File(currentDir, "watch.offsets").toPath());
+        DirectoryWatchSource source = new DirectoryWatchSource(directory.toPath(), "*.csv", readers, 256, inputSink(engine), offsets, 1000);
+        System.out.println("Watching " + directory + " for csv files");
+        if (idleMillis <= 0) {
+            //Save the offsets when the process is stopped
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    source.close();
+                    System.out.println(source);
+                }catch (IOException ex){
+                    ex.printStackTrace();
                 }
-                else{
-                    generateInput(currentDir);
+            }));
+            Thread.currentThread().join();
+        }
+        source.awaitIdle(idleMillis);
+        source.close();
+        inputStats = source.stats();
+    }
+
+    /**
+     * Receive sensor events from producers on the network, over TCP and UDP on the same port.
+     * The system properties simplesample.listen.format is the format of the records, line (default) or binary,
+     * simplesample.listen.threads is the number of selector threads (default: the number of processors) and
+     * simplesample.listen.idle stops receiving after that many seconds without events (default: 0, receive until the process is stopped).
+     * The connections, bytes/s, events/s and decode errors are printed every 10 seconds
+     * @param port the port
+     * @param engine sends the events to the runtime
+     */
+    private void receiveFromNetwork(int port, SensorSink engine) throws IOException, InterruptedException {
+        WireFormat format = WireFormat.valueOf(System.getProperty("simplesample.listen.format", "line").toUpperCase());
+        int threads = Integer.getInteger("simplesample.listen.threads", Runtime.getRuntime().availableProcessors());
+        long idleMillis = Long.getLong("simplesample.listen.idle", 0) * 1000;
+        InetSocketAddress address = new InetSocketAddress(port);
+        SensorEndpoint endpoint = new SensorEndpoint(address, address, format, threads, 256, inputSink(engine));
+        System.out.println("Receiving " + format + " records on port " + port);
+        if (idleMillis <= 0) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    endpoint.close();
+                    System.out.println(endpoint);
+                }catch (IOException ex){
+                    ex.printStackTrace();
                 }
+            }));
+            while (true) {
+                Thread.sleep(10000);
+                System.out.println(endpoint);
             }
-            //Create the input DataFlow the dataflow is created in a EPL statement
-            String createFileSourceEpl =
-                    "create dataflow SensorCSVInput\n" +
-                            //FileSource is the type of datasource we are creating
-                            //we are generating a stream of SensorUpdate events
-                        "FileSource -> sensorstream<SensorUpdate> {\n" +
-                            //file attribute specifies the file path
-                            "file: 'input.csv', \n" +
-                            //propertyNames is the order in wich each event property appears in each csv line
-                            "propertyNames: ['temperature','humidity','roomId', 'timestamp'], \n" +
-                            //repeat the events once after reaching the end of the file
-                            "numLoops: 1\n" +
-                        "}\n" +
-                    //Tells the Runtime to consume the generated stream as input
-                    "EventBusSink(sensorstream){}";
-            String deploymentId = compileAndDeploy("SensorCSVInput", createFileSourceEpl, false);
-            //Using the deploymentId of the EPLStatement, we create an instance of the Dataflow and run it
-            EPDataFlowInstance instance = runtime.getDataFlowService().instantiate(deploymentId, "SensorCSVInput");
-            instance.run();
+        }
+        endpoint.awaitIdle(idleMillis);
+        endpoint.close();
+        inputStats = endpoint.stats();
+        System.out.println(endpoint);
+    }
 
-        }catch (Exception iex){
-            iex.printStackTrace();
+    /**
+     * Read sensor events from the binary copy of the input file, input.bin, decoded straight from memory-mapped buffers.
+     * The copy is made when it does not exist or is older than the input file.
+     * The system property simplesample.input.threads is the number of reading threads (default: 1, which keeps the order of the file)
+     * @param inputFile the input file
+     * @param engine sends the events to the runtime
+     */
+    private void readBinaryInput(File inputFile, SensorSink engine) throws IOException, InterruptedException {
+        File binaryFile = new File(currentDir, "input.bin");
+        if (!binaryFile.exists() || binaryFile.lastModified() < inputFile.lastModified()) {
+            System.out.println("Converting " + inputFile + " to " + binaryFile + ": " + CsvToBinary.convert(inputFile.toPath(), binaryFile.toPath()));
+        }
+        int threads = segmentThreads(Integer.getInteger("simplesample.input.threads", 1));
+        int workers = ingestWorkers();
+        if (workers <= 0) {
+            MappedBinarySource source = new MappedBinarySource(binaryFile.toPath(), threads, 256, inputSink(engine));
+            source.setPool(sensorPool);
+            inputStats = source.run();
+            return;
         }
+        SensorIngestor ingestor = new SensorIngestor(runtime, workers, 8192, OverflowPolicy.BLOCK);
+        inputStats = new MappedBinarySource(binaryFile.toPath(), threads, 256, inputSink(ingestor)).run();
+        ingestor.close();
+        System.out.println(ingestor);
+    }
+
+    /**
+     * The number of threads of a source that reads the input file in segments. The segments are read in parallel, so the
+     * readings of a later segment move the time of the DedupFilter, or of the event clock, forward and the readings of the
+     * earlier segments would be taken for late ones: with simplesample.dedup or the event clock the file is read by one thread
+     * @param threads the number of threads asked for
+     * @return the number of threads to use
+     */
+    private int segmentThreads(int threads){
+        if (threads > 1 && Long.getLong("simplesample.dedup", 0) > 0) {
+            System.out.println("simplesample.dedup reads the input file with one thread, the DedupFilter needs the readings in timestamp order");
+            return 1;
+        }
+        if (threads > 1 && eventClock) {
+            System.out.println("The event clock reads the input file with one thread, the EventTimeDriver needs the readings in timestamp order");
+            return 1;
+        }
+        return threads;
+    }
+
+    /**
+     * The number of workers of the SensorIngestor of the segmented inputs, the system property simplesample.ingest.workers.
+     * The workers send the events to the runtime themselves, so with the event clock there are none
+     * @return the number of workers, 0 to send the events on the reading threads
+     */
+    private int ingestWorkers(){
+        int workers = Integer.getInteger("simplesample.ingest.workers", 0);
+        if (workers > 0 && eventClock) {
+            System.out.println("simplesample.ingest.workers is not used, the event clock sends every event through its EventTimeDriver");
+            return 0;
+        }
+        return workers;
+    }
+
+    /**
+     * Create the sink the input is sent to: the readings are deduplicated, if enabled, then recorded in the history, if enabled,
+     * then handed over to the given sink
+     * @param sink the sink
+     * @return the sink the input should be sent to
+     */
+    private SensorSink inputSink(SensorSink sink) throws IOException {
+        return deduplicate(historyStore == null ? sink : new HistorySink(historyStore, sink));
+    }
+
+    /**
+     * Put a DedupFilter in front of a sink, when the system property simplesample.dedup sets its horizon in seconds.
+     * The repeated readings, same roomId and timestamp, are written to DuplicateLog.csv and the readings older than the horizon
+     * to LateLog.csv. The system property simplesample.dedup.keys is the number of readings each tenth of the horizon
+     * remembers (default: 100000, about 34 MB), which fixes the memory of the filter. The FileSource input is never deduplicated
+     * @param sink the sink
+     * @return the sink the input should be sent to
+     */
+    private SensorSink deduplicate(SensorSink sink) throws IOException {
+        long horizonMillis = Long.getLong("simplesample.dedup", 0) * 1000;
+        if (horizonMillis <= 0) {
+            return sink;
+        }
+        dedupFilter = new DedupFilter(sink, horizonMillis, 10, Integer.getInteger("simplesample.dedup.keys", 100000));
+        //After a restore the rejected readings before the checkpoint are already in the files
+        boolean append = restoredCheckpoint != null;
+        CsvSensorWriter duplicates = new CsvSensorWriter(new File(currentDir, "DuplicateLog.csv").toPath(), append);
+        CsvSensorWriter late = new CsvSensorWriter(new File(currentDir, "LateLog.csv").toPath(), append);
+        dedupFilter.setDuplicateSink(duplicates);
+        dedupFilter.setLateSink(late);
+        //The rejected readings of a checkpoint warm-up were logged before the checkpoint
+        if (listenerGate != null) {
+            dedupFilter.setSideSinksOpen(listenerGate::isOpen);
+        }
+        dedupLogs.add(duplicates);
+        dedupLogs.add(late);
+        return dedupFilter;
+    }
+
+    /**
+     * Create the driver of the event clock.
+     * The system property simplesample.clock.lateness is how late, in milliseconds, an event may arrive (default: 5000)
+     * @return the driver
+     */
+    private EventTimeDriver newEventTimeDriver(){
+        return new EventTimeDriver(runtime, Long.getLong("simplesample.clock.lateness", 5000));
+    }
+
+    /**
+     * Read the last checkpoint of the input file, if there is one
+     */
+    private void loadCheckpoint(){
+        try {
+            File inputFile = inputFile();
+            Checkpoint checkpoint = Checkpoint.read(new File(currentDir, "input.checkpoint"));
+            if (checkpoint == null) {
+                return;
+            }
+            //A checkpoint of another file, or of a longer version of this one, is ignored
+            if (checkpoint.getInputIdentity() != Checkpoint.identify(inputFile.toPath()) || checkpoint.getOffset() > inputFile.length()) {
+                System.out.println("Ignoring the checkpoint of another input file");
+                return;
+            }
+            restoredCheckpoint = checkpoint;
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Read sensor events from an input file, starting where the last checkpoint stopped.
+     * The events between the warm-up offset and the checkpoint offset are sent with the listeners muted, to rebuild the
+     * state of the statements; then the tail of the file is read and a checkpoint is written periodically.
+     * The system property simplesample.checkpoint.warmup is the number of events replayed, by default 0 when the deployed rules
+     * keep no state (the exact derivation mode and the threshold rules) and 100000 when a rule keeps state: the distinct
+     * derivation mode, the room windows or the history rule
+     * @param inputFile the input file
+     */
+    private void readCheckpointedCSVInput(File inputFile) throws IOException {
+        File checkpointFile = new File(currentDir, "input.checkpoint");
+        boolean statefulRules = derivation == DerivationMode.DISTINCT_TIMESTAMP
+                || !System.getProperty("simplesample.windows", "none").equals("none") || historyStore != null;
+        long warmupEvents = Long.getLong("simplesample.checkpoint.warmup", statefulRules ? 100000 : 0);
+        long offset = 0;
+        long events = 0;
+        IngestStats warmup = null;
+        EventTimeDriver driver = eventClock ? newEventTimeDriver() : null;
+        SensorSink sink = inputSink(driver != null ? driver : new RuntimeSink(runtime));
+        if (restoredCheckpoint != null) {
+            System.out.println("Restoring " + restoredCheckpoint);
+            listenerGate.close();
+            SequentialCsvSource warmupSource = new SequentialCsvSource(inputFile.toPath(), restoredCheckpoint.getWarmupOffset(),
+                    restoredCheckpoint.getOffset(), 256, sink, null);
+            warmupSource.setPool(sensorPool);
+            warmup = warmupSource.run();
+            if (driver != null) {
+                //The warm-up events still in the lateness buffer belong to the muted output
+                driver.flush();
+            }
+            listenerGate.open();
+            System.out.println("Warm-up " + warmup);
+            offset = restoredCheckpoint.getOffset();
+            events = restoredCheckpoint.getEvents();
+        }
+        Checkpointer checkpointer = new Checkpointer(checkpointFile, Checkpoint.identify(inputFile.toPath()),
+                checkpointIntervalMillis, warmupEvents, offset, events);
+        if (warmup != null) {
+            //A checkpoint written soon after the restore replays the same warm-up
+            checkpointer.restored(restoredCheckpoint.getWarmupOffset(), warmup.getEvents());
+        }
+        //The events still in the lateness buffer are not covered by a checkpoint
+        checkpointer.setDriver(driver);
+        //The output of the events before a checkpoint is written before the checkpoint
+        checkpointer.addOutput(consoleAppender);
+        for (BufferedFileSink output : outputSinks) {
+            checkpointer.addOutput(output);
+        }
+        if (outputPipeline != null) {
+            checkpointer.addOutput(outputPipeline);
+        }
+        SequentialCsvSource source = new SequentialCsvSource(inputFile.toPath(), offset, Long.MAX_VALUE, 256, sink, checkpointer);
+        source.setPool(sensorPool);
+        inputStats = source.run();
+        if (driver != null) {
+            driver.close();
+            System.out.println(driver);
+        }
+        checkpointer.finish();
+        System.out.println(checkpointer.getWritten() + " checkpoints written to " + checkpointFile.getName());
     }
 
     /**
@@ -218,50 +728,156 @@ public class SimpleSample {
             testOutputFile.delete();
         }
 
-        String createFileSinkEPL =
-                "create dataflow "+dataflowName+ " \n" +
-                        //We take the outstream of the given event type
-                        "EventBusSource -> outstream<"+eventName+"> {} \n" +
-                        //And send it to a FileSink dataflow that will save the event
-                        "FileSink(outstream) { \n" +
-                        //file attribute specifies the file path
-                        "file: '"+fileName+"', \n" +
-                        //If the file already existed would append the new values to the end
-                        "append: false \n" +
-                        "}";
+        String createFileSinkEPL = Rules.fileSinkDataflow(dataflowName, eventName, fileName);
         String deploymentId = compileAndDeploy(dataflowName, createFileSinkEPL, false);
         EPDataFlowInstance instance = runtime.getDataFlowService().instantiate(deploymentId, dataflowName);
         instance.start();
     }
 
     /**
-     * Generate the CEP rules
+     * Outputs events of a given type to a csv file through a BufferedFileSink,
+     * which writes on its own thread instead of the thread that sends the events.
+     * It is the default output since it replaced the FileSink dataflow (simplesample.output=filesink); its BLOCK policy
+     * makes the threads sending the events wait when the disk falls behind, instead of queueing without bound
+     * @param eventName the name of the event to be outputed
+     * @param fileName the name of the file to save the events
+     */
+    private void bufferEventsToFile(String eventName, String fileName){
+        String label = eventName + "BufferedOutput";
+        try {
+            //After a restore the output of the events before the checkpoint is already in the file
+            BufferedFileSink sink = new BufferedFileSink(new File(currentDir, fileName).toPath(), restoredCheckpoint != null);
+            String deploymentId = compileAndDeploy(label, "select * from " + eventName, false);
+            runtime.getDeploymentService().getStatement(deploymentId, label).addListener(instrument(label, sink));
+            outputSinks.add(sink);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Generate the CEP rules.
+     * The system property simplesample.derivation selects how the derived events are kept from deriving new events:
+     * exact (default) only derives from events of type SensorUpdate, distinct uses the original every-distinct patterns
      */
     private void generateRules(){
+        Map<String, String> rules = new LinkedHashMap<>();
         //Creates rules that print each new event
-        compileAndDeploy("select-SensorUpdate", "select * from SensorUpdate", true);
+        rules.put("select-SensorUpdate", Rules.SELECT_SENSOR_UPDATE);
 
         //Auto generate LowHumidity and HighTemperature events
-        compileAndDeploy("insert-LowHumidity", "insert into LowHumidity \n" +
-                "select s.temperature as temperature, s.humidity as humidity, s.roomId as roomId, s.timestamp as timestamp \n" +
-                "from pattern [every-distinct(s.timestamp) s=SensorUpdate(humidity<0.35)]", true);
-
-        compileAndDeploy("insert-HighTemperature", "insert into HighTemperature \n" +
-                "select s.temperature as temperature, s.humidity as humidity, s.roomId as roomId, s.timestamp as timestamp \n" +
-                "from pattern [every-distinct(s.timestamp) s=SensorUpdate(temperature>35)]", true);
-        /* -------- Note -------
-        Notice we used the every-distinct pattern operator on the previous rules, that is because since LowHumidity
-        and HighTemperature extend SensorUpdate every LowHumidity and HighTemperature would activate SensorUpdate rules
-        we use the every-distinct to avoid lops that would constantly create new LowHumidity and HighTemperature events
-        */
+        rules.put("insert-LowHumidity", Rules.insertLowHumidity(derivation));
+        rules.put("insert-HighTemperature", Rules.insertHighTemperature(derivation));
+
+        //Compile the rules that are not in the cache in parallel, then deploy them in order
+        try {
+            ruleCache.compileAll(rules);
+        }catch (EPCompileException ex){
+            ex.printStackTrace();
+        }
+        for (Map.Entry<String, String> rule : rules.entrySet()) {
+            String deploymentId = compileAndDeploy(rule.getKey(), rule.getValue(), true);
+            ruleManager.adopt(rule.getKey(), rule.getValue(), deploymentId);
+        }
     }
 
     /**
-     * Log special events to csv files
+     * Deploy the per-room window rules.
+     * The system property simplesample.windows selects how each room gets its own windows:
+     * none (default) does not deploy them, context uses a keyed context and groupwin uses grouped windows.
+     * Only the alerts are printed, the aggregations are updated on every event
+     */
+    private void deployRoomWindows(){
+        String windows = System.getProperty("simplesample.windows", "none");
+        if (windows.equals("none")) {
+            return;
+        }
+        WindowGrouping grouping = windows.equals("groupwin") ? WindowGrouping.GROUPWIN : WindowGrouping.CONTEXT;
+        String deploymentId = compileAndDeploy("room-readings", Rules.roomWindows(grouping), false);
+        for (String statementName : Rules.ROOM_ALERT_STATEMENTS) {
+            EPStatement statement = runtime.getDeploymentService().getStatement(deploymentId, statementName);
+            statement.addListener(instrument(statementName, new PrintListener(consoleAppender)));
+        }
+    }
+
+    /**
+     * Deliver the special events through an OutputPipeline: each file is written by a thread of its own from a bounded queue,
+     * away from the threads sending the events. The files get the "temperature,humidity,roomId,timestamp" lines of input.csv.
+     * The system property simplesample.output.forward=host:port also forwards them to the SensorEndpoint of another process;
+     * that sink drops the events it cannot keep up with, so a slow or unreachable receiver does not slow down the rules
+     */
+    private void pipelineEventsToFiles(){
+        try {
+            outputPipeline = listenerGate == null ? new OutputPipeline() : new OutputPipeline(listenerGate::isOpen);
+            //After a restore the output of the events before the checkpoint is already in the file
+            boolean append = restoredCheckpoint != null;
+            outputPipeline.addSink("LowHumidityLog", LowHumidity.class,
+                    new CsvSensorWriter(new File(currentDir, "LowHumidityLog.csv").toPath(), append), 65536, 1024, OverflowPolicy.BLOCK);
+            outputPipeline.addSink("HighTemperatureLog", HighTemperature.class,
+                    new CsvSensorWriter(new File(currentDir, "HighTemperatureLog.csv").toPath(), append), 65536, 1024, OverflowPolicy.BLOCK);
+            String forward = System.getProperty("simplesample.output.forward");
+            if (forward != null) {
+                String[] hostPort = forward.split(":");
+                //Connects on the first event and again after a failure, an unreachable receiver only loses the forwarded events
+                ReconnectingSensorClient client = new ReconnectingSensorClient(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])), WireFormat.LINE, false);
+                outputPipeline.addSink("forward", SensorUpdate.class, client, 65536, 256, OverflowPolicy.DROP);
+            }
+        }catch (IOException ex){
+            ex.printStackTrace();
+            return;
+        }
+        for (String eventName : new String[]{"LowHumidity", "HighTemperature"}) {
+            String label = eventName + "PipelineOutput";
+            String deploymentId = compileAndDeploy(label, "select * from " + eventName, false);
+            outputPipeline.subscribe(runtime.getDeploymentService().getStatement(deploymentId, label));
+        }
+    }
+
+    /**
+     * Deploy the threshold rules of the file named by the system property simplesample.thresholds, a
+     * "id,roomId,measure,comparison,threshold" line per rule (e.g.: r1,12,temperature,above,30 or r2,*,humidity,below,0.2).
+     * The system property simplesample.thresholds.layout selects where their conditions are written: filter (default), indexed
+     * across all the rules, or where. The alerts of every rule are printed
+     */
+    private void deployThresholds(){
+        String file = System.getProperty("simplesample.thresholds");
+        if (file == null) {
+            return;
+        }
+        ThresholdLayout layout = System.getProperty("simplesample.thresholds.layout", "filter").equals("where")
+                ? ThresholdLayout.WHERE : ThresholdLayout.FILTER;
+        try {
+            List<ThresholdRule> rules = new ArrayList<>();
+            for (String line : Files.readAllLines(Paths.get(file))) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    rules.add(ThresholdRule.parse(line));
+                }
+            }
+            ThresholdDeployer deployer = new ThresholdDeployer(runtime, ruleCache, layout);
+            deployer.deployAll(rules, instrument("thresholds", new PrintListener(consoleAppender)));
+            System.out.println(deployer);
+        }catch (Exception ex){
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Log special events to csv files.
+     * The system property simplesample.output selects how the files are written:
+     * buffered (default) uses a BufferedFileSink, filesink uses the esperio FileSink dataflow and pipeline uses an OutputPipeline
      */
     private void logSpecialEvents(){
-        outputEventsToFile("LowHumidity", "LowHumidityLog.csv");
-        outputEventsToFile("HighTemperature", "HighTemperatureLog.csv");
+        if (System.getProperty("simplesample.output", "buffered").equals("pipeline")) {
+            pipelineEventsToFiles();
+            return;
+        }
+        if (System.getProperty("simplesample.output", "buffered").equals("filesink")) {
+            outputEventsToFile("LowHumidity", "LowHumidityLog.csv");
+            outputEventsToFile("HighTemperature", "HighTemperatureLog.csv");
+            return;
+        }
+        bufferEventsToFile("LowHumidity", "LowHumidityLog.csv");
+        bufferEventsToFile("HighTemperature", "HighTemperatureLog.csv");
     }
 
     /**
@@ -273,11 +889,91 @@ public class SimpleSample {
         //Generate the CEP rules
         generateRules();
 
+        //Deploy the per-room window rules, if enabled
+        deployRoomWindows();
+
+        //Deploy the threshold rules, if any
+        deployThresholds();
+
+        //Deploy the rules over the history of the rooms, if enabled
+        if (historyStore != null) {
+            compileAndDeploy("history-above-average", Rules.HISTORY_ABOVE_AVERAGE, true);
+        }
+
+        //Find out where a previous run stopped, before the output files are opened
+        if (checkpointIntervalMillis > 0) {
+            loadCheckpoint();
+        }
+
         //Log special events to csv files
         logSpecialEvents();
 
         //Reads events from the input file
         readCSVInput();
+
+        //Wait for the thread pools of the runtime, if any, to process the queued events and deliver their output,
+        //before the appender, the sinks and the pipeline are closed
+        if (Integer.getInteger("simplesample.threading.inbound", 0) > 0 || Integer.getInteger("simplesample.threading.outbound", 0) > 0) {
+            try {
+                if (!RuntimeThreading.awaitQuiescence(runtime, 500, 60000)) {
+                    System.out.println("The thread pools of the runtime still had " + RuntimeThreading.pendingWork(runtime) + " tasks after 60 s, their output may be lost");
+                }
+            }catch (InterruptedException ex){
+                ex.printStackTrace();
+            }
+        }
+
+        //Print the remaining output and write the remaining special events
+        try {
+            consoleAppender.close();
+            if (consoleAppender.getDroppedBatches() > 0) {
+                System.out.println("The console appender dropped " + consoleAppender.getDroppedBatches() + " batches of interrupted threads");
+            }
+            for (BufferedFileSink sink : outputSinks) {
+                sink.close();
+                System.out.println(sink);
+            }
+            if (outputPipeline != null) {
+                outputPipeline.close();
+                System.out.println(outputPipeline);
+            }
+            for (CsvSensorWriter log : dedupLogs) {
+                log.close();
+            }
+            if (dedupFilter != null) {
+                System.out.println(dedupFilter);
+            }
+            if (historyStore != null) {
+                System.out.println(historyStore);
+            }
+            if (sensorPool != null) {
+                System.out.println(sensorPool);
+            }
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+
+        //Wait for the last reporting interval, then print the statements that used more CPU
+        if (metrics != null) {
+            try {
+                Thread.sleep(metricsIntervalMillis);
+            }catch (InterruptedException ex){
+                ex.printStackTrace();
+            }
+            metrics.close();
+            System.out.print(metrics.report());
+        }
+
+        //Print how fast the input was read and how long the rules took to compile
+        if (inputStats != null) {
+            System.out.println(inputStats);
+        }
+        System.out.println(eventTypeReport);
+        System.out.print(ruleCache.report());
+        if (ruleManager.getSwaps() > 0) {
+            System.out.println(ruleManager);
+        }
+        ruleManager.close();
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,17 @@
+package webmedia.cep2019.simplesample;
+
+/**
+ * Where the conditions of a threshold rule are written in its statement
+ */
+public enum ThresholdLayout {
+    /**
+     * In the filter of the stream (SensorUpdate(roomId = ?, temperature > ?)): the runtime keeps the values of every
+     * threshold statement in shared filter indexes (hashed for roomId, sorted for the ranges), so an event is only
+     * handed to the statements whose conditions it meets
+     */
+    FILTER,
+    /**
+     * In the where clause: every statement receives every SensorUpdate and evaluates its own conditions
+     */
+    WHERE
+}
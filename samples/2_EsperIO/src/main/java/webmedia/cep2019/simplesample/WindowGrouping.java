@@ -0,0 +1,15 @@
+package webmedia.cep2019.simplesample;
+
+/**
+ * How the per-room window rules keep a separate window for each room
+ */
+public enum WindowGrouping {
+    /**
+     * A keyed context (partition by roomId): each room gets its own context partition with its own windows and aggregations
+     */
+    CONTEXT,
+    /**
+     * A single statement with a grouped window (#groupwin(roomId)) and group by roomId
+     */
+    GROUPWIN
+}
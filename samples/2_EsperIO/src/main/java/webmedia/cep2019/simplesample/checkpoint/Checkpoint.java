@@ -0,0 +1,149 @@
+package webmedia.cep2019.simplesample.checkpoint;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * How far the input of a run was processed.
+ * Esper does not export the state of its statements, so a checkpoint keeps where the state can be rebuilt from instead:
+ * the events before warmupOffset never affect the output again, the events between warmupOffset and offset are replayed
+ * with the listeners muted to rebuild the state of the statements, and the output continues from offset.
+ * Checkpoints are stored in a small binary file with a checksum, replaced atomically
+ */
+public final class Checkpoint {
+
+    private static final int MAGIC = 0x53434B50;
+    private static final int VERSION = 1;
+    //Identifies the input by its first bytes, so a checkpoint is not applied to another file
+    private static final int IDENTITY_BYTES = 4096;
+
+    private final long inputIdentity;
+    private final long offset;
+    private final long events;
+    private final long warmupOffset;
+    private final long createdMillis;
+
+    /**
+     * @param inputIdentity the identity of the input file (see identify)
+     * @param offset the offset of the first line not processed
+     * @param events the number of events processed
+     * @param warmupOffset the offset of the first line replayed on restore
+     * @param createdMillis when the checkpoint was taken
+     */
+    public Checkpoint(long inputIdentity, long offset, long events, long warmupOffset, long createdMillis) {
+        this.inputIdentity = inputIdentity;
+        this.offset = offset;
+        this.events = events;
+        this.warmupOffset = warmupOffset;
+        this.createdMillis = createdMillis;
+    }
+
+    public long getInputIdentity() {
+        return inputIdentity;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getWarmupOffset() {
+        return warmupOffset;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * @param input the input file
+     * @return a checksum of the first bytes of the file
+     */
+    public static long identify(Path input) throws IOException {
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(IDENTITY_BYTES);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                //Read until the buffer is full or the file ends
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.position());
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * Write the checkpoint to a temporary file and move it over the previous one
+     * @param file the checkpoint file
+     */
+    public void write(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(inputIdentity);
+        output.writeLong(offset);
+        output.writeLong(events);
+        output.writeLong(warmupOffset);
+        output.writeLong(createdMillis);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        output.writeLong(crc.getValue());
+        output.flush();
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            //The checkpoint must be on disk before it replaces the previous one
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file the checkpoint file
+     * @return the checkpoint, or null if the file does not exist or is damaged
+     */
+    public static Checkpoint read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            if (bytes.length < 8) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return null;
+            }
+            Checkpoint checkpoint = new Checkpoint(input.readLong(), input.readLong(), input.readLong(), input.readLong(), input.readLong());
+            return input.readLong() == crc.getValue() ? checkpoint : null;
+        }catch (IOException ex){
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Checkpoint: %d events, offset %d, warm-up from offset %d", events, offset, warmupOffset);
+    }
+}
@@ -0,0 +1,137 @@
+package webmedia.cep2019.simplesample.checkpoint;
+
+import webmedia.cep2019.simplesample.ingest.SequentialCsvSource;
+import webmedia.cep2019.simplesample.time.EventTimeDriver;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a checkpoint periodically while a SequentialCsvSource sends events to a runtime.
+ * The source reports its offset after each batch; since the runtime processes a batch before the source continues,
+ * every event before that offset was already processed, but its output may still be queued: the outputs are flushed
+ * before the checkpoint is written. The runtime must process the events on the sending thread (no inbound or outbound threads).
+ * With an EventTimeDriver the events of a batch may still wait in its lateness buffer: the checkpoint is then written at the
+ * last batch boundary before the oldest waiting event, the events after it that were already sent are processed again on restore.
+ * The warm-up offset is kept at least warmupEvents events behind the checkpoint offset, at a batch boundary
+ */
+public class Checkpointer implements SequentialCsvSource.Progress {
+
+    private final File file;
+    private final long inputIdentity;
+    private final long intervalNanos;
+    private final long warmupEvents;
+    private final long baseEvents;
+    private final List<Flushable> outputs = new ArrayList<>();
+
+    //The offset, event count and driver arrivals of the batch boundaries from the warm-up offset to the checkpoint offset,
+    //oldest first; the last one is where the next checkpoint is written
+    private final ArrayDeque<long[]> boundaries = new ArrayDeque<>();
+    //The boundaries after it, whose events are not all sent by the driver yet
+    private final ArrayDeque<long[]> waiting = new ArrayDeque<>();
+    private EventTimeDriver driver;
+
+    private long lastCheckpoint = System.nanoTime();
+    private int written;
+
+    /**
+     * @param file the checkpoint file
+     * @param inputIdentity the identity of the input file (see Checkpoint.identify)
+     * @param intervalMillis the time between checkpoints
+     * @param warmupEvents how many events before the checkpoint offset are replayed on restore
+     * @param baseOffset the offset where the source starts
+     * @param baseEvents the number of events processed before the source starts
+     */
+    public Checkpointer(File file, long inputIdentity, long intervalMillis, long warmupEvents, long baseOffset, long baseEvents) {
+        this.file = file;
+        this.inputIdentity = inputIdentity;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.warmupEvents = warmupEvents;
+        this.baseEvents = baseEvents;
+        boundaries.addLast(new long[]{baseOffset, baseEvents, 0});
+    }
+
+    /**
+     * Keep the warm-up of a restored checkpoint, before the source starts: until warmupEvents events were sent after it,
+     * the next checkpoints replay from there, instead of from the restored offset without any warm-up
+     * @param offset the warm-up offset of the restored checkpoint
+     * @param replayedEvents the number of events replayed from there to the restored offset
+     */
+    public void restored(long offset, long replayedEvents) {
+        long[] base = boundaries.peekFirst();
+        if (offset < base[0]) {
+            boundaries.addFirst(new long[]{offset, base[1] - replayedEvents, 0});
+        }
+    }
+
+    /**
+     * Set the EventTimeDriver the events are sent through, before the source starts
+     */
+    public void setDriver(EventTimeDriver driver) {
+        this.driver = driver;
+    }
+
+    /**
+     * Add an output written from a queue (e.g. a BufferedFileSink), it is flushed before each checkpoint
+     */
+    public void addOutput(Flushable output) {
+        outputs.add(output);
+    }
+
+    @Override
+    public void sent(long offset, long events) throws IOException {
+        waiting.addLast(new long[]{offset, baseEvents + events, driver == null ? 0 : driver.getArrivals()});
+        remember();
+        if (System.nanoTime() - lastCheckpoint >= intervalNanos) {
+            write();
+        }
+    }
+
+    /**
+     * Write a checkpoint at the last offset reported by the source whose events were all sent, when it finished
+     */
+    public void finish() throws IOException {
+        remember();
+        write();
+    }
+
+    private void remember() {
+        //A boundary can be the checkpoint once every event that arrived at the driver before it was sent to the runtime
+        long oldestPending = driver == null ? Long.MAX_VALUE : driver.getOldestPending();
+        while (!waiting.isEmpty() && waiting.peekFirst()[2] <= oldestPending) {
+            boundaries.addLast(waiting.pollFirst());
+        }
+        //The warm-up starts at the latest boundary with at least warmupEvents events before the checkpoint,
+        //so only the boundaries after it are kept, about warmupEvents / batch size of them
+        long events = boundaries.peekLast()[1];
+        while (boundaries.size() > 1) {
+            Iterator<long[]> it = boundaries.iterator();
+            it.next();
+            if (events - it.next()[1] < warmupEvents) {
+                break;
+            }
+            boundaries.pollFirst();
+        }
+    }
+
+    private void write() throws IOException {
+        for (Flushable output : outputs) {
+            output.flush();
+        }
+        long[] checkpoint = boundaries.peekLast();
+        long[] warmup = boundaries.peekFirst();
+        new Checkpoint(inputIdentity, checkpoint[0], checkpoint[1], warmup[0], System.currentTimeMillis()).write(file);
+        lastCheckpoint = System.nanoTime();
+        written++;
+    }
+
+    public int getWritten() {
+        return written;
+    }
+}
@@ -0,0 +1,41 @@
+package webmedia.cep2019.simplesample.checkpoint;
+
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.UpdateListener;
+
+/**
+ * Mutes a group of listeners while the state of the statements is rebuilt from the warm-up events,
+ * so the output of the events already processed before the checkpoint is not repeated
+ */
+public class ListenerGate {
+
+    private volatile boolean open = true;
+
+    public void open() {
+        open = true;
+    }
+
+    public void close() {
+        open = false;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * @param listener the listener
+     * @return a listener that only calls the given one while the gate is open
+     */
+    public UpdateListener wrap(UpdateListener listener) {
+        return new UpdateListener() {
+            public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+                if (open) {
+                    listener.update(newData, oldData, epStatement, epRuntime);
+                }
+            }
+        };
+    }
+}
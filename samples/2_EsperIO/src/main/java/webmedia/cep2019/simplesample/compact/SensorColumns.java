@@ -0,0 +1,71 @@
+package webmedia.cep2019.simplesample.compact;
+
+import com.espertech.esper.runtime.client.EPEventService;
+
+/**
+ * A batch of sensor readings stored by column, in primitive arrays.
+ * A batch of n readings takes 28 * n bytes and a few objects, instead of one object per reading.
+ * The readings are sent to the runtime as SensorRow object arrays or through a reused SensorCursor
+ */
+public final class SensorColumns {
+
+    final double[] temperature;
+    final double[] humidity;
+    final int[] roomId;
+    final long[] timestamp;
+    private int size;
+    private final SensorCursor cursor = new SensorCursor(this);
+
+    /**
+     * @param capacity the maximum number of readings
+     */
+    public SensorColumns(int capacity) {
+        temperature = new double[capacity];
+        humidity = new double[capacity];
+        roomId = new int[capacity];
+        timestamp = new long[capacity];
+    }
+
+    /**
+     * Add a reading at the end of the batch
+     * @return false if the batch is full
+     */
+    public boolean add(double temperature, double humidity, int roomId, long timestamp) {
+        if (size == this.temperature.length) {
+            return false;
+        }
+        this.temperature[size] = temperature;
+        this.humidity[size] = humidity;
+        this.roomId[size] = roomId;
+        this.timestamp[size] = timestamp;
+        size++;
+        return true;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Send every reading as a SensorRow event.
+     * Each event is a new Object[] with boxed values, the runtime may keep it
+     * @param eventService the event service of the runtime
+     */
+    public void sendRows(EPEventService eventService) {
+        for (int i = 0; i < size; i++) {
+            eventService.sendEventObjectArray(new Object[]{temperature[i], humidity[i], roomId[i], timestamp[i]}, SensorRowTypes.SENSOR_ROW);
+        }
+    }
+
+    /**
+     * Send every reading as a SensorCursor event, moving the same cursor over the batch.
+     * Only valid when the runtime processes each event before sendEventBean returns, see SensorCursor
+     * @param eventService the event service of the runtime
+     */
+    public void sendCursor(EPEventService eventService) {
+        for (int i = 0; i < size; i++) {
+            cursor.index = i;
+            eventService.sendEventBean(cursor, SensorRowTypes.SENSOR_CURSOR);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package webmedia.cep2019.simplesample.compact;
+
+/**
+ * A flyweight event: the getters read the current row of a SensorColumns buffer, and the same cursor is sent for every row.
+ * No object is created per reading, but the event changes as soon as the next row is sent, so it may only be used when
+ * the runtime processes each event before sendEventBean returns:
+ * no inbound or outbound thread pools, no data windows or patterns that keep SensorCursor events,
+ * and listeners that copy what they need during update instead of keeping the event.
+ * Rules that derive new events from it with insert into copy the values, so the derived events are safe
+ */
+public final class SensorCursor {
+
+    private final SensorColumns columns;
+    int index;
+
+    SensorCursor(SensorColumns columns) {
+        this.columns = columns;
+    }
+
+    public double getTemperature() {
+        return columns.temperature[index];
+    }
+
+    public double getHumidity() {
+        return columns.humidity[index];
+    }
+
+    public int getRoomId() {
+        return columns.roomId[index];
+    }
+
+    public long getTimestamp() {
+        return columns.timestamp[index];
+    }
+}
@@ -0,0 +1,42 @@
+package webmedia.cep2019.simplesample.compact;
+
+import com.espertech.esper.common.client.configuration.Configuration;
+
+/**
+ * Compact event types with the same properties as SensorUpdate, registered alongside the bean types.
+ * SensorRow, LowHumidityRow and HighTemperatureRow are object-array types: an event is an Object[] with the
+ * properties in the order of PROPERTY_NAMES and no class hierarchy, so a derived event never matches a SensorRow rule.
+ * SensorCursor is a bean type over a SensorColumns buffer, see SensorCursor for its contract
+ */
+public final class SensorRowTypes {
+
+    public static final String SENSOR_ROW = "SensorRow";
+    public static final String LOW_HUMIDITY_ROW = "LowHumidityRow";
+    public static final String HIGH_TEMPERATURE_ROW = "HighTemperatureRow";
+    public static final String SENSOR_CURSOR = "SensorCursor";
+
+    public static final String[] PROPERTY_NAMES = {"temperature", "humidity", "roomId", "timestamp"};
+    private static final Object[] PROPERTY_TYPES = {double.class, double.class, int.class, long.class};
+
+    private SensorRowTypes() {
+    }
+
+    /**
+     * Add the compact event types to a configuration
+     * @param configuration the configuration
+     */
+    public static void register(Configuration configuration) {
+        configuration.getCommon().addEventType(SENSOR_ROW, PROPERTY_NAMES, PROPERTY_TYPES);
+        configuration.getCommon().addEventType(LOW_HUMIDITY_ROW, PROPERTY_NAMES, PROPERTY_TYPES);
+        configuration.getCommon().addEventType(HIGH_TEMPERATURE_ROW, PROPERTY_NAMES, PROPERTY_TYPES);
+        configuration.getCommon().addEventType(SENSOR_CURSOR, SensorCursor.class.getName());
+    }
+
+    /**
+     * Create a SensorRow event
+     * @return the event, to be sent with sendEventObjectArray
+     */
+    public static Object[] row(double temperature, double humidity, int roomId, long timestamp) {
+        return new Object[]{temperature, humidity, roomId, timestamp};
+    }
+}
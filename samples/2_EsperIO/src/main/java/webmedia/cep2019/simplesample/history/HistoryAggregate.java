@@ -0,0 +1,92 @@
+package webmedia.cep2019.simplesample.history;
+
+/**
+ * The count, minimum, maximum and average of the temperature and the humidity of a room over a time range
+ */
+public class HistoryAggregate implements HistoryVisitor {
+
+    private final int roomId;
+    private final long start;
+    private final long end;
+    private long count;
+    private double minTemperature = Double.NaN;
+    private double maxTemperature = Double.NaN;
+    private double temperatureSum;
+    private double minHumidity = Double.NaN;
+    private double maxHumidity = Double.NaN;
+    private double humiditySum;
+
+    /**
+     * @param roomId the room
+     * @param start the start of the range, inclusive
+     * @param end the end of the range, exclusive
+     */
+    public HistoryAggregate(int roomId, long start, long end) {
+        this.roomId = roomId;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public void visit(long timestamp, double temperature, double humidity) {
+        if (count == 0) {
+            minTemperature = maxTemperature = temperature;
+            minHumidity = maxHumidity = humidity;
+        }else {
+            minTemperature = Math.min(minTemperature, temperature);
+            maxTemperature = Math.max(maxTemperature, temperature);
+            minHumidity = Math.min(minHumidity, humidity);
+            maxHumidity = Math.max(maxHumidity, humidity);
+        }
+        temperatureSum += temperature;
+        humiditySum += humidity;
+        count++;
+    }
+
+    public int getRoomId() {
+        return roomId;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMinTemperature() {
+        return minTemperature;
+    }
+
+    public double getMaxTemperature() {
+        return maxTemperature;
+    }
+
+    public double getAverageTemperature() {
+        return count == 0 ? Double.NaN : temperatureSum / count;
+    }
+
+    public double getMinHumidity() {
+        return minHumidity;
+    }
+
+    public double getMaxHumidity() {
+        return maxHumidity;
+    }
+
+    public double getAverageHumidity() {
+        return count == 0 ? Double.NaN : humiditySum / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("room %d [%d, %d): %d readings, temperature %.2f/%.2f/%.2f, humidity %.3f/%.3f/%.3f (min/avg/max)",
+                roomId, start, end, count, minTemperature, getAverageTemperature(), maxTemperature,
+                minHumidity, getAverageHumidity(), maxHumidity);
+    }
+}
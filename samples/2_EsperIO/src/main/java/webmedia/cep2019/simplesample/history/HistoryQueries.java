@@ -0,0 +1,49 @@
+package webmedia.cep2019.simplesample.history;
+
+import com.espertech.esper.common.client.configuration.Configuration;
+
+/**
+ * The history queries that EPL statements call through a method-invocation join, e.g.:
+ * <pre>
+ * select s.roomId, h.averageTemperature from SensorUpdate as s,
+ *   method:HistoryQueries.aggregate(s.roomId, s.timestamp - 86400000, s.timestamp) as h
+ * </pre>
+ * The history stays off the heap in the installed HistoryStore instead of in named windows
+ */
+public final class HistoryQueries {
+
+    private static volatile HistoryStore store;
+
+    private HistoryQueries() {
+    }
+
+    /**
+     * Import this class, so statements can call its methods without the package name
+     */
+    public static void configure(Configuration configuration) {
+        configuration.getCommon().addImport(HistoryQueries.class);
+    }
+
+    /**
+     * @param historyStore the store queried by the statements
+     */
+    public static void install(HistoryStore historyStore) {
+        store = historyStore;
+    }
+
+    /**
+     * @return the aggregate of the readings of a room in [from, to), a single row
+     */
+    public static HistoryAggregate aggregate(int roomId, long from, long to) {
+        HistoryStore current = store;
+        return current == null ? new HistoryAggregate(roomId, from, to) : current.aggregate(roomId, from, to);
+    }
+
+    /**
+     * @return the aggregates of the intervals of [from, to) with readings, a row per interval
+     */
+    public static HistoryAggregate[] downsample(int roomId, long from, long to, long intervalMillis) {
+        HistoryStore current = store;
+        return current == null ? new HistoryAggregate[0] : current.downsample(roomId, from, to, intervalMillis);
+    }
+}
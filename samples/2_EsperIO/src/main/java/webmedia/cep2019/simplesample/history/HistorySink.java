@@ -0,0 +1,31 @@
+package webmedia.cep2019.simplesample.history;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+
+/**
+ * Appends every reading to a HistoryStore before handing the batch over to the next sink,
+ * so the history is complete by the time the rules that query it see the reading
+ */
+public class HistorySink implements SensorSink {
+
+    private final HistoryStore store;
+    private final SensorSink downstream;
+
+    /**
+     * @param store the store
+     * @param downstream the next sink, e.g. the runtime
+     */
+    public HistorySink(HistoryStore store, SensorSink downstream) {
+        this.store = store;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void send(SensorUpdate[] batch, int length) {
+        for (int i = 0; i < length; i++) {
+            store.append(batch[i]);
+        }
+        downstream.send(batch, length);
+    }
+}
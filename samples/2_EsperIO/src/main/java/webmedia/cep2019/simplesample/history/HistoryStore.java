@@ -0,0 +1,364 @@
+package webmedia.cep2019.simplesample.history;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the recent readings of every room outside of the heap, to query them by time range.
+ * Each room has a list of segments, direct buffers with a column of timestamps, one of temperatures and one of humidities;
+ * readings are appended to the last segment of their room. The first segment of a room is small and each next one doubles,
+ * up to the largest segment size, so the many rooms with few readings take little memory.
+ * Whole segments are dropped once all their readings are older than the retention, counted back from the latest timestamp
+ * of the store: when their room needs a new segment, and in every room, including the rooms that stopped reporting, after every
+ * SWEEP_INTERVAL readings. A room left without readings is removed. Freed segments of the largest size are reused.
+ * A segment keeps its minimum and maximum timestamp, so a scan skips the segments out of its range and, while the readings of
+ * a segment arrived in order, finds the start of the range by binary search. Rooms are locked one at a time,
+ * so readings of different rooms are appended and scanned in parallel
+ */
+public class HistoryStore {
+
+    public static final int DEFAULT_SEGMENT_READINGS = 4096;
+
+    //The readings of the first segment of a room
+    public static final int FIRST_SEGMENT_READINGS = 64;
+
+    //Every room is swept for old segments after this many readings
+    public static final int SWEEP_INTERVAL = 1 << 16;
+
+    //Bytes of a reading: a long timestamp, a double temperature and a double humidity
+    private static final int READING_BYTES = 24;
+
+    //The largest number of freed segments kept for reuse
+    private static final int MAX_FREE_SEGMENTS = 256;
+
+    private final long retentionMillis;
+    private final int segmentReadings;
+    private final Map<Integer, RoomHistory> rooms = new ConcurrentHashMap<>();
+    private final Queue<ByteBuffer> freeSegments = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+    private final AtomicInteger segmentCount = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong readings = new AtomicLong();
+    private final AtomicLong latest = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    /**
+     * @param retentionMillis how long, in event time, the readings are kept
+     */
+    public HistoryStore(long retentionMillis) {
+        this(retentionMillis, DEFAULT_SEGMENT_READINGS);
+    }
+
+    /**
+     * @param retentionMillis how long, in event time, the readings are kept
+     * @param segmentReadings the number of readings of the largest segments
+     */
+    public HistoryStore(long retentionMillis, int segmentReadings) {
+        if (retentionMillis < 1 || segmentReadings < 1) {
+            throw new IllegalArgumentException("retentionMillis and segmentReadings must be positive");
+        }
+        this.retentionMillis = retentionMillis;
+        this.segmentReadings = segmentReadings;
+    }
+
+    /**
+     * Append a reading
+     */
+    public void append(SensorUpdate event) {
+        append(event.getRoomId(), event.getTimestamp(), event.getTemperature(), event.getHumidity());
+    }
+
+    /**
+     * Append a reading
+     */
+    public void append(int roomId, long timestamp, double temperature, double humidity) {
+        long current;
+        while (timestamp > (current = latest.get()) && !latest.compareAndSet(current, timestamp)) {
+        }
+        while (true) {
+            RoomHistory room = rooms.get(roomId);
+            if (room == null) {
+                room = rooms.computeIfAbsent(roomId, key -> new RoomHistory());
+            }
+            //A room removed by a sweep in between is created again
+            if (room.append(timestamp, temperature, humidity)) {
+                break;
+            }
+        }
+        if (readings.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            evict();
+        }
+    }
+
+    /**
+     * Visit the readings of a room in a time range, in the order they were appended
+     * @param roomId the room
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @param visitor receives the readings, while the room is locked
+     * @return the number of readings visited
+     */
+    public long scan(int roomId, long from, long to, HistoryVisitor visitor) {
+        RoomHistory room = rooms.get(roomId);
+        return room == null || from >= to ? 0 : room.scan(from, to, visitor);
+    }
+
+    /**
+     * @return the aggregate of the readings of a room in a time range
+     */
+    public HistoryAggregate aggregate(int roomId, long from, long to) {
+        HistoryAggregate aggregate = new HistoryAggregate(roomId, from, to);
+        scan(roomId, from, to, aggregate);
+        return aggregate;
+    }
+
+    /**
+     * Downsample the readings of a room: split a time range in intervals and aggregate the readings of each one
+     * @param roomId the room
+     * @param from the start of the range, inclusive, it is the start of the first interval
+     * @param to the end of the range, exclusive
+     * @param intervalMillis the length of an interval
+     * @return the aggregates of the intervals with readings, in time order
+     */
+    public HistoryAggregate[] downsample(int roomId, long from, long to, long intervalMillis) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("intervalMillis must be positive");
+        }
+        //Only the intervals with readings are created, however many intervals the range has
+        TreeMap<Long, HistoryAggregate> aggregates = new TreeMap<>();
+        scan(roomId, from, to, (timestamp, temperature, humidity) -> {
+            long interval = (timestamp - from) / intervalMillis;
+            HistoryAggregate aggregate = aggregates.get(interval);
+            if (aggregate == null) {
+                long start = from + interval * intervalMillis;
+                aggregate = new HistoryAggregate(roomId, start, Math.min(to, start + intervalMillis));
+                aggregates.put(interval, aggregate);
+            }
+            aggregate.visit(timestamp, temperature, humidity);
+        });
+        return aggregates.values().toArray(new HistoryAggregate[0]);
+    }
+
+    /**
+     * Drop the segments older than the retention in every room, and the rooms left without readings.
+     * It runs after every SWEEP_INTERVAL readings; a call while another thread sweeps returns at once
+     */
+    public void evict() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long before = evictionTime();
+            for (Map.Entry<Integer, RoomHistory> entry : rooms.entrySet()) {
+                if (entry.getValue().sweep(before)) {
+                    rooms.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        }finally {
+            sweeping.set(false);
+        }
+    }
+
+    private long evictionTime() {
+        long current = latest.get();
+        return current == Long.MIN_VALUE ? Long.MIN_VALUE : current - retentionMillis;
+    }
+
+    private ByteBuffer allocateSegment(int capacity) {
+        if (capacity == segmentReadings) {
+            ByteBuffer segment = freeSegments.poll();
+            if (segment != null) {
+                freeCount.decrementAndGet();
+                return segment;
+            }
+        }
+        segmentCount.incrementAndGet();
+        bytes.addAndGet((long) capacity * READING_BYTES);
+        return ByteBuffer.allocateDirect(capacity * READING_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    private void releaseSegment(ByteBuffer segment) {
+        //Only the largest segments are reused, the others are left to the garbage collector
+        if (segment.capacity() == segmentReadings * READING_BYTES && freeCount.incrementAndGet() <= MAX_FREE_SEGMENTS) {
+            freeSegments.add(segment);
+            return;
+        }
+        if (segment.capacity() == segmentReadings * READING_BYTES) {
+            freeCount.decrementAndGet();
+        }
+        segmentCount.decrementAndGet();
+        bytes.addAndGet(-segment.capacity());
+    }
+
+    public int getRooms() {
+        return rooms.size();
+    }
+
+    /**
+     * @return the number of readings appended since the store was created, including the evicted ones
+     */
+    public long getAppended() {
+        return readings.get();
+    }
+
+    /**
+     * @return the off-heap bytes of the segments, in use or free
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HistoryStore(%d ms retention): %d rooms, %d readings appended, %d segments (%d free), %d KB off-heap",
+                retentionMillis, rooms.size(), readings.get(), segmentCount.get(), freeCount.get(), getBytes() / 1024);
+    }
+
+    /**
+     * The readings of a segment, columns of capacity values
+     */
+    private static final class Segment {
+        final ByteBuffer data;
+        final int capacity;
+        int size;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        boolean ordered = true;
+
+        Segment(ByteBuffer data, int capacity) {
+            this.data = data;
+            this.capacity = capacity;
+        }
+
+        long timestamp(int i) {
+            return data.getLong(i << 3);
+        }
+
+        double temperature(int i) {
+            return data.getDouble((capacity + i) << 3);
+        }
+
+        double humidity(int i) {
+            return data.getDouble((2 * capacity + i) << 3);
+        }
+
+        void append(long timestamp, double temperature, double humidity) {
+            if (timestamp < max) {
+                ordered = false;
+            }
+            data.putLong(size << 3, timestamp);
+            data.putDouble((capacity + size) << 3, temperature);
+            data.putDouble((2 * capacity + size) << 3, humidity);
+            size++;
+            min = Math.min(min, timestamp);
+            max = Math.max(max, timestamp);
+        }
+
+        /**
+         * @return the index of the first reading at or after the timestamp, the readings must be ordered
+         */
+        int lowerBound(long timestamp) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (timestamp(middle) < timestamp) {
+                    low = middle + 1;
+                }else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * The segments of a room, oldest first
+     */
+    private final class RoomHistory {
+        final ArrayDeque<Segment> segments = new ArrayDeque<>();
+        int nextCapacity = Math.min(FIRST_SEGMENT_READINGS, segmentReadings);
+        boolean removed;
+
+        /**
+         * @return false if the room was removed by a sweep, the reading must go to a new room
+         */
+        synchronized boolean append(long timestamp, double temperature, double humidity) {
+            if (removed) {
+                return false;
+            }
+            Segment last = segments.peekLast();
+            if (last == null || last.size == last.capacity) {
+                //Only drop segments when a new one is needed, so the retention is checked once per segment
+                evict(evictionTime(), false);
+                last = new Segment(allocateSegment(nextCapacity), nextCapacity);
+                segments.addLast(last);
+                nextCapacity = Math.min(segmentReadings, nextCapacity * 2);
+            }
+            last.append(timestamp, temperature, humidity);
+            return true;
+        }
+
+        synchronized long scan(long from, long to, HistoryVisitor visitor) {
+            long visited = 0;
+            for (Segment segment : segments) {
+                if (segment.max < from || segment.min >= to) {
+                    continue;
+                }
+                int i = segment.ordered ? segment.lowerBound(from) : 0;
+                for (; i < segment.size; i++) {
+                    long timestamp = segment.timestamp(i);
+                    if (timestamp >= to) {
+                        if (segment.ordered) {
+                            break;
+                        }
+                        continue;
+                    }
+                    if (timestamp >= from) {
+                        visitor.visit(timestamp, segment.temperature(i), segment.humidity(i));
+                        visited++;
+                    }
+                }
+            }
+            return visited;
+        }
+
+        /**
+         * Drop the old segments, including the current one
+         * @return true if the room has no segment left, it is marked as removed
+         */
+        synchronized boolean sweep(long before) {
+            evict(before, true);
+            removed = segments.isEmpty();
+            return removed;
+        }
+
+        /**
+         * Drop the segments whose readings are all older than a time
+         * @param current if the segment the next reading goes to may be dropped too
+         */
+        void evict(long before, boolean current) {
+            Iterator<Segment> it = segments.iterator();
+            while (it.hasNext()) {
+                Segment segment = it.next();
+                if (segment.max >= before || (!current && segment == segments.peekLast())) {
+                    continue;
+                }
+                it.remove();
+                releaseSegment(segment.data);
+            }
+        }
+    }
+}
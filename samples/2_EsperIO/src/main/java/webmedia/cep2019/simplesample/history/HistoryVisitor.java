@@ -0,0 +1,9 @@
+package webmedia.cep2019.simplesample.history;
+
+/**
+ * Receives the readings of a HistoryStore scan, one at a time and without creating objects
+ */
+public interface HistoryVisitor {
+
+    void visit(long timestamp, double temperature, double humidity);
+}
@@ -0,0 +1,88 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes SensorUpdate events to a file in the SensorRecordFormat.
+ * It is a SensorSink, so any ingestion source can write its events to a binary file; a writer must be used by a single thread
+ */
+public class BinarySensorWriter implements SensorSink, Closeable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long records;
+
+    /**
+     * @param file the file, it is replaced if it exists
+     */
+    public BinarySensorWriter(Path file) throws IOException {
+        this(file, 1 << 20);
+    }
+
+    /**
+     * @param file the file, it is replaced if it exists
+     * @param bufferSize the size of the write buffer, in bytes
+     */
+    public BinarySensorWriter(Path file, int bufferSize) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, SensorRecordFormat.HEADER_SIZE + SensorRecordFormat.RECORD_SIZE))
+                .order(SensorRecordFormat.ORDER);
+        SensorRecordFormat.writeHeader(buffer);
+    }
+
+    /**
+     * Append an event
+     */
+    public void write(SensorUpdate event) throws IOException {
+        if (buffer.remaining() < SensorRecordFormat.RECORD_SIZE) {
+            flush();
+        }
+        SensorRecordFormat.write(buffer, event);
+        records++;
+    }
+
+    @Override
+    public void send(SensorUpdate[] batch, int length) {
+        try {
+            for (int i = 0; i < length; i++) {
+                write(batch[i]);
+            }
+        }catch (IOException ex){
+            throw new UncheckedIOException("Failed to write " + file, ex);
+        }
+    }
+
+    /**
+     * Write the buffered records to the file
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return the number of records written
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
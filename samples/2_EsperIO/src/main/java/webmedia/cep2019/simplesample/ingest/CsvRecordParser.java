@@ -0,0 +1,301 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Parses "temperature,humidity,roomId,timestamp" csv lines straight from the bytes of a buffer into a SensorUpdate.
+ * Numbers are decoded without creating intermediate Strings. A double whose digits and power of ten are both exact in a double
+ * is one division or multiplication; the others, e.g. the 17 digits of Double.toString, go through the Eisel-Lemire algorithm,
+ * which rounds correctly from a 128-bit approximation of the power of ten. Only the numbers it cannot decide (a rounding too
+ * close to call, subnormals, powers of ten beyond 10^348) are handed to Double.parseDouble.
+ * A parser keeps a small scratch buffer, so each thread must use its own parser
+ */
+public class CsvRecordParser {
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    //Integers up to 2^53 are represented exactly by a double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    //The powers of ten of the Eisel-Lemire algorithm, 10^q as a 128-bit mantissa rounded down, high and low halves at q - MIN_POW10
+    private static final int MIN_POW10 = -348;
+    private static final int MAX_POW10 = 347;
+    private static final long[] POW10_HIGH = new long[MAX_POW10 - MIN_POW10 + 1];
+    private static final long[] POW10_LOW = new long[MAX_POW10 - MIN_POW10 + 1];
+
+    static {
+        for (int q = MIN_POW10; q <= MAX_POW10; q++) {
+            BigInteger power = BigInteger.TEN.pow(Math.abs(q));
+            BigInteger mantissa;
+            if (q >= 0) {
+                int shift = power.bitLength() - 128;
+                mantissa = shift > 0 ? power.shiftRight(shift) : power.shiftLeft(-shift);
+            }else {
+                //10^-q is not a power of two, so 2^(bitLength + 127) / 10^-q has exactly 128 bits
+                mantissa = BigInteger.ONE.shiftLeft(power.bitLength() + 127).divide(power);
+            }
+            POW10_HIGH[q - MIN_POW10] = mantissa.shiftRight(64).longValue();
+            POW10_LOW[q - MIN_POW10] = mantissa.longValue();
+        }
+    }
+
+    private final char[] scratch = new char[64];
+    private ByteBuffer buffer;
+    private int position;
+    private int end;
+    private boolean valid;
+    private long fallbacks;
+
+    /**
+     * Parse a single line
+     * @param buffer the buffer containing the line, it is read with absolute gets so its position is not changed
+     * @param start the index of the first byte of the line
+     * @param end the index after the last byte of the line, not including the line break
+     * @param target the event that receives the values
+     * @return true if the line is a valid record, false if it is malformed (the target may be partially filled)
+     */
+    public boolean parse(ByteBuffer buffer, int start, int end, SensorUpdate target) {
+        this.buffer = buffer;
+        this.position = start;
+        this.end = (end > start && buffer.get(end - 1) == '\r') ? end - 1 : end;
+        this.valid = true;
+
+        double temperature = readDouble();
+        skipSeparator();
+        double humidity = readDouble();
+        skipSeparator();
+        long roomId = readLong();
+        skipSeparator();
+        long timestamp = readLong();
+        if (!valid || position != this.end || roomId < Integer.MIN_VALUE || roomId > Integer.MAX_VALUE) {
+            return false;
+        }
+        target.setTemperature(temperature);
+        target.setHumidity(humidity);
+        target.setRoomId((int) roomId);
+        target.setTimestamp(timestamp);
+        return true;
+    }
+
+    private void skipSeparator() {
+        if (position < end && buffer.get(position) == ',') {
+            position++;
+        }else {
+            valid = false;
+        }
+    }
+
+    private long readLong() {
+        boolean negative = false;
+        if (position < end && buffer.get(position) == '-') {
+            negative = true;
+            position++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (position < end) {
+            byte b = buffer.get(position);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            value = value * 10 + (b - '0');
+            digits++;
+            position++;
+        }
+        if (digits == 0 || digits > 18) {
+            valid = false;
+        }
+        return negative ? -value : value;
+    }
+
+    private double readDouble() {
+        int begin = position;
+        boolean negative = false;
+        if (position < end) {
+            byte sign = buffer.get(position);
+            if (sign == '-' || sign == '+') {
+                negative = sign == '-';
+                position++;
+            }
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        boolean truncated = false;
+        boolean fraction = false;
+        while (position < end) {
+            byte b = buffer.get(position);
+            if (b >= '0' && b <= '9') {
+                anyDigit = true;
+                if (significantDigits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) {
+                        significantDigits++;
+                    }
+                    if (fraction) {
+                        exponent--;
+                    }
+                }else {
+                    truncated = true;
+                    if (!fraction) {
+                        exponent++;
+                    }
+                }
+            }else if (b == '.' && !fraction) {
+                fraction = true;
+            }else {
+                break;
+            }
+            position++;
+        }
+        if (anyDigit && position < end && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+                negativeExponent = buffer.get(position) == '-';
+                position++;
+            }
+            int exponentDigits = 0;
+            int value = 0;
+            while (position < end) {
+                byte b = buffer.get(position);
+                if (b < '0' || b > '9') {
+                    break;
+                }
+                if (value < 10000) {
+                    value = value * 10 + (b - '0');
+                }
+                exponentDigits++;
+                position++;
+            }
+            if (exponentDigits == 0) {
+                valid = false;
+                return 0;
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (!anyDigit) {
+            valid = false;
+            return 0;
+        }
+
+        double value;
+        if (!truncated && mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            //Both operands are exact, so a single division or multiplication gives the correctly rounded result
+            value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+        }else if (mantissa == 0) {
+            value = 0;
+        }else {
+            long bits = eiselLemire(mantissa, exponent);
+            //The digits dropped after the 18th lie between mantissa and mantissa + 1: the result holds if both round the same
+            if (truncated && bits != eiselLemire(mantissa + 1, exponent)) {
+                bits = -1;
+            }
+            if (bits < 0) {
+                return parseFallback(begin);
+            }
+            value = Double.longBitsToDouble(bits);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * The Eisel-Lemire algorithm, as in Go's strconv: the double nearest to mantissa * 10^exponent
+     * @param mantissa the decimal digits, positive
+     * @param exponent the power of ten
+     * @return the bits of the double, -1 when the 128-bit approximation cannot decide the rounding or the result is not a normal double
+     */
+    static long eiselLemire(long mantissa, int exponent) {
+        if (exponent < MIN_POW10 || exponent > MAX_POW10) {
+            return -1;
+        }
+        //Normalization: the top bit of the mantissa is set, 217706 / 2^16 is log2(10)
+        int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+        mantissa <<= leadingZeros;
+        long exponent2 = ((217706L * exponent) >> 16) + 64 + 1023 - leadingZeros;
+
+        //The 128-bit product with the high half of the power, widened with its low half when the low bits are all ones
+        int index = exponent - MIN_POW10;
+        long high = multiplyHigh(mantissa, POW10_HIGH[index]);
+        long low = mantissa * POW10_HIGH[index];
+        if ((high & 0x1FF) == 0x1FF && Long.compareUnsigned(low + mantissa, mantissa) < 0) {
+            long wideHigh = multiplyHigh(mantissa, POW10_LOW[index]);
+            long wideLow = mantissa * POW10_LOW[index];
+            long mergedHigh = high;
+            long mergedLow = low + wideHigh;
+            if (Long.compareUnsigned(mergedLow, low) < 0) {
+                mergedHigh++;
+            }
+            if ((mergedHigh & 0x1FF) == 0x1FF && mergedLow + 1 == 0 && Long.compareUnsigned(wideLow + mantissa, mantissa) < 0) {
+                return -1;
+            }
+            high = mergedHigh;
+            low = mergedLow;
+        }
+
+        //Keep 54 bits, then round to 53
+        long msb = high >>> 63;
+        long result = high >>> (msb + 9);
+        exponent2 -= 1 ^ msb;
+        if (low == 0 && (high & 0x1FF) == 0 && (result & 3) == 1) {
+            //Exactly halfway between two doubles as far as the approximation tells
+            return -1;
+        }
+        result += result & 1;
+        result >>>= 1;
+        if (result >>> 53 > 0) {
+            result >>>= 1;
+            exponent2++;
+        }
+        if (exponent2 <= 0 || exponent2 >= 0x7FF) {
+            //Subnormal, infinite or out of range
+            return -1;
+        }
+        return exponent2 << 52 | result & 0x000FFFFFFFFFFFFFL;
+    }
+
+    /**
+     * @return the high 64 bits of the unsigned 128-bit product of x and y
+     */
+    private static long multiplyHigh(long x, long y) {
+        long x0 = x & 0xFFFFFFFFL;
+        long x1 = x >>> 32;
+        long y0 = y & 0xFFFFFFFFL;
+        long y1 = y >>> 32;
+        long p01 = x0 * y1;
+        long p10 = x1 * y0;
+        long middle = ((x0 * y0) >>> 32) + (p01 & 0xFFFFFFFFL) + (p10 & 0xFFFFFFFFL);
+        return x1 * y1 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+    }
+
+    /**
+     * @return the number of doubles handed to Double.parseDouble by this parser
+     */
+    public long getFallbacks() {
+        return fallbacks;
+    }
+
+    private double parseFallback(int begin) {
+        fallbacks++;
+        int length = position - begin;
+        if (length > scratch.length) {
+            valid = false;
+            return 0;
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = (char) buffer.get(begin + i);
+        }
+        try {
+            return Double.parseDouble(new String(scratch, 0, length));
+        }catch (NumberFormatException ex){
+            valid = false;
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts a "temperature,humidity,roomId,timestamp" csv file to the SensorRecordFormat, keeping the order of the lines.
+ * Malformed lines are skipped and counted.
+ * Usage: CsvToBinary input.csv input.bin
+ */
+public class CsvToBinary {
+
+    /**
+     * Convert a file
+     * @param csv the csv file
+     * @param binary the binary file, it is replaced if it exists
+     * @return the statistics of the conversion
+     */
+    public static IngestStats convert(Path csv, Path binary) throws IOException {
+        try (BinarySensorWriter writer = new BinarySensorWriter(binary)) {
+            return new SequentialCsvSource(csv, 0, Long.MAX_VALUE, 1024, writer, null).run();
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: CsvToBinary <input.csv> <output.bin>");
+            System.exit(1);
+        }
+        try {
+            IngestStats stats = convert(Paths.get(args[0]), Paths.get(args[1]));
+            System.out.println(stats);
+        }catch (IOException ex){
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
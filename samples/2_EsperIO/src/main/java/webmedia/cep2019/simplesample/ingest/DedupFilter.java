@@ -0,0 +1,236 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Removes repeated readings, e.g. the retries of a gateway, before they reach the runtime.
+ * A reading is identified by its (roomId, timestamp) pair and remembered for a horizon of event time: the horizon is split
+ * in time buckets, each one a hash set of primitive arrays with a fixed capacity, and the oldest bucket is cleared and reused
+ * when the time moves past it, so the memory never grows. A reading already seen is a duplicate; a reading older than
+ * the latest timestamp minus the horizon is late, it cannot be checked anymore. Both are counted and sent to their side sink,
+ * if any, instead of the downstream sink. When a bucket is full its new readings pass unchecked and are counted as overflows.
+ * The readings of every thread go through the same sets: only the check of a batch is serialized, the readings are
+ * forwarded to the sinks outside of the lock, so parallel sources still reach the runtime in parallel
+ */
+public class DedupFilter implements SensorSink {
+
+    //The slots of a bucket are at most this full, longer probe sequences are not worth the memory saved
+    private static final double MAX_LOAD = 0.75;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final SensorSink downstream;
+    private final long horizonMillis;
+    private final long bucketMillis;
+    private final int maxKeys;
+    private final int mask;
+    //One row per bucket
+    private final long[][] timestamps;
+    private final int[][] rooms;
+    private final long[] bucketEpochs;
+    private final int[] bucketSizes;
+    private SensorSink duplicateSink;
+    private SensorSink lateSink;
+    private BooleanSupplier sideSinksOpen = () -> true;
+    //The side sinks are called by one thread at a time, apart from the check of the readings
+    private final Object sideSinksLock = new Object();
+    private long watermark = Long.MIN_VALUE;
+
+    //The readings of a batch split by outcome, reused by each thread
+    private final ThreadLocal<Outcomes> outcomes = ThreadLocal.withInitial(Outcomes::new);
+    private long acceptedCount;
+    private long duplicateCount;
+    private long lateCount;
+    private long overflowCount;
+
+    /**
+     * @param downstream where the readings seen for the first time are sent
+     * @param horizonMillis how long, in event time, a reading is remembered
+     * @param buckets the number of time buckets the horizon is split in
+     * @param keysPerBucket the largest number of readings a bucket remembers
+     */
+    public DedupFilter(SensorSink downstream, long horizonMillis, int buckets, int keysPerBucket) {
+        if (horizonMillis < buckets || buckets < 2 || keysPerBucket < 1) {
+            throw new IllegalArgumentException("There must be at least 2 buckets of at least 1 ms and 1 key");
+        }
+        this.downstream = downstream;
+        this.horizonMillis = horizonMillis;
+        this.bucketMillis = (horizonMillis + buckets - 1) / buckets;
+        this.maxKeys = keysPerBucket;
+        int slots = Integer.highestOneBit((int) Math.min(1 << 30, (long) Math.ceil(keysPerBucket / MAX_LOAD)) * 2 - 1);
+        this.mask = slots - 1;
+        //One more bucket than the horizon needs, so the oldest bucket still covers the start of the horizon
+        this.timestamps = new long[buckets + 1][slots];
+        this.rooms = new int[buckets + 1][slots];
+        this.bucketEpochs = new long[buckets + 1];
+        this.bucketSizes = new int[buckets + 1];
+        for (long[] bucket : timestamps) {
+            Arrays.fill(bucket, EMPTY);
+        }
+        Arrays.fill(bucketEpochs, Long.MIN_VALUE);
+    }
+
+    /**
+     * @param duplicateSink receives the readings already seen, null to discard them; it is called by one thread at a time
+     */
+    public void setDuplicateSink(SensorSink duplicateSink) {
+        this.duplicateSink = duplicateSink;
+    }
+
+    /**
+     * @param lateSink receives the readings older than the horizon, null to discard them; it is called by one thread at a time
+     */
+    public void setLateSink(SensorSink lateSink) {
+        this.lateSink = lateSink;
+    }
+
+    /**
+     * @param sideSinksOpen the duplicate and late sinks only receive readings while it returns true,
+     *                      e.g. to not log the readings of a checkpoint warm-up again
+     */
+    public void setSideSinksOpen(BooleanSupplier sideSinksOpen) {
+        this.sideSinksOpen = sideSinksOpen;
+    }
+
+    @Override
+    public void send(SensorUpdate[] batch, int length) {
+        Outcomes split = outcomes.get();
+        split.ensureCapacity(length);
+        SensorUpdate[] accepted = split.accepted;
+        SensorUpdate[] duplicates = split.duplicates;
+        SensorUpdate[] late = split.late;
+        int acceptedLength = 0;
+        int duplicateLength = 0;
+        int lateLength = 0;
+        synchronized (this) {
+            for (int i = 0; i < length; i++) {
+                SensorUpdate event = batch[i];
+                long timestamp = event.getTimestamp();
+                if (watermark != Long.MIN_VALUE && timestamp < watermark - horizonMillis) {
+                    late[lateLength++] = event;
+                    continue;
+                }
+                if (timestamp > watermark) {
+                    watermark = timestamp;
+                }
+                if (add(event.getRoomId(), timestamp)) {
+                    accepted[acceptedLength++] = event;
+                }else {
+                    duplicates[duplicateLength++] = event;
+                }
+            }
+            acceptedCount += acceptedLength;
+            duplicateCount += duplicateLength;
+            lateCount += lateLength;
+        }
+        if (acceptedLength > 0) {
+            downstream.send(accepted, acceptedLength);
+        }
+        if ((duplicateLength > 0 || lateLength > 0) && sideSinksOpen.getAsBoolean()) {
+            synchronized (sideSinksLock) {
+                if (duplicateLength > 0 && duplicateSink != null) {
+                    duplicateSink.send(duplicates, duplicateLength);
+                }
+                if (lateLength > 0 && lateSink != null) {
+                    lateSink.send(late, lateLength);
+                }
+            }
+        }
+        //Do not keep the events alive until the next batch
+        Arrays.fill(accepted, 0, acceptedLength, null);
+        Arrays.fill(duplicates, 0, duplicateLength, null);
+        Arrays.fill(late, 0, lateLength, null);
+    }
+
+    /**
+     * Remember a reading
+     * @return false if it was already remembered
+     */
+    private boolean add(int roomId, long timestamp) {
+        long epoch = Math.floorDiv(timestamp, bucketMillis);
+        int bucket = (int) Math.floorMod(epoch, (long) bucketEpochs.length);
+        if (bucketEpochs[bucket] != epoch) {
+            if (bucketEpochs[bucket] > epoch) {
+                //The bucket was already reused by a later time, the reading is at the edge of the horizon
+                return true;
+            }
+            //Reuse the bucket of a time that left the horizon
+            Arrays.fill(timestamps[bucket], EMPTY);
+            bucketEpochs[bucket] = epoch;
+            bucketSizes[bucket] = 0;
+        }
+        long[] bucketTimestamps = timestamps[bucket];
+        int[] bucketRooms = rooms[bucket];
+        int slot = hash(roomId, timestamp) & mask;
+        while (bucketTimestamps[slot] != EMPTY) {
+            if (bucketTimestamps[slot] == timestamp && bucketRooms[slot] == roomId) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (bucketSizes[bucket] >= maxKeys) {
+            overflowCount++;
+            return true;
+        }
+        bucketTimestamps[slot] = timestamp;
+        bucketRooms[slot] = roomId;
+        bucketSizes[bucket]++;
+        return true;
+    }
+
+    private static int hash(int roomId, long timestamp) {
+        long h = timestamp * 0x9E3779B97F4A7C15L + roomId;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    public synchronized long getAccepted() {
+        return acceptedCount;
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicateCount;
+    }
+
+    public synchronized long getLate() {
+        return lateCount;
+    }
+
+    public synchronized long getOverflows() {
+        return overflowCount;
+    }
+
+    /**
+     * @return the bytes used by the time buckets, fixed when the filter is created
+     */
+    public long getMemoryBytes() {
+        return (long) timestamps.length * (mask + 1) * (Long.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * The arrays a batch is split into, the outcome of each reading
+     */
+    private static final class Outcomes {
+        SensorUpdate[] accepted = new SensorUpdate[0];
+        SensorUpdate[] duplicates = new SensorUpdate[0];
+        SensorUpdate[] late = new SensorUpdate[0];
+
+        void ensureCapacity(int length) {
+            if (accepted.length < length) {
+                accepted = new SensorUpdate[length];
+                duplicates = new SensorUpdate[length];
+                late = new SensorUpdate[length];
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("DedupFilter(%d ms horizon, %d KB): %d accepted, %d duplicates, %d late, %d unchecked (full buckets)",
+                horizonMillis, getMemoryBytes() / 1024, acceptedCount, duplicateCount, lateCount, overflowCount);
+    }
+}
@@ -0,0 +1,273 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the "temperature,humidity,roomId,timestamp" csv files of a directory continuously: the files already in the directory,
+ * the files created later and the lines appended to any of them.
+ * A WatchService reports the changes, the directory is also rescanned periodically because some platforms report them late or drop them.
+ * Each file is always read by the same reader thread (chosen by a hash of its name), so the lines of a file reach the sink in order
+ * while several files are read in parallel. Only complete lines are read, an incomplete last line waits for its line break.
+ * The offset of each file is persisted, so a new source continues where the previous one stopped, unless the file was
+ * replaced since (see FileOffsets)
+ */
+public class DirectoryWatchSource implements Closeable {
+
+    private final Path directory;
+    private final PathMatcher matcher;
+    private final int batchSize;
+    private final SensorSink sink;
+    private final FileOffsets offsets;
+    private final ExecutorService[] readers;
+    private final Map<String, AtomicBoolean> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final WatchService watchService;
+    private final Thread watcher;
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong lastRead = new AtomicLong(System.nanoTime());
+    private final long start = System.nanoTime();
+    private volatile boolean closed;
+
+    /**
+     * Start reading the directory
+     * @param directory the directory
+     * @param glob the files to read, e.g. *.csv
+     * @param readers the number of reader threads
+     * @param batchSize the number of events sent to the sink at once
+     * @param sink where the events are sent, it must accept calls from several threads if readers is greater than 1
+     * @param offsets where the offsets of the files are kept
+     * @param rescanMillis how often the directory is rescanned and the offsets are saved
+     */
+    public DirectoryWatchSource(Path directory, String glob, int readers, int batchSize, SensorSink sink,
+                                FileOffsets offsets, long rescanMillis) throws IOException {
+        if (readers < 1 || batchSize < 1 || rescanMillis < 1) {
+            throw new IllegalArgumentException("readers, batchSize and rescanMillis must be positive");
+        }
+        this.directory = directory;
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        this.batchSize = batchSize;
+        this.sink = sink;
+        this.offsets = offsets;
+        this.readers = new ExecutorService[readers];
+        for (int i = 0; i < readers; i++) {
+            this.readers[i] = Executors.newSingleThreadExecutor(daemon("directory-reader-" + i));
+        }
+        //Register before the first scan, so a file created in between is not missed
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.watcher = daemon("directory-watcher").newThread(this::watch);
+        this.watcher.start();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemon("directory-rescan"));
+        this.scheduler.scheduleWithFixedDelay(this::rescan, 0, rescanMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Schedule a read of each file reported by the WatchService
+     */
+    private void watch() {
+        try {
+            while (!closed) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan();
+                    }else {
+                        schedule(directory.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) {
+                    break;
+                }
+            }
+        }catch (InterruptedException | ClosedWatchServiceException ex){
+            //Closed
+        }
+    }
+
+    /**
+     * Schedule a read of every file of the directory, forget the offsets of the deleted files and save the offsets.
+     * The offsets of the new files are looked up first, so a file renamed since it was read keeps its offset
+     */
+    private void rescan() {
+        Set<String> names = new HashSet<>();
+        Set<String> recorded = new HashSet<>(offsets.names());
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                names.add(name);
+                if (!recorded.contains(name) && matcher.matches(file.getFileName()) && Files.isRegularFile(file)) {
+                    offsets.get(file);
+                }
+                schedule(file);
+            }
+            for (String name : offsets.names()) {
+                //A file created after the listing is kept
+                if (!names.contains(name) && !Files.exists(directory.resolve(name))) {
+                    offsets.remove(name);
+                    pending.remove(name);
+                }
+            }
+            offsets.dropReplaced();
+            offsets.save();
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Schedule a read of a file on its reader, unless a read of the file is already waiting
+     */
+    private void schedule(Path file) {
+        if (closed || !matcher.matches(file.getFileName()) || !Files.isRegularFile(file)) {
+            return;
+        }
+        String name = file.getFileName().toString();
+        AtomicBoolean waiting = pending.computeIfAbsent(name, key -> new AtomicBoolean());
+        if (waiting.compareAndSet(false, true)) {
+            ExecutorService reader = readers[RoomPartitioner.partition(name.hashCode(), readers.length)];
+            try {
+                reader.execute(() -> {
+                    waiting.set(false);
+                    read(file);
+                });
+            }catch (RejectedExecutionException ex){
+                //Closed
+                waiting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Read the complete lines added to a file since its offset
+     */
+    private void read(Path file) {
+        try {
+            long offset = offsets.get(file);
+            long size = Files.size(file);
+            if (size < offset) {
+                //The file was truncated or replaced by a shorter one
+                offset = 0;
+            }
+            long end = lastLineEnd(file, offset, size);
+            if (end <= offset) {
+                return;
+            }
+            IngestStats stats = new SequentialCsvSource(file, offset, end, batchSize, sink,
+                    (position, sent) -> offsets.put(file, position)).run();
+            offsets.put(file, end);
+            events.addAndGet(stats.getEvents());
+            errors.addAndGet(stats.getErrors());
+            bytes.addAndGet(stats.getBytes());
+            lastRead.set(System.nanoTime());
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the offset after the last line break between from and to, or from if there is none
+     */
+    private static long lastLineEnd(Path file, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = to;
+            while (position > from) {
+                int length = (int) Math.min(buffer.capacity(), position - from);
+                buffer.clear().limit(length);
+                long read = position - length;
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, read + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        return read + i + 1;
+                    }
+                }
+                position = read;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Wait until no new line was read for a while
+     * @param idleMillis how long without new lines
+     */
+    public void awaitIdle(long idleMillis) throws InterruptedException {
+        while (!closed && System.nanoTime() - lastRead.get() < TimeUnit.MILLISECONDS.toNanos(idleMillis)) {
+            Thread.sleep(Math.max(1, idleMillis / 10));
+        }
+    }
+
+    /**
+     * @return the ingestion statistics since the source started
+     */
+    public IngestStats stats() {
+        return new IngestStats("DirectoryWatchSource(" + readers.length + " readers)", bytes.get(), events.get(), errors.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Stop watching, wait for the reads already scheduled and save the offsets
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        scheduler.shutdownNow();
+        watchService.close();
+        watcher.interrupt();
+        try {
+            for (ExecutorService reader : readers) {
+                reader.shutdown();
+            }
+            for (ExecutorService reader : readers) {
+                reader.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+        offsets.save();
+    }
+
+    @Override
+    public String toString() {
+        return stats().toString();
+    }
+}
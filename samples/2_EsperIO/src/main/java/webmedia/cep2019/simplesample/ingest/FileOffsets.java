@@ -0,0 +1,200 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * How far each file of a directory was read, kept in a text file with an "offset identityLength identity name" line per file.
+ * The identity is a checksum of the first identityLength bytes of the file (at most IDENTITY_BYTES), so a file replaced by
+ * another one with the same name, e.g. by a log rotation, is read again from its start, while a file renamed by the rotation
+ * keeps the offset recorded under its old name.
+ * The file is written to a temporary file and moved over the previous one, so a crash leaves either the old or the new offsets
+ */
+public class FileOffsets {
+
+    //The bytes at the start of a file that identify it
+    public static final int IDENTITY_BYTES = 4096;
+
+    private final Path file;
+    private final Map<String, Offset> offsets = new ConcurrentHashMap<>();
+    //The offsets of the files replaced under their name, until dropReplaced, in case the file shows up under another name
+    private final Map<String, Offset> replaced = new ConcurrentHashMap<>();
+    private volatile boolean changed;
+
+    /**
+     * @param file the offsets file, it is read if it exists
+     */
+    public FileOffsets(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                String[] fields = line.split(" ", 4);
+                if (fields.length == 4) {
+                    offsets.put(fields[3], new Offset(Long.parseLong(fields[0]), Integer.parseInt(fields[1]), Long.parseLong(fields[2])));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param input a file of the directory
+     * @return the offset of the first line not read yet, 0 for a new file or a file replaced since its offset was recorded
+     */
+    public long get(Path input) throws IOException {
+        String name = input.getFileName().toString();
+        Offset offset = offsets.get(name);
+        if (offset == null) {
+            offset = renamed(input);
+            return offset == null ? 0 : offset.offset;
+        }
+        if (Files.size(input) < offset.identityLength || identify(input, offset.identityLength) != offset.identity) {
+            if (offsets.remove(name, offset)) {
+                replaced.put(name, offset);
+                changed = true;
+            }
+            return 0;
+        }
+        return offset.offset;
+    }
+
+    /**
+     * Find the offset of a file read under another name, e.g. x.csv renamed to x.csv.1 by a log rotation: a recorded file
+     * with the same identity that is gone or was replaced. Its offset is moved to the new name
+     * @return the offset, null if the file was not read under another name
+     */
+    private synchronized Offset renamed(Path input) throws IOException {
+        long size = Files.size(input);
+        for (Map.Entry<String, Offset> entry : replaced.entrySet()) {
+            Offset offset = entry.getValue();
+            if (sameIdentity(input, size, offset) && replaced.remove(entry.getKey(), offset)) {
+                return moveTo(input, offset);
+            }
+        }
+        for (Map.Entry<String, Offset> entry : offsets.entrySet()) {
+            Offset offset = entry.getValue();
+            if (!sameIdentity(input, size, offset)) {
+                continue;
+            }
+            Path previous = input.resolveSibling(entry.getKey());
+            if (Files.exists(previous) && sameIdentity(previous, Files.size(previous), offset)) {
+                //Still there, a copy of the file
+                continue;
+            }
+            if (offsets.remove(entry.getKey(), offset)) {
+                return moveTo(input, offset);
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameIdentity(Path input, long size, Offset offset) throws IOException {
+        return offset.identityLength > 0 && size >= offset.identityLength && identify(input, offset.identityLength) == offset.identity;
+    }
+
+    private Offset moveTo(Path input, Offset offset) {
+        offsets.put(input.getFileName().toString(), offset);
+        changed = true;
+        return offset;
+    }
+
+    /**
+     * Forget the offsets of the files replaced under their name that did not show up under another name,
+     * once the new names were looked up
+     */
+    public void dropReplaced() {
+        replaced.clear();
+    }
+
+    /**
+     * Record the offset of a file, it is persisted by the next save.
+     * The identity is only computed again while the file is shorter than IDENTITY_BYTES
+     */
+    public void put(Path input, long offset) throws IOException {
+        String name = input.getFileName().toString();
+        int identityLength = (int) Math.min(offset, IDENTITY_BYTES);
+        Offset previous = offsets.get(name);
+        long identity = previous != null && previous.identityLength == identityLength ? previous.identity : identify(input, identityLength);
+        offsets.put(name, new Offset(offset, identityLength, identity));
+        changed = true;
+    }
+
+    /**
+     * Forget a file that does not exist anymore
+     */
+    public void remove(String name) {
+        if (offsets.remove(name) != null) {
+            changed = true;
+        }
+    }
+
+    /**
+     * @return the names of the files with an offset
+     */
+    public List<String> names() {
+        return new ArrayList<>(offsets.keySet());
+    }
+
+    /**
+     * Write the offsets if they changed since the last save
+     */
+    public synchronized void save() throws IOException {
+        if (!changed) {
+            return;
+        }
+        changed = false;
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Offset> entry : offsets.entrySet()) {
+            Offset offset = entry.getValue();
+            lines.add(offset.offset + " " + offset.identityLength + " " + offset.identity + " " + entry.getKey());
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param input a file
+     * @param length the number of bytes, the file must have at least that many
+     * @return a checksum of the first bytes of the file
+     */
+    static long identify(Path input, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                //Read until the buffer is full or the file ends
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.position());
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * The offset of a file and its identity
+     */
+    private static final class Offset {
+        final long offset;
+        final int identityLength;
+        final long identity;
+
+        Offset(long offset, int identityLength, long identity) {
+            this.offset = offset;
+            this.identityLength = identityLength;
+            this.identity = identity;
+        }
+    }
+}
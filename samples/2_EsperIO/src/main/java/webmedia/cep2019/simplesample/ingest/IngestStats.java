@@ -0,0 +1,65 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The amount of data read by an ingestion source and how long it took
+ */
+public class IngestStats {
+
+    private final String source;
+    private final long bytes;
+    private final long events;
+    private final long errors;
+    private final long elapsedNanos;
+
+    /**
+     * @param source a name for the ingestion source
+     * @param bytes the number of bytes read
+     * @param events the number of events sent
+     * @param errors the number of records that could not be parsed
+     * @param elapsedNanos the time spent reading, in nanoseconds
+     */
+    public IngestStats(String source, long bytes, long events, long errors, long elapsedNanos) {
+        this.source = source;
+        this.bytes = bytes;
+        this.events = events;
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getBytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos;
+    }
+
+    public double getEventsPerSecond() {
+        return elapsedNanos == 0 ? 0 : events * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d events (%d errors), %d bytes in %d ms - %.0f events/s, %.2f MB/s",
+                source, events, errors, bytes, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                getEventsPerSecond(), getBytesPerSecond() / (1024 * 1024));
+    }
+}
@@ -0,0 +1,155 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a file in the SensorRecordFormat through memory-mapped buffers.
+ * The fields are read straight from the mapped pages, there is no read into a buffer and no parsing,
+ * but each record is still copied into a SensorUpdate (a new one, or one recycled by a SensorUpdatePool).
+ * The records are split in segments read in parallel; with a single thread the events reach the sink in the order of the file
+ */
+public class MappedBinarySource {
+
+    //A single mapping cannot be larger than Integer.MAX_VALUE, larger segments are mapped in windows
+    private static final long WINDOW_RECORDS = (1L << 30) / SensorRecordFormat.RECORD_SIZE;
+
+    private final Path file;
+    private final int threads;
+    private final int batchSize;
+    private final SensorSink sink;
+    private SensorUpdatePool pool;
+
+    /**
+     * @param file the binary file
+     * @param threads the number of threads reading the file
+     * @param batchSize the number of events sent to the sink at once
+     * @param sink where the events are sent, it must accept calls from several threads if threads is greater than 1
+     */
+    public MappedBinarySource(Path file, int threads, int batchSize, SensorSink sink) {
+        if (threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("threads and batchSize must be positive");
+        }
+        this.file = file;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.sink = sink;
+    }
+
+    /**
+     * Fill the events of a batch recycled by a pool instead of new ones, they are filled again once the sink returns from send.
+     * See SensorUpdatePool for what the sink may do with them
+     * @param pool the pool, null to allocate an event per record (the default)
+     */
+    public void setPool(SensorUpdatePool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Read the whole file and wait until every event was sent to the sink
+     * @return the ingestion statistics, an incomplete record at the end of the file is counted as an error
+     */
+    public IngestStats run() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long events = 0;
+        long size;
+        long records;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            SensorRecordFormat.checkHeader(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, SensorRecordFormat.HEADER_SIZE)), file.toString());
+            records = SensorRecordFormat.records(size);
+
+            if (threads == 1) {
+                events = new SegmentReader(channel, 0, records).call();
+            }else {
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    List<Future<Long>> results = new ArrayList<>();
+                    for (int i = 0; i < threads; i++) {
+                        long from = records * i / threads;
+                        long to = records * (i + 1) / threads;
+                        if (to > from) {
+                            results.add(executor.submit(new SegmentReader(channel, from, to)));
+                        }
+                    }
+                    for (Future<Long> result : results) {
+                        events += result.get();
+                    }
+                }catch (ExecutionException ex){
+                    throw new IOException("Failed to read " + file, ex.getCause());
+                }finally {
+                    executor.shutdownNow();
+                }
+            }
+        }
+        long errors = SensorRecordFormat.HEADER_SIZE + records * SensorRecordFormat.RECORD_SIZE < size ? 1 : 0;
+        return new IngestStats("MappedBinarySource(" + threads + " threads)", size, events, errors, System.nanoTime() - start);
+    }
+
+    private SensorUpdate[] newBatch() {
+        return pool == null ? new SensorUpdate[batchSize] : pool.batch(batchSize);
+    }
+
+    /**
+     * @return the event to fill at a position of the batch, the recycled one or a new one
+     */
+    private SensorUpdate nextEvent(SensorUpdate[] batch, int length) {
+        return pool == null ? new SensorUpdate() : batch[length];
+    }
+
+    /**
+     * Decodes the records of one segment and sends them to the sink
+     */
+    private class SegmentReader implements Callable<Long> {
+        private final FileChannel channel;
+        private final long from;
+        private final long to;
+
+        /**
+         * @param from the index of the first record
+         * @param to the index after the last record
+         */
+        SegmentReader(FileChannel channel, long from, long to) {
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Long call() throws IOException {
+            SensorUpdate[] batch = newBatch();
+            int length = 0;
+            for (long record = from; record < to; record += WINDOW_RECORDS) {
+                int count = (int) Math.min(WINDOW_RECORDS, to - record);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                        SensorRecordFormat.HEADER_SIZE + record * SensorRecordFormat.RECORD_SIZE, (long) count * SensorRecordFormat.RECORD_SIZE);
+                buffer.order(SensorRecordFormat.ORDER);
+                for (int i = 0, offset = 0; i < count; i++, offset += SensorRecordFormat.RECORD_SIZE) {
+                    SensorUpdate event = nextEvent(batch, length);
+                    SensorRecordFormat.read(buffer, offset, event);
+                    batch[length++] = event;
+                    if (length == batchSize) {
+                        sink.send(batch, length);
+                        length = 0;
+                    }
+                }
+            }
+            if (length > 0) {
+                sink.send(batch, length);
+            }
+            return to - from;
+        }
+    }
+}
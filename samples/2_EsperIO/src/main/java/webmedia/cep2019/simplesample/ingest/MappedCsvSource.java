@@ -0,0 +1,195 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a "temperature,humidity,roomId,timestamp" csv file through a memory-mapped buffer.
+ * The file is split at line boundaries into segments that are parsed in parallel, each thread
+ * sends its events to the sink in batches. Events of different segments reach the sink in no particular order
+ */
+public class MappedCsvSource {
+
+    //A single mapping cannot be larger than Integer.MAX_VALUE, larger files are split in more segments
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    private final Path file;
+    private final int threads;
+    private final int batchSize;
+    private final SensorSink sink;
+    private SensorUpdatePool pool;
+
+    /**
+     * @param file the csv file
+     * @param threads the number of threads parsing the file
+     * @param batchSize the number of events sent to the sink at once
+     * @param sink where the events are sent, it must accept calls from several threads
+     */
+    public MappedCsvSource(Path file, int threads, int batchSize, SensorSink sink) {
+        if (threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("threads and batchSize must be positive");
+        }
+        this.file = file;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.sink = sink;
+    }
+
+    /**
+     * Fill the events of a batch recycled by a pool instead of new ones, they are filled again once the sink returns from send.
+     * See SensorUpdatePool for what the sink may do with them
+     * @param pool the pool, null to allocate an event per record (the default)
+     */
+    public void setPool(SensorUpdatePool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Read the whole file and wait until every event was sent to the sink
+     * @return the ingestion statistics
+     */
+    public IngestStats run() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long events = 0;
+        long errors = 0;
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            long[] bounds = split(channel, size);
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<long[]>> results = new ArrayList<>();
+                for (int i = 0; i + 1 < bounds.length; i++) {
+                    if (bounds[i + 1] > bounds[i]) {
+                        results.add(executor.submit(new SegmentReader(channel, bounds[i], bounds[i + 1])));
+                    }
+                }
+                for (Future<long[]> result : results) {
+                    long[] counts = result.get();
+                    events += counts[0];
+                    errors += counts[1];
+                }
+            }catch (ExecutionException ex){
+                throw new IOException("Failed to read " + file, ex.getCause());
+            }finally {
+                executor.shutdownNow();
+            }
+        }
+        return new IngestStats("MappedCsvSource(" + threads + " threads)", size, events, errors, System.nanoTime() - start);
+    }
+
+    /**
+     * Split the file in segments that start at the beginning of a line
+     * @return the segment bounds, segment i goes from bounds[i] to bounds[i + 1]
+     */
+    private long[] split(FileChannel channel, long size) throws IOException {
+        int segments = (int) Math.max(threads, (size + MAX_SEGMENT_SIZE - 1) / MAX_SEGMENT_SIZE);
+        long[] bounds = new long[segments + 1];
+        bounds[segments] = size;
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        for (int i = 1; i < segments; i++) {
+            bounds[i] = nextLineStart(channel, Math.max(size / segments * i, bounds[i - 1]), size, probe);
+        }
+        return bounds;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size, ByteBuffer probe) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        //A line starts right after a line break, so the search starts at the byte before the position
+        long offset = position - 1;
+        while (offset < size) {
+            probe.clear();
+            int read = channel.read(probe, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    private SensorUpdate[] newBatch() {
+        return pool == null ? new SensorUpdate[batchSize] : pool.batch(batchSize);
+    }
+
+    /**
+     * @return the event to fill at a position of the batch, the recycled one or a new one
+     */
+    private SensorUpdate nextEvent(SensorUpdate[] batch, int length) {
+        return pool == null ? new SensorUpdate() : batch[length];
+    }
+
+    /**
+     * Parses the lines of one segment and sends them to the sink
+     */
+    private class SegmentReader implements Callable<long[]> {
+        private final FileChannel channel;
+        private final long from;
+        private final long to;
+
+        SegmentReader(FileChannel channel, long from, long to) {
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public long[] call() throws IOException {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            CsvRecordParser parser = new CsvRecordParser();
+            SensorUpdate[] batch = newBatch();
+            int length = 0;
+            long events = 0;
+            long errors = 0;
+
+            int limit = buffer.limit();
+            int lineStart = 0;
+            SensorUpdate next = nextEvent(batch, 0);
+            for (int i = 0; i <= limit; i++) {
+                //The last line of the file may not end with a line break
+                if (i < limit && buffer.get(i) != '\n') {
+                    continue;
+                }
+                if (i > lineStart && !(i == lineStart + 1 && buffer.get(lineStart) == '\r')) {
+                    if (parser.parse(buffer, lineStart, i, next)) {
+                        batch[length++] = next;
+                        events++;
+                        if (length == batchSize) {
+                            sink.send(batch, length);
+                            length = 0;
+                        }
+                        next = nextEvent(batch, length);
+                    }else {
+                        errors++;
+                    }
+                }
+                lineStart = i + 1;
+            }
+            if (length > 0) {
+                sink.send(batch, length);
+            }
+            return new long[]{events, errors};
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package webmedia.cep2019.simplesample.ingest;
+
+/**
+ * Maps a room to one of several partitions, so every event of a room is handled by the same thread or runtime
+ */
+public final class RoomPartitioner {
+
+    private RoomPartitioner() {
+    }
+
+    /**
+     * @param roomId the room
+     * @param partitions the number of partitions
+     * @return the partition of the room, between 0 and partitions - 1
+     */
+    public static int partition(int roomId, int partitions) {
+        //Spread consecutive room ids (murmur3 finalizer) before taking the remainder
+        int h = roomId;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, partitions);
+    }
+}
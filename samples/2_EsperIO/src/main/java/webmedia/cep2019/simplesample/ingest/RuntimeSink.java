@@ -0,0 +1,27 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import com.espertech.esper.runtime.client.EPEventService;
+import com.espertech.esper.runtime.client.EPRuntime;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+/**
+ * Sends each event of the batch to the runtime as a SensorUpdate
+ */
+public class RuntimeSink implements SensorSink {
+
+    private final EPEventService eventService;
+
+    /**
+     * @param runtime the runtime that receives the events
+     */
+    public RuntimeSink(EPRuntime runtime) {
+        this.eventService = runtime.getEventService();
+    }
+
+    @Override
+    public void send(SensorUpdate[] batch, int length) {
+        for (int i = 0; i < length; i++) {
+            eventService.sendEventBean(batch[i], "SensorUpdate");
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.internal.kernel.service.EPRuntimeSPI;
+import com.espertech.esper.runtime.internal.kernel.thread.ThreadingService;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Turns on the thread pools of the runtime.
+ * With the inbound pool sendEventBean only queues the event and returns, the rules are evaluated by the pool threads.
+ * With the outbound pool the listeners are called by the pool threads instead of the thread that evaluated the rules.
+ * Both must be configured before the runtime is created, and listeners must then be thread-safe
+ */
+public final class RuntimeThreading {
+
+    private RuntimeThreading() {
+    }
+
+    /**
+     * Evaluate the rules on a pool of threads
+     * @param configuration the configuration of the runtime
+     * @param threads the number of threads
+     * @param capacity the number of events waiting to be evaluated, senders block when it is reached
+     */
+    public static void enableInbound(Configuration configuration, int threads, int capacity) {
+        configuration.getRuntime().getThreading().setThreadPoolInbound(true);
+        configuration.getRuntime().getThreading().setThreadPoolInboundNumThreads(threads);
+        configuration.getRuntime().getThreading().setThreadPoolInboundCapacity(capacity);
+    }
+
+    /**
+     * Call the listeners on a pool of threads
+     * @param configuration the configuration of the runtime
+     * @param threads the number of threads
+     * @param capacity the number of results waiting for the listeners, the evaluating threads block when it is reached
+     */
+    public static void enableOutbound(Configuration configuration, int threads, int capacity) {
+        configuration.getRuntime().getThreading().setThreadPoolOutbound(true);
+        configuration.getRuntime().getThreading().setThreadPoolOutboundNumThreads(threads);
+        configuration.getRuntime().getThreading().setThreadPoolOutboundCapacity(capacity);
+    }
+
+    /**
+     * Wait until the runtime stops evaluating events and calling listeners: the number of evaluated events must stay the same
+     * and the inbound and outbound pools must have no queued or running work for a quiet period.
+     * The evaluated count alone is not enough, the outbound pool still calls the listeners after the rules were evaluated
+     * @param runtime the runtime
+     * @param quietMillis how long the count must stay the same
+     * @param timeoutMillis the maximum time to wait
+     * @return false if the timeout elapsed first
+     */
+    public static boolean awaitQuiescence(EPRuntime runtime, long quietMillis, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long last = runtime.getEventService().getNumEventsEvaluated();
+        long quietSince = System.currentTimeMillis();
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(Math.max(1, quietMillis / 10));
+            long current = runtime.getEventService().getNumEventsEvaluated();
+            if (current != last || pendingWork(runtime) > 0) {
+                last = current;
+                quietSince = System.currentTimeMillis();
+            }else if (System.currentTimeMillis() - quietSince >= quietMillis) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The work of the thread pools of the runtime, through its SPI since the client API does not expose the pools
+     * @param runtime the runtime
+     * @return the tasks queued or running in the inbound and outbound pools, 0 without pools or if the runtime has no SPI
+     */
+    public static int pendingWork(EPRuntime runtime) {
+        if (!(runtime instanceof EPRuntimeSPI)) {
+            return 0;
+        }
+        ThreadingService threading = ((EPRuntimeSPI) runtime).getServicesContext().getThreadingService();
+        return pendingWork(threading.getInboundQueue(), threading.getInboundThreadPool())
+                + pendingWork(threading.getOutboundQueue(), threading.getOutboundThreadPool());
+    }
+
+    private static int pendingWork(BlockingQueue<Runnable> queue, ThreadPoolExecutor pool) {
+        return (queue == null ? 0 : queue.size()) + (pool == null ? 0 : pool.getActiveCount());
+    }
+}
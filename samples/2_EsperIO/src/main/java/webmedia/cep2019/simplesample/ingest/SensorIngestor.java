@@ -0,0 +1,234 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import com.espertech.esper.runtime.client.EPEventService;
+import com.espertech.esper.runtime.client.EPRuntime;
+import webmedia.cep2019.simplesample.OverflowPolicy;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accepts SensorUpdate events, one at a time or in batches, and sends them to the runtime on a pool of worker threads.
+ * Each worker has a bounded queue; the events of a room always go to the same worker, so their order is kept.
+ * When a queue is full the overflow policy decides whether the producer waits (BLOCK), the new event is discarded (DROP)
+ * or the oldest queued event is discarded (DROP_OLDEST).
+ * The producer only pays for the hand-off; the time the workers spend inside sendEventBean is reported separately
+ * as the evaluation time
+ */
+public class SensorIngestor implements SensorSink, Closeable {
+
+    private final Worker[] workers;
+    private final OverflowPolicy policy;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param runtime the runtime that receives the events
+     * @param workerCount the number of worker threads
+     * @param queueCapacity the number of events waiting on each worker
+     * @param policy what happens when the queue of a worker is full
+     */
+    public SensorIngestor(EPRuntime runtime, int workerCount, int queueCapacity, OverflowPolicy policy) {
+        if (workerCount < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("workerCount and queueCapacity must be positive");
+        }
+        this.policy = policy;
+        this.workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker("sensor-ingestor-" + i, runtime.getEventService(), queueCapacity);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Hand over an event to the worker of its room
+     * @param event the event
+     * @return false if the event was discarded
+     */
+    public boolean send(SensorUpdate event) {
+        if (closed) {
+            throw new IllegalStateException("The ingestor is closed");
+        }
+        BlockingQueue<SensorUpdate> queue = workers[RoomPartitioner.partition(event.getRoomId(), workers.length)].queue;
+        switch (policy) {
+            case BLOCK:
+                try {
+                    queue.put(event);
+                }catch (InterruptedException ex){
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                break;
+            case DROP:
+                if (!queue.offer(event)) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(event)) {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Hand over a batch of events
+     * @param batch the events
+     */
+    public void send(SensorUpdate[] batch) {
+        send(batch, batch.length);
+    }
+
+    @Override
+    public void send(SensorUpdate[] batch, int length) {
+        for (int i = 0; i < length; i++) {
+            send(batch[i]);
+        }
+    }
+
+    /**
+     * Hand over a batch of events
+     * @param batch the events
+     */
+    public void send(Collection<? extends SensorUpdate> batch) {
+        for (SensorUpdate event : batch) {
+            send(event);
+        }
+    }
+
+    /**
+     * @return the number of events waiting on the worker queues
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Worker worker : workers) {
+            depth += worker.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return the number of events accepted by send, including DROP_OLDEST events later discarded
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * @return the number of events discarded by the overflow policy
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of events sent to the runtime
+     */
+    public long getProcessed() {
+        long processed = 0;
+        for (Worker worker : workers) {
+            processed += worker.processed.get();
+        }
+        return processed;
+    }
+
+    /**
+     * @return the time the workers spent inside sendEventBean, in nanoseconds
+     */
+    public long getEvaluationNanos() {
+        long nanos = 0;
+        for (Worker worker : workers) {
+            nanos += worker.evaluationNanos.get();
+        }
+        return nanos;
+    }
+
+    /**
+     * Send every queued event to the runtime and stop the workers
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Worker worker : workers) {
+            worker.stopping = true;
+        }
+        for (Worker worker : workers) {
+            try {
+                worker.join();
+            }catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SensorIngestor(%d workers, %s): %d accepted, %d dropped, %d processed, %d queued, %d ms evaluating",
+                workers.length, policy, getAccepted(), getDropped(), getProcessed(), getQueueDepth(), getEvaluationNanos() / 1000000);
+    }
+
+    /**
+     * The thread that sends the events of its queue to the runtime
+     */
+    private static final class Worker extends Thread {
+        final EPEventService eventService;
+        final BlockingQueue<SensorUpdate> queue;
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong evaluationNanos = new AtomicLong();
+        //Set by close, the worker stops once its queue is empty; a flag rather than a queued marker, which DROP_OLDEST could discard
+        volatile boolean stopping;
+
+        Worker(String name, EPEventService eventService, int queueCapacity) {
+            super(name);
+            this.eventService = eventService;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        @Override
+        public void run() {
+            List<SensorUpdate> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    //Read the flag before polling, so the events queued before close are all sent
+                    boolean last = stopping;
+                    SensorUpdate first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (last) {
+                            return;
+                        }
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    long start = System.nanoTime();
+                    for (SensorUpdate event : batch) {
+                        eventService.sendEventBean(event, "SensorUpdate");
+                    }
+                    evaluationNanos.addAndGet(System.nanoTime() - start);
+                    processed.addAndGet(batch.size());
+                    batch.clear();
+                }
+            }catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
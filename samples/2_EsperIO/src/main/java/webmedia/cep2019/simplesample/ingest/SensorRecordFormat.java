@@ -0,0 +1,85 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The binary format of a SensorUpdate file: a 16 byte header followed by fixed-width little-endian records of 28 bytes.
+ * <pre>
+ * header: magic int "SENS", version int, record size int, reserved int
+ * record: temperature double, humidity double, roomId int, timestamp long
+ * </pre>
+ * Record i starts at HEADER_SIZE + i * RECORD_SIZE, so a file can be split or resumed at any record without reading it
+ */
+public final class SensorRecordFormat {
+
+    public static final int MAGIC = 0x534E4553;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 28;
+    public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final int HUMIDITY = 8;
+    private static final int ROOM_ID = 16;
+    private static final int TIMESTAMP = 20;
+
+    private SensorRecordFormat() {
+    }
+
+    /**
+     * Write the header at the position of the buffer, the buffer must use the little-endian ORDER
+     */
+    public static void writeHeader(ByteBuffer buffer) {
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0);
+    }
+
+    /**
+     * Check the header at the start of the buffer
+     * @param buffer the first bytes of the file, read with absolute gets
+     * @param source the name of the file, for the error message
+     */
+    public static void checkHeader(ByteBuffer buffer, String source) throws IOException {
+        ByteBuffer header = buffer.duplicate().order(ORDER);
+        if (header.limit() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+            throw new IOException(source + " is not a SensorUpdate binary file");
+        }
+        if (header.getInt(4) != VERSION || header.getInt(8) != RECORD_SIZE) {
+            throw new IOException(source + " has version " + header.getInt(4) + " and records of " + header.getInt(8)
+                    + " bytes, expected version " + VERSION + " and records of " + RECORD_SIZE + " bytes");
+        }
+    }
+
+    /**
+     * Append a record at the position of the buffer, the buffer must use the little-endian ORDER
+     */
+    public static void write(ByteBuffer buffer, SensorUpdate event) {
+        buffer.putDouble(event.getTemperature())
+                .putDouble(event.getHumidity())
+                .putInt(event.getRoomId())
+                .putLong(event.getTimestamp());
+    }
+
+    /**
+     * Read a record with absolute gets, the buffer must use the little-endian ORDER
+     * @param buffer the buffer
+     * @param offset the index of the first byte of the record
+     * @param target the event that receives the values
+     */
+    public static void read(ByteBuffer buffer, int offset, SensorUpdate target) {
+        target.setTemperature(buffer.getDouble(offset));
+        target.setHumidity(buffer.getDouble(offset + HUMIDITY));
+        target.setRoomId(buffer.getInt(offset + ROOM_ID));
+        target.setTimestamp(buffer.getLong(offset + TIMESTAMP));
+    }
+
+    /**
+     * @param size the size of a file
+     * @return the number of complete records in the file
+     */
+    public static long records(long size) {
+        return Math.max(0, size - HEADER_SIZE) / RECORD_SIZE;
+    }
+}
@@ -0,0 +1,17 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+/**
+ * Receives the SensorUpdate events produced by an ingestion source, one batch at a time
+ */
+public interface SensorSink {
+
+    /**
+     * Process a batch of events.
+     * The array is reused by the caller after this method returns, the events are not
+     * @param batch the events
+     * @param length the number of valid events at the start of the batch
+     */
+    void send(SensorUpdate[] batch, int length);
+}
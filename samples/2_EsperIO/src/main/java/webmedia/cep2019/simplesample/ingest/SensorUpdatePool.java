@@ -0,0 +1,49 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recycles the SensorUpdate instances of the sources, so a source fills the same events again instead of allocating one per reading.
+ * Each thread gets its own batch of events, refilled in place: the threads share nothing and no event is handed back.
+ * The contract: a source fills the events of its batch, sends the batch to its sink and fills the same events again as soon as
+ * send returns. So nothing after the source may keep an event, or read it later, once send returned: the sink must not hand the events over
+ * to other threads (SensorIngestor, the inbound or outbound threads of the runtime) nor buffer them (EventTimeDriver), and the
+ * statements must keep no event (no data windows, patterns or prev), which leaves filters, inserts of derived events and
+ * stateless selects, with listeners that read the events while they are called (e.g. PrintListener).
+ * The allocation per event stays the default, it is always safe
+ */
+public class SensorUpdatePool {
+
+    private final ThreadLocal<SensorUpdate[]> batches = new ThreadLocal<>();
+    private final AtomicLong created = new AtomicLong();
+
+    /**
+     * The batch of the calling thread, created on its first use. A thread runs one source at a time, so the batch is free
+     * again once the previous source returned
+     * @param batchSize the number of events the source sends at once
+     * @return at least batchSize events, their properties still hold the values of their previous use
+     */
+    public SensorUpdate[] batch(int batchSize) {
+        SensorUpdate[] batch = batches.get();
+        if (batch == null || batch.length < batchSize) {
+            batch = new SensorUpdate[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = new SensorUpdate();
+            }
+            created.addAndGet(batchSize);
+            batches.set(batch);
+        }
+        return batch;
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SensorUpdatePool: %d events created", created.get());
+    }
+}
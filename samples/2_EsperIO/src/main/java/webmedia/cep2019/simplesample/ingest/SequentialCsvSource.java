@@ -0,0 +1,140 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a range of a "temperature,humidity,roomId,timestamp" csv file in order, on the calling thread.
+ * The file is mapped in windows and the events are sent to the sink in batches; after each batch the progress
+ * receives the offset of the next line, so a reader can be resumed exactly where a previous one stopped
+ */
+public class SequentialCsvSource {
+
+    //The size of each mapped window, a line must fit in a window
+    private static final long WINDOW_SIZE = 1L << 26;
+
+    /**
+     * Receives the progress of the reader
+     */
+    public interface Progress {
+        /**
+         * Called after a batch was sent to the sink
+         * @param offset the offset of the first line not sent yet
+         * @param events the number of events sent since the start of the range
+         */
+        void sent(long offset, long events) throws IOException;
+    }
+
+    private final Path file;
+    private final long from;
+    private final long to;
+    private final int batchSize;
+    private final SensorSink sink;
+    private final Progress progress;
+    private SensorUpdatePool pool;
+
+    /**
+     * @param file the csv file
+     * @param from the offset of the first line to read
+     * @param to the offset where the reading stops, it must be the start of a line or past the end of the file
+     * @param batchSize the number of events sent to the sink at once
+     * @param sink where the events are sent
+     * @param progress receives the offset after each batch, may be null
+     */
+    public SequentialCsvSource(Path file, long from, long to, int batchSize, SensorSink sink, Progress progress) {
+        if (batchSize < 1 || from < 0) {
+            throw new IllegalArgumentException("batchSize must be positive and from must not be negative");
+        }
+        this.file = file;
+        this.from = from;
+        this.to = to;
+        this.batchSize = batchSize;
+        this.sink = sink;
+        this.progress = progress;
+    }
+
+    /**
+     * Fill the events of a batch recycled by a pool instead of new ones, they are filled again once the sink returns from send.
+     * See SensorUpdatePool for what the sink may do with them
+     * @param pool the pool, null to allocate an event per record (the default)
+     */
+    public void setPool(SensorUpdatePool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Read the range and send every event to the sink
+     * @return the ingestion statistics
+     */
+    public IngestStats run() throws IOException {
+        long start = System.nanoTime();
+        CsvRecordParser parser = new CsvRecordParser();
+        SensorUpdate[] batch = newBatch();
+        int length = 0;
+        long events = 0;
+        long errors = 0;
+        long end;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            end = Math.min(to, channel.size());
+            long position = from;
+            SensorUpdate next = nextEvent(batch, 0);
+            while (position < end) {
+                int limit = (int) Math.min(WINDOW_SIZE, end - position);
+                boolean last = position + limit == end;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, limit);
+                int lineStart = 0;
+                for (int i = 0; i <= limit; i++) {
+                    //The last line of the range may not end with a line break
+                    if (i < limit ? buffer.get(i) != '\n' : !last || i == lineStart) {
+                        continue;
+                    }
+                    if (i > lineStart && !(i == lineStart + 1 && buffer.get(lineStart) == '\r')) {
+                        if (parser.parse(buffer, lineStart, i, next)) {
+                            batch[length++] = next;
+                            events++;
+                            if (length == batchSize) {
+                                sink.send(batch, length);
+                                length = 0;
+                                if (progress != null) {
+                                    progress.sent(position + Math.min(i + 1, limit), events);
+                                }
+                            }
+                            next = nextEvent(batch, length);
+                        }else {
+                            errors++;
+                        }
+                    }
+                    lineStart = i + 1;
+                }
+                if (lineStart == 0) {
+                    throw new IOException("A line of " + file + " is longer than " + WINDOW_SIZE + " bytes");
+                }
+                //The incomplete line at the end of the window is read again by the next window
+                position += Math.min(lineStart, limit);
+            }
+            if (length > 0) {
+                sink.send(batch, length);
+            }
+            if (progress != null) {
+                progress.sent(Math.max(from, end), events);
+            }
+        }
+        return new IngestStats("SequentialCsvSource", Math.max(0, end - from), events, errors, System.nanoTime() - start);
+    }
+
+    private SensorUpdate[] newBatch() {
+        return pool == null ? new SensorUpdate[batchSize] : pool.batch(batchSize);
+    }
+
+    /**
+     * @return the event to fill at a position of the batch, the recycled one or a new one
+     */
+    private SensorUpdate nextEvent(SensorUpdate[] batch, int length) {
+        return pool == null ? new SensorUpdate() : batch[length];
+    }
+}
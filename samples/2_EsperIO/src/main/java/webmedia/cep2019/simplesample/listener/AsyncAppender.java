@@ -0,0 +1,205 @@
+package webmedia.cep2019.simplesample.listener;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writes text batches on a background thread.
+ * The threads that produce output only hand over a batch, the writer thread coalesces every batch waiting
+ * on the queue into a single write and flush, so the console or log file is not written one fragment at a time.
+ * A batch is handed over as its buffer, not copied to a String: the producer gets an empty buffer back, recycled
+ * from the batches already written.
+ * A batch that could not be handed over because its producer was interrupted is dropped and counted
+ */
+public class AsyncAppender implements Closeable, Flushable {
+
+    //Marks the end of the output, it is compared by reference
+    private static final StringBuilder END = new StringBuilder();
+
+    //A buffer that grew larger than this is not recycled
+    private static final int MAX_RECYCLED_CHARS = 1 << 16;
+
+    private final BlockingQueue<StringBuilder> queue;
+    private final BlockingQueue<StringBuilder> recycled;
+    private final Writer writer;
+    private final Thread thread;
+    //Appends hold the read lock while they check closed and put their batch, close holds the write lock,
+    //so no batch is put after END
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+    private boolean closed;
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    //Guarded by this, the batches written and flushed
+    private long written;
+
+    /**
+     * @param name a name for the writer thread
+     * @param writer where the batches are written, it is flushed but not closed by the appender
+     * @param capacity the maximum number of batches waiting to be written, producers block when it is reached
+     */
+    public AsyncAppender(String name, Writer writer, int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.recycled = new ArrayBlockingQueue<>(capacity);
+        this.writer = writer;
+        this.thread = new Thread(this::drain, name);
+        this.thread.start();
+    }
+
+    /**
+     * Hand over a buffer to the writer thread, the caller must not use it anymore
+     * @param buffer the text to be written
+     * @return an empty buffer for the next batch of the caller
+     */
+    public StringBuilder append(StringBuilder buffer) {
+        if (buffer.length() == 0) {
+            return buffer;
+        }
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The appender is closed");
+            }
+            put(buffer);
+            appended.incrementAndGet();
+        }catch (InterruptedException ex){
+            //The batch is lost, the interrupt is kept for the caller
+            dropped.incrementAndGet();
+            Thread.currentThread().interrupt();
+            buffer.setLength(0);
+            return buffer;
+        }finally {
+            closing.readLock().unlock();
+        }
+        StringBuilder next = recycled.poll();
+        return next != null ? next : new StringBuilder(1024);
+    }
+
+    /**
+     * Put a buffer on the queue, waiting while it is full unless the writer thread stopped
+     */
+    private void put(StringBuilder buffer) throws InterruptedException {
+        while (!queue.offer(buffer, 100, TimeUnit.MILLISECONDS)) {
+            if (!thread.isAlive()) {
+                throw new IllegalStateException("The writer thread of the appender stopped");
+            }
+        }
+    }
+
+    /**
+     * @return the number of batches waiting to be written
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of batches dropped because their producer was interrupted while handing them over
+     */
+    public long getDroppedBatches() {
+        return dropped.get();
+    }
+
+    private void drain() {
+        List<StringBuilder> batch = new ArrayList<>();
+        char[] chars = new char[8192];
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                boolean end = false;
+                int count = 0;
+                for (StringBuilder text : batch) {
+                    if (text == END) {
+                        end = true;
+                        break;
+                    }
+                    //Copied through a char array, Writer.append would create a String
+                    for (int start = 0; start < text.length(); start += chars.length) {
+                        int length = Math.min(chars.length, text.length() - start);
+                        text.getChars(start, start + length, chars, 0);
+                        writer.write(chars, 0, length);
+                    }
+                    if (text.capacity() <= MAX_RECYCLED_CHARS) {
+                        text.setLength(0);
+                        recycled.offer(text);
+                    }
+                    count++;
+                }
+                writer.flush();
+                synchronized (this) {
+                    written += count;
+                    notifyAll();
+                }
+                batch.clear();
+                if (end) {
+                    return;
+                }
+            }
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Wait until every batch appended before this call is written and flushed
+     */
+    @Override
+    public void flush() throws IOException {
+        long target = appended.get();
+        synchronized (this) {
+            while (written < target) {
+                if (!thread.isAlive()) {
+                    throw new IOException("The writer thread of the appender stopped");
+                }
+                try {
+                    wait(100);
+                }catch (InterruptedException ex){
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing the appender");
+                }
+            }
+        }
+    }
+
+    /**
+     * Write every pending batch and stop the writer thread.
+     * If the writer thread already stopped, e.g. after a write failed, the pending batches are lost
+     */
+    @Override
+    public void close() throws IOException {
+        closing.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            put(END);
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+            return;
+        }catch (IllegalStateException ex){
+            throw new IOException("The writer thread of the appender stopped");
+        }finally {
+            closing.writeLock().unlock();
+        }
+        try {
+            thread.join();
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,95 @@
+package webmedia.cep2019.simplesample.listener;
+
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.EventPropertyGetter;
+import com.espertech.esper.common.client.EventType;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+/**
+ * Formats the events of one event type as "{EventType: property=value, ...}".
+ * The property getters and the text around each value are resolved once, when the formatter is created.
+ * The properties of a SensorUpdate event are read from the event object through its typed getters, without boxing them
+ */
+public class EventFormatter {
+
+    private static final int OTHER = -1;
+    private static final int TEMPERATURE = 0;
+    private static final int HUMIDITY = 1;
+    private static final int ROOM_ID = 2;
+    private static final int TIMESTAMP = 3;
+
+    private final EventType eventType;
+    private final String prefix;
+    private final String[] labels;
+    private final EventPropertyGetter[] getters;
+    //The SensorUpdate property of each property, OTHER for the properties read through their getter
+    private final int[] properties;
+    private final boolean sensorUpdate;
+
+    /**
+     * @param eventType the type of the events to be formatted
+     */
+    public EventFormatter(EventType eventType) {
+        this.eventType = eventType;
+        this.prefix = "{" + eventType.getName() + ": ";
+        String[] propertyNames = eventType.getPropertyNames();
+        this.labels = new String[propertyNames.length];
+        this.getters = new EventPropertyGetter[propertyNames.length];
+        this.properties = new int[propertyNames.length];
+        this.sensorUpdate = SensorUpdate.class.isAssignableFrom(eventType.getUnderlyingType());
+        for (int i = 0; i < propertyNames.length; i++) {
+            labels[i] = propertyNames[i] + "=";
+            getters[i] = eventType.getGetter(propertyNames[i]);
+            properties[i] = sensorUpdate ? sensorProperty(propertyNames[i]) : OTHER;
+        }
+    }
+
+    private static int sensorProperty(String name) {
+        switch (name) {
+            case "temperature": return TEMPERATURE;
+            case "humidity": return HUMIDITY;
+            case "roomId": return ROOM_ID;
+            case "timestamp": return TIMESTAMP;
+            default: return OTHER;
+        }
+    }
+
+    public EventType getEventType() {
+        return eventType;
+    }
+
+    /**
+     * Append the event to a buffer, followed by a line break
+     * @param event the event, it must be of the formatter event type
+     * @param buffer the buffer
+     */
+    public void format(EventBean event, StringBuilder buffer) {
+        SensorUpdate update = sensorUpdate ? (SensorUpdate) event.getUnderlying() : null;
+        buffer.append(prefix);
+        for (int i = 0; i < getters.length; i++) {
+            buffer.append(labels[i]);
+            switch (properties[i]) {
+                case TEMPERATURE: buffer.append(update.getTemperature()); break;
+                case HUMIDITY: buffer.append(update.getHumidity()); break;
+                case ROOM_ID: buffer.append(update.getRoomId()); break;
+                case TIMESTAMP: buffer.append(update.getTimestamp()); break;
+                default: appendValue(getters[i].get(event), buffer);
+            }
+            buffer.append(", ");
+        }
+        buffer.append("}\n");
+    }
+
+    private static void appendValue(Object value, StringBuilder buffer) {
+        //Primitive values are appended directly, without creating a String for each one
+        if (value instanceof Double) {
+            buffer.append(((Double) value).doubleValue());
+        }else if (value instanceof Long) {
+            buffer.append(((Long) value).longValue());
+        }else if (value instanceof Integer) {
+            buffer.append(((Integer) value).intValue());
+        }else {
+            buffer.append(value);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package webmedia.cep2019.simplesample.listener;
+
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.EventType;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.UpdateListener;
+
+/**
+ * An update listener that prints the event information through an AsyncAppender.
+ * Create one listener per statement: the formatters of the event types the statement outputs are resolved once and reused.
+ * The events of each update are formatted into a buffer owned by the calling thread and handed over to the appender as one batch,
+ * without copying it to a String
+ */
+public class PrintListener implements UpdateListener {
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    private final AsyncAppender appender;
+    //A statement outputs very few event types (e.g.: SensorUpdate and its subtypes), so a small array is enough
+    private volatile EventFormatter[] formatters = new EventFormatter[0];
+
+    /**
+     * @param appender where the formatted events are written
+     */
+    public PrintListener(AsyncAppender appender) {
+        this.appender = appender;
+    }
+
+    public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+        if (newData == null) {
+            return;
+        }
+        StringBuilder buffer = BUFFER.get();
+        for (EventBean event : newData) {
+            formatterFor(event.getEventType()).format(event, buffer);
+        }
+        //The buffer is handed over to the appender, it gives an empty one back
+        BUFFER.set(appender.append(buffer));
+    }
+
+    private EventFormatter formatterFor(EventType eventType) {
+        EventFormatter[] current = formatters;
+        for (EventFormatter formatter : current) {
+            if (formatter.getEventType() == eventType) {
+                return formatter;
+            }
+        }
+        synchronized (this) {
+            for (EventFormatter formatter : formatters) {
+                if (formatter.getEventType() == eventType) {
+                    return formatter;
+                }
+            }
+            EventFormatter formatter = new EventFormatter(eventType);
+            EventFormatter[] updated = new EventFormatter[formatters.length + 1];
+            System.arraycopy(formatters, 0, updated, 0, formatters.length);
+            updated[formatters.length] = formatter;
+            formatters = updated;
+            return formatter;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package webmedia.cep2019.simplesample.load;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+/**
+ * Writes numbers as ascii digits straight into a byte array, without creating Strings
+ */
+public final class CsvFormat {
+
+    //The longest csv line: two doubles with 6 decimals, an int and a long
+    public static final int MAX_LINE_LENGTH = 2 * 24 + 11 + 20 + 4;
+
+    private static final long SCALE = 1000000;
+
+    private CsvFormat() {
+    }
+
+    /**
+     * Append the "temperature,humidity,roomId,timestamp" line of an event, with its line break
+     * @return the position after the last byte written
+     */
+    public static int appendLine(byte[] bytes, int position, SensorUpdate event) {
+        position = appendFixed(bytes, position, event.getTemperature());
+        bytes[position++] = ',';
+        position = appendFixed(bytes, position, event.getHumidity());
+        bytes[position++] = ',';
+        position = appendLong(bytes, position, event.getRoomId());
+        bytes[position++] = ',';
+        position = appendLong(bytes, position, event.getTimestamp());
+        bytes[position++] = '\n';
+        return position;
+    }
+
+    /**
+     * Append a double rounded to 6 decimals, e.g.: 35.120000
+     * @return the position after the last byte written
+     */
+    public static int appendFixed(byte[] bytes, int position, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 9e12) {
+            //Out of the range of the fixed format, never the case for sensor values
+            byte[] text = Double.toString(value).getBytes();
+            System.arraycopy(text, 0, bytes, position, text.length);
+            return position + text.length;
+        }
+        long scaled = Math.round(value * SCALE);
+        if (scaled < 0) {
+            bytes[position++] = '-';
+            scaled = -scaled;
+        }
+        position = appendLong(bytes, position, scaled / SCALE);
+        bytes[position++] = '.';
+        long fraction = scaled % SCALE;
+        for (long divisor = SCALE / 10; divisor > 0; divisor /= 10) {
+            bytes[position++] = (byte) ('0' + fraction / divisor % 10);
+        }
+        return position;
+    }
+
+    /**
+     * Append a long in decimal
+     * @return the position after the last byte written
+     */
+    public static int appendLong(byte[] bytes, int position, long value) {
+        if (value == Long.MIN_VALUE) {
+            byte[] text = Long.toString(value).getBytes();
+            System.arraycopy(text, 0, bytes, position, text.length);
+            return position + text.length;
+        }
+        if (value < 0) {
+            bytes[position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long bound = 10; digits < 19 && value >= bound; bound *= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return position + digits;
+    }
+}
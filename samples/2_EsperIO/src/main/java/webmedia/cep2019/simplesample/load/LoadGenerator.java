@@ -0,0 +1,375 @@
+package webmedia.cep2019.simplesample.load;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.BinarySensorWriter;
+import webmedia.cep2019.simplesample.ingest.IngestStats;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates synthetic SensorUpdate events, written to csv files or sent straight to a SensorSink.
+ * Events are generated in chunks, each one with its own random generator derived from the seed and the chunk index,
+ * so the same settings produce the same events whatever the number of threads.
+ * A ratio of the temperatures is above 35 and a ratio of the humidities is below 0.35 (the thresholds of the rules),
+ * the other values are spread over the rest of their range. Event i has the timestamp startTimestamp + i / eventRate,
+ * a ratio of the events is delayed by up to maxDelayMillis to arrive out of order
+ */
+public class LoadGenerator {
+
+    static final int CHUNK_SIZE = 1 << 16;
+
+    private long events = 1000000;
+    private int rooms = 1000;
+    private double roomSkew = 0;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long seed = 42;
+    private double minTemperature = 0;
+    private double maxTemperature = 50;
+    private double highTemperatureRatio = 0.3;
+    private double lowHumidityRatio = 0.35;
+    private double outOfOrderRatio = 0;
+    private long maxDelayMillis = 5000;
+    private long startTimestamp = System.currentTimeMillis();
+    private double eventRate = 1000;
+    private double throttle = 0;
+
+    /**
+     * Generate the events and write them to a csv file.
+     * Chunks are generated in parallel and written in order, so the file is sorted by event index
+     * @param file the csv file, it is truncated if it already exists
+     * @return the ingestion statistics of the generation
+     */
+    public IngestStats writeCsv(Path file) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        long chunks = chunkCount();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            //At most two chunks per thread are waiting to be written
+            Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+            long next = 0;
+            while (next < chunks || !pending.isEmpty()) {
+                while (next < chunks && pending.size() < threads * 2) {
+                    long chunk = next++;
+                    pending.add(executor.submit(() -> csvChunk(chunk)));
+                }
+                ByteBuffer buffer = pending.poll().get();
+                while (buffer.hasRemaining()) {
+                    bytes += channel.write(buffer);
+                }
+            }
+        }catch (ExecutionException ex){
+            throw new IOException("Failed to generate " + file, ex.getCause());
+        }finally {
+            executor.shutdownNow();
+        }
+        return new IngestStats("LoadGenerator(" + threads + " threads) -> " + file.getFileName(), bytes, events, 0, System.nanoTime() - start);
+    }
+
+    /**
+     * Generate the events and write them to several csv files in parallel, one thread per file.
+     * The chunks are dealt to the files in turns, file i receives the chunks i, i + files.length, ...
+     * @param files the csv files, they are truncated if they already exist
+     * @return the ingestion statistics of the generation
+     */
+    public IngestStats writeCsv(Path[] files) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.length));
+        long bytes = 0;
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < files.length; i++) {
+                int part = i;
+                results.add(executor.submit(() -> {
+                    long written = 0;
+                    try (FileChannel channel = FileChannel.open(files[part], StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        for (long chunk = part; chunk < chunkCount(); chunk += files.length) {
+                            ByteBuffer buffer = csvChunk(chunk);
+                            while (buffer.hasRemaining()) {
+                                written += channel.write(buffer);
+                            }
+                        }
+                    }
+                    return written;
+                }));
+            }
+            for (Future<Long> result : results) {
+                bytes += result.get();
+            }
+        }catch (ExecutionException ex){
+            throw new IOException("Failed to generate the files", ex.getCause());
+        }finally {
+            executor.shutdownNow();
+        }
+        return new IngestStats("LoadGenerator(" + files.length + " files)", bytes, events, 0, System.nanoTime() - start);
+    }
+
+    /**
+     * Generate the events and send them to a sink, each thread sends its own chunks in batches.
+     * When a throttle is set the threads together send at most that many events per second
+     * @param sink where the events are sent, it must accept calls from several threads
+     * @param batchSize the number of events sent to the sink at once
+     * @return the ingestion statistics of the generation
+     */
+    public IngestStats push(SensorSink sink, int batchSize) throws InterruptedException {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    SensorUpdate[] batch = new SensorUpdate[batchSize];
+                    long sent = 0;
+                    long threadStart = System.nanoTime();
+                    for (long chunk = thread; chunk < chunkCount(); chunk += threads) {
+                        SplittableRandom random = randomOf(chunk);
+                        long first = chunk * CHUNK_SIZE;
+                        long last = Math.min(events, first + CHUNK_SIZE);
+                        int length = 0;
+                        for (long index = first; index < last; index++) {
+                            SensorUpdate event = new SensorUpdate();
+                            fill(random, index, event);
+                            batch[length++] = event;
+                            if (length == batchSize || index + 1 == last) {
+                                sink.send(batch, length);
+                                sent += length;
+                                length = 0;
+                                pace(threadStart, sent);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        }catch (ExecutionException ex){
+            throw new IllegalStateException("Failed to generate the events", ex.getCause());
+        }finally {
+            executor.shutdownNow();
+        }
+        return new IngestStats("LoadGenerator(" + threads + " threads) -> sink", 0, events, 0, System.nanoTime() - start);
+    }
+
+    /**
+     * Wait until a thread is within its share of the throttle
+     */
+    private void pace(long threadStart, long sent) {
+        if (throttle <= 0) {
+            return;
+        }
+        long due = threadStart + (long) (sent * 1e9 * threads / throttle);
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private long chunkCount() {
+        return (events + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    private SplittableRandom randomOf(long chunk) {
+        //Each chunk gets an independent generator, so the events do not depend on which thread generates them
+        return new SplittableRandom(seed ^ (chunk * 0x9E3779B97F4A7C15L));
+    }
+
+    /**
+     * Generate the csv lines of a chunk
+     */
+    ByteBuffer csvChunk(long chunk) {
+        long first = chunk * CHUNK_SIZE;
+        long last = Math.min(events, first + CHUNK_SIZE);
+        byte[] bytes = new byte[(int) (last - first) * CsvFormat.MAX_LINE_LENGTH];
+        SplittableRandom random = randomOf(chunk);
+        SensorUpdate event = new SensorUpdate();
+        int position = 0;
+        for (long index = first; index < last; index++) {
+            fill(random, index, event);
+            position = CsvFormat.appendLine(bytes, position, event);
+        }
+        return ByteBuffer.wrap(bytes, 0, position);
+    }
+
+    /**
+     * Set the values of the event with the given index
+     */
+    void fill(SplittableRandom random, long index, SensorUpdate event) {
+        double temperature = random.nextDouble() < highTemperatureRatio
+                ? between(random, Math.max(35, minTemperature), Math.max(35, maxTemperature))
+                : between(random, Math.min(35, minTemperature), Math.min(35, maxTemperature));
+        double humidity = random.nextDouble() < lowHumidityRatio ? between(random, 0, 0.35) : between(random, 0.35, 1);
+        //With skew the lower rooms receive more events, like a few busy rooms in a large building
+        int roomId = (int) Math.min(rooms - 1, (long) (rooms * Math.pow(random.nextDouble(), 1 + roomSkew)));
+        long timestamp = startTimestamp + (long) (index * 1000 / eventRate);
+        if (outOfOrderRatio > 0 && random.nextDouble() < outOfOrderRatio) {
+            timestamp -= 1 + random.nextLong(Math.max(1, maxDelayMillis));
+        }
+        event.setTemperature(temperature);
+        event.setHumidity(humidity);
+        event.setRoomId(roomId);
+        event.setTimestamp(timestamp);
+    }
+
+    private static double between(SplittableRandom random, double from, double to) {
+        return to <= from ? from : from + random.nextDouble() * (to - from);
+    }
+
+    public void setEvents(long events) {
+        this.events = events;
+    }
+
+    public void setRooms(int rooms) {
+        this.rooms = rooms;
+    }
+
+    /**
+     * @param roomSkew 0 for rooms with the same load, larger values concentrate the events on the first rooms
+     */
+    public void setRoomSkew(double roomSkew) {
+        this.roomSkew = roomSkew;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setTemperatureRange(double minTemperature, double maxTemperature) {
+        this.minTemperature = minTemperature;
+        this.maxTemperature = maxTemperature;
+    }
+
+    /**
+     * @param highTemperatureRatio the ratio of the events with a temperature above 35
+     */
+    public void setHighTemperatureRatio(double highTemperatureRatio) {
+        this.highTemperatureRatio = highTemperatureRatio;
+    }
+
+    /**
+     * @param lowHumidityRatio the ratio of the events with a humidity below 0.35
+     */
+    public void setLowHumidityRatio(double lowHumidityRatio) {
+        this.lowHumidityRatio = lowHumidityRatio;
+    }
+
+    /**
+     * @param outOfOrderRatio the ratio of the events whose timestamp is delayed
+     * @param maxDelayMillis the largest delay
+     */
+    public void setOutOfOrder(double outOfOrderRatio, long maxDelayMillis) {
+        this.outOfOrderRatio = outOfOrderRatio;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public void setStartTimestamp(long startTimestamp) {
+        this.startTimestamp = startTimestamp;
+    }
+
+    /**
+     * @param eventRate the number of events per second of event time, it spaces the timestamps
+     */
+    public void setEventRate(double eventRate) {
+        this.eventRate = eventRate;
+    }
+
+    /**
+     * @param throttle the maximum number of events per second sent by push, 0 for no limit
+     */
+    public void setThrottle(double throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Write a csv file with generated events.
+     * Usage: LoadGenerator output.csv [name=value ...], the names are events, rooms, roomSkew, threads, seed, minTemperature,
+     * maxTemperature, high (ratio of high temperatures), low (ratio of low humidities), outOfOrder, maxDelay, start,
+     * rate (events per second of event time) and parts (write that many files output-0.csv, output-1.csv, ... in parallel).
+     * An output file ending with .bin is written in the SensorRecordFormat by a single thread, in the order of the events
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: LoadGenerator output.csv [events=1000000] [rooms=1000] [roomSkew=0] [threads=n] [seed=42] " +
+                    "[minTemperature=0] [maxTemperature=50] [high=0.3] [low=0.35] [outOfOrder=0] [maxDelay=5000] [start=now] [rate=1000] [parts=1]");
+            return;
+        }
+        LoadGenerator generator = new LoadGenerator();
+        double minTemperature = generator.minTemperature;
+        double maxTemperature = generator.maxTemperature;
+        double outOfOrder = generator.outOfOrderRatio;
+        long maxDelay = generator.maxDelayMillis;
+        int parts = 1;
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected name=value: " + args[i]);
+            }
+            String value = option[1];
+            switch (option[0]) {
+                case "events": generator.setEvents(Long.parseLong(value)); break;
+                case "rooms": generator.setRooms(Integer.parseInt(value)); break;
+                case "roomSkew": generator.setRoomSkew(Double.parseDouble(value)); break;
+                case "threads": generator.setThreads(Integer.parseInt(value)); break;
+                case "seed": generator.setSeed(Long.parseLong(value)); break;
+                case "minTemperature": minTemperature = Double.parseDouble(value); break;
+                case "maxTemperature": maxTemperature = Double.parseDouble(value); break;
+                case "high": generator.setHighTemperatureRatio(Double.parseDouble(value)); break;
+                case "low": generator.setLowHumidityRatio(Double.parseDouble(value)); break;
+                case "outOfOrder": outOfOrder = Double.parseDouble(value); break;
+                case "maxDelay": maxDelay = Long.parseLong(value); break;
+                case "start": generator.setStartTimestamp(Long.parseLong(value)); break;
+                case "rate": generator.setEventRate(Double.parseDouble(value)); break;
+                case "parts": parts = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Unknown option: " + option[0]);
+            }
+        }
+        generator.setTemperatureRange(minTemperature, maxTemperature);
+        generator.setOutOfOrder(outOfOrder, maxDelay);
+
+        Path output = Paths.get(args[0]);
+        if (output.getFileName().toString().endsWith(".bin")) {
+            generator.setThreads(1);
+            try (BinarySensorWriter writer = new BinarySensorWriter(output)) {
+                System.out.println(generator.push(writer, 1024));
+            }
+            return;
+        }
+        if (parts <= 1) {
+            System.out.println(generator.writeCsv(output));
+            return;
+        }
+        String name = output.getFileName().toString();
+        String base = name.endsWith(".csv") ? name.substring(0, name.length() - 4) : name;
+        Path[] files = new Path[parts];
+        for (int i = 0; i < parts; i++) {
+            files[i] = output.resolveSibling(base + "-" + i + ".csv");
+        }
+        System.out.println(generator.writeCsv(files));
+    }
+}
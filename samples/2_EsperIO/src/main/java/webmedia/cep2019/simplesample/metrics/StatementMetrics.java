@@ -0,0 +1,233 @@
+package webmedia.cep2019.simplesample.metrics;
+
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.common.client.metric.StatementMetric;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.UpdateListener;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the metrics of every statement of a runtime.
+ * The runtime reports the CPU time, wall time and events of each statement as StatementMetric events (see enable);
+ * a statement selecting them (EPL) is given to listen. Listener time is measured by wrapping listeners with timed.
+ * The metrics of each statement are published as an MBean and can be appended to a csv file periodically
+ */
+public class StatementMetrics implements Closeable {
+
+    /**
+     * The name of the statement that receives the metrics, its own metrics are not recorded
+     */
+    public static final String STATEMENT_NAME = "metrics-StatementMetric";
+
+    /**
+     * The statement that receives the metrics
+     */
+    public static final String EPL = "select * from StatementMetric";
+
+    private static final String CSV_HEADER = "timestamp,statement,cpuMicros,wallMicros,eventsIn,eventsOut,intervals,maxIntervalCpuMicros," +
+            "listenerCalls,listenerMicros,listenerP50Micros,listenerP99Micros,listenerMaxMicros";
+
+    private final String domain;
+    private final Map<String, StatementStats> statements = new ConcurrentHashMap<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private ScheduledExecutorService dumper;
+    private File dumpFile;
+
+    /**
+     * Turn on the metrics reporting of the runtime, must be called before the runtime is created
+     * @param configuration the configuration of the runtime
+     * @param intervalMillis how often each statement reports its metrics
+     */
+    public static void enable(Configuration configuration, long intervalMillis) {
+        configuration.getCommon().addEventType(StatementMetric.class);
+        configuration.getRuntime().getMetricsReporting().setEnableMetricsReporting(true);
+        configuration.getRuntime().getMetricsReporting().setStatementInterval(intervalMillis);
+        configuration.getRuntime().getMetricsReporting().setRuntimeInterval(intervalMillis);
+        //Report on a thread of the metrics reporting instead of the timer thread
+        configuration.getRuntime().getMetricsReporting().setThreading(true);
+    }
+
+    /**
+     * @param domain the JMX domain of the MBeans, null to not publish them
+     */
+    public StatementMetrics(String domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * Start recording the StatementMetric events of a statement
+     * @param statement a statement deployed with the EPL of this class
+     */
+    public void listen(EPStatement statement) {
+        statement.addListener(new UpdateListener() {
+            public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+                for (EventBean event : newData) {
+                    StatementMetric metric = (StatementMetric) event.getUnderlying();
+                    if (STATEMENT_NAME.equals(metric.getStatementName())) {
+                        continue;
+                    }
+                    stats(metric.getStatementName()).recordInterval(metric.getCpuTime(), metric.getWallTime(),
+                            metric.getNumInput(), metric.getNumOutputIStream() + metric.getNumOutputRStream());
+                }
+            }
+        });
+    }
+
+    /**
+     * @param statementName the name of the statement
+     * @return the metrics of the statement, created when they do not exist
+     */
+    public StatementStats stats(String statementName) {
+        StatementStats stats = statements.get(statementName);
+        if (stats != null) {
+            return stats;
+        }
+        synchronized (this) {
+            stats = statements.get(statementName);
+            if (stats == null) {
+                stats = new StatementStats(statementName);
+                register(stats);
+                statements.put(statementName, stats);
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Measure the time spent by a listener of a statement
+     * @param statementName the name of the statement
+     * @param listener the listener
+     * @return the listener to add to the statement
+     */
+    public UpdateListener timed(String statementName, UpdateListener listener) {
+        return new TimedListener(listener, stats(statementName));
+    }
+
+    private void register(StatementStats stats) {
+        if (domain == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(domain + ":type=Statement,name=" + ObjectName.quote(stats.getStatementName()));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(stats, name);
+            registered.add(name);
+        }catch (JMException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Append the metrics of every statement to a csv file periodically
+     * @param file the csv file, the header is written when it is empty
+     * @param periodMillis the time between dumps
+     */
+    public synchronized void startDump(File file, long periodMillis) {
+        if (dumper != null) {
+            throw new IllegalStateException("The dump was already started");
+        }
+        dumpFile = file;
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "statement-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(this::dump, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void dump() {
+        boolean header = !dumpFile.exists() || dumpFile.length() == 0;
+        try (PrintWriter writer = new PrintWriter(new FileWriter(dumpFile, true))) {
+            if (header) {
+                writer.println(CSV_HEADER);
+            }
+            long now = System.currentTimeMillis();
+            for (StatementStats stats : sorted()) {
+                writer.printf("%d,%s,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d%n", now, stats.getStatementName(),
+                        stats.getCpuTimeMicros(), stats.getWallTimeMicros(), stats.getEventsIn(), stats.getEventsOut(),
+                        stats.getIntervals(), stats.getMaxIntervalCpuMicros(), stats.getListenerCalls(), stats.getListenerTimeMicros(),
+                        stats.getListenerP50Micros(), stats.getListenerP99Micros(), stats.getListenerMaxMicros());
+            }
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the metrics of every statement, the statement that used more CPU first
+     */
+    public List<StatementStats> sorted() {
+        List<StatementStats> sorted = new ArrayList<>(statements.values());
+        sorted.sort((a, b) -> Long.compare(b.getCpuTimeMicros() + b.getListenerTimeMicros(), a.getCpuTimeMicros() + a.getListenerTimeMicros()));
+        return sorted;
+    }
+
+    /**
+     * @return a table with the metrics of every statement, the statement that used more CPU first
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-30s %10s %10s %10s %10s %10s %10s %10s%n", "Statement", "cpu ms", "wall ms",
+                "in", "out", "listen ms", "p99 us", "max us"));
+        for (StatementStats stats : sorted()) {
+            report.append(String.format("%-30s %10d %10d %10d %10d %10d %10d %10d%n", stats.getStatementName(),
+                    stats.getCpuTimeMicros() / 1000, stats.getWallTimeMicros() / 1000, stats.getEventsIn(), stats.getEventsOut(),
+                    stats.getListenerTimeMicros() / 1000, stats.getListenerP99Micros(), stats.getListenerMaxMicros()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Stop the dump, writing it a last time, and unregister the MBeans
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService current;
+        synchronized (this) {
+            current = dumper;
+            dumper = null;
+        }
+        //Wait outside of the lock, a running dump needs it
+        if (current != null) {
+            current.shutdown();
+            try {
+                current.awaitTermination(10, TimeUnit.SECONDS);
+            }catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+            dump();
+        }
+        synchronized (this) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName name : registered) {
+                try {
+                    server.unregisterMBean(name);
+                }catch (JMException ex){
+                    ex.printStackTrace();
+                }
+            }
+            registered.clear();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package webmedia.cep2019.simplesample.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of a statement.
+ * CPU time, wall time and events come from the StatementMetric events of the runtime, one sample per reporting interval;
+ * listener time is measured by a TimedListener around each call
+ */
+public class StatementStats implements StatementStatsMBean {
+
+    private final String statementName;
+    private final AtomicLong eventsIn = new AtomicLong();
+    private final AtomicLong eventsOut = new AtomicLong();
+    //Per reporting interval
+    private final LongHistogram cpuNanos = new LongHistogram();
+    private final LongHistogram wallNanos = new LongHistogram();
+    //Per listener call
+    private final LongHistogram listenerNanos = new LongHistogram();
+
+    public StatementStats(String statementName) {
+        this.statementName = statementName;
+    }
+
+    /**
+     * Add the values of one reporting interval
+     */
+    void recordInterval(long cpuTime, long wallTime, long input, long output) {
+        cpuNanos.record(cpuTime);
+        wallNanos.record(wallTime);
+        eventsIn.addAndGet(input);
+        eventsOut.addAndGet(output);
+    }
+
+    /**
+     * Add the time of one listener call
+     */
+    public void recordListener(long nanos) {
+        listenerNanos.record(nanos);
+    }
+
+    public String getStatementName() {
+        return statementName;
+    }
+
+    public long getCpuTimeMicros() {
+        return cpuNanos.getSum() / 1000;
+    }
+
+    public long getWallTimeMicros() {
+        return wallNanos.getSum() / 1000;
+    }
+
+    public long getEventsIn() {
+        return eventsIn.get();
+    }
+
+    public long getEventsOut() {
+        return eventsOut.get();
+    }
+
+    public long getIntervals() {
+        return cpuNanos.getCount();
+    }
+
+    public long getMaxIntervalCpuMicros() {
+        return cpuNanos.getMax() / 1000;
+    }
+
+    public long getListenerCalls() {
+        return listenerNanos.getCount();
+    }
+
+    public long getListenerTimeMicros() {
+        return listenerNanos.getSum() / 1000;
+    }
+
+    public long getListenerP50Micros() {
+        return listenerNanos.getPercentile(50) / 1000;
+    }
+
+    public long getListenerP99Micros() {
+        return listenerNanos.getPercentile(99) / 1000;
+    }
+
+    public long getListenerMaxMicros() {
+        return listenerNanos.getMax() / 1000;
+    }
+
+    public LongHistogram getCpuHistogram() {
+        return cpuNanos;
+    }
+
+    public LongHistogram getWallHistogram() {
+        return wallNanos;
+    }
+
+    public LongHistogram getListenerHistogram() {
+        return listenerNanos;
+    }
+}
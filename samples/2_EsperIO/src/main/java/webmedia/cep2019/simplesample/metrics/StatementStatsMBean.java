@@ -0,0 +1,31 @@
+package webmedia.cep2019.simplesample.metrics;
+
+/**
+ * The JMX view of the metrics of a statement, times are in microseconds
+ */
+public interface StatementStatsMBean {
+
+    String getStatementName();
+
+    long getCpuTimeMicros();
+
+    long getWallTimeMicros();
+
+    long getEventsIn();
+
+    long getEventsOut();
+
+    long getIntervals();
+
+    long getMaxIntervalCpuMicros();
+
+    long getListenerCalls();
+
+    long getListenerTimeMicros();
+
+    long getListenerP50Micros();
+
+    long getListenerP99Micros();
+
+    long getListenerMaxMicros();
+}
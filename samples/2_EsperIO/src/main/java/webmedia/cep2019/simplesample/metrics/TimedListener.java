@@ -0,0 +1,33 @@
+package webmedia.cep2019.simplesample.metrics;
+
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.UpdateListener;
+
+/**
+ * Measures the time spent by a listener on each call
+ */
+public class TimedListener implements UpdateListener {
+
+    private final UpdateListener listener;
+    private final StatementStats stats;
+
+    /**
+     * @param listener the listener that does the work
+     * @param stats where the time of each call is recorded
+     */
+    public TimedListener(UpdateListener listener, StatementStats stats) {
+        this.listener = listener;
+        this.stats = stats;
+    }
+
+    public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+        long start = System.nanoTime();
+        try {
+            listener.update(newData, oldData, epStatement, epRuntime);
+        }finally {
+            stats.recordListener(System.nanoTime() - start);
+        }
+    }
+}
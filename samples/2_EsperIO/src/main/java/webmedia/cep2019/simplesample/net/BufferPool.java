@@ -0,0 +1,38 @@
+package webmedia.cep2019.simplesample.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A free list of buffers of the same size, used by a single thread.
+ * Buffers are created when the list is empty and at most maxFree buffers are kept
+ */
+class BufferPool {
+
+    private final int bufferSize;
+    private final int maxFree;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    BufferPool(int bufferSize, int maxFree) {
+        this.bufferSize = bufferSize;
+        this.maxFree = maxFree;
+    }
+
+    /**
+     * @return a cleared buffer
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        if (free.size() < maxFree) {
+            buffer.clear();
+            free.push(buffer);
+        }
+    }
+}
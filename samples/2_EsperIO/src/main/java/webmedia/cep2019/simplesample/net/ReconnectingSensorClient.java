@@ -0,0 +1,88 @@
+package webmedia.cep2019.simplesample.net;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+
+/**
+ * A SensorClient that connects on the first batch and connects again after a failure, so an endpoint that is down
+ * only loses the batches sent while it is unreachable. A batch that can not be sent fails with an UncheckedIOException;
+ * a new connection is tried at most once per RETRY_MILLIS. It must be used by a single thread
+ */
+public class ReconnectingSensorClient implements SensorSink, Closeable {
+
+    public static final long RETRY_MILLIS = 1000;
+
+    private final InetSocketAddress address;
+    private final WireFormat format;
+    private final boolean udp;
+    private SensorClient client;
+    private long nextAttempt;
+    private long connections;
+
+    /**
+     * @param address the address of the endpoint
+     * @param format the format of the records
+     * @param udp true to send datagrams, false to use a TCP connection
+     */
+    public ReconnectingSensorClient(InetSocketAddress address, WireFormat format, boolean udp) {
+        this.address = address;
+        this.format = format;
+        this.udp = udp;
+    }
+
+    @Override
+    public void send(SensorUpdate[] batch, int length) {
+        if (client == null) {
+            connect();
+        }
+        try {
+            client.send(batch, length);
+        }catch (UncheckedIOException ex){
+            disconnect();
+            throw ex;
+        }
+    }
+
+    private void connect() {
+        long now = System.currentTimeMillis();
+        if (now < nextAttempt) {
+            throw new UncheckedIOException(new IOException("Not connected to " + address));
+        }
+        nextAttempt = now + RETRY_MILLIS;
+        try {
+            client = new SensorClient(address, format, udp);
+            connections++;
+        }catch (IOException ex){
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void disconnect() {
+        try {
+            client.close();
+        }catch (IOException ex){
+            //The connection is already broken
+        }
+        client = null;
+    }
+
+    /**
+     * @return the number of connections made
+     */
+    public long getConnections() {
+        return connections;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+}
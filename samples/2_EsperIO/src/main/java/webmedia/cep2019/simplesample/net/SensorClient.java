@@ -0,0 +1,171 @@
+package webmedia.cep2019.simplesample.net;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.IngestStats;
+import webmedia.cep2019.simplesample.ingest.SensorRecordFormat;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+import webmedia.cep2019.simplesample.load.CsvFormat;
+import webmedia.cep2019.simplesample.load.LoadGenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sends SensorUpdate events to a SensorEndpoint, over a TCP connection or as UDP datagrams.
+ * Each batch is encoded in the WireFormat and written before send returns; over UDP a datagram holds as many
+ * complete records as fit in MAX_DATAGRAM bytes. A client must be used by a single thread
+ */
+public class SensorClient implements SensorSink, Closeable {
+
+    //Small enough to not be fragmented on most networks
+    public static final int MAX_DATAGRAM = 1400;
+
+    private final WireFormat format;
+    private final boolean udp;
+    private final ByteChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] line = new byte[CsvFormat.MAX_LINE_LENGTH];
+
+    /**
+     * Connect to an endpoint
+     * @param address the address of the endpoint
+     * @param format the format of the records
+     * @param udp true to send datagrams, false to use a TCP connection
+     */
+    public SensorClient(InetSocketAddress address, WireFormat format, boolean udp) throws IOException {
+        this.format = format;
+        this.udp = udp;
+        if (udp) {
+            DatagramChannel datagrams = DatagramChannel.open();
+            datagrams.connect(address);
+            this.channel = datagrams;
+        }else {
+            SocketChannel socket = SocketChannel.open(address);
+            socket.socket().setTcpNoDelay(true);
+            this.channel = socket;
+        }
+        this.buffer = ByteBuffer.allocateDirect(udp ? MAX_DATAGRAM : 1 << 16).order(SensorRecordFormat.ORDER);
+    }
+
+    /**
+     * Encode the events and write them
+     */
+    @Override
+    public void send(SensorUpdate[] batch, int length) {
+        try {
+            for (int i = 0; i < length; i++) {
+                if (format == WireFormat.BINARY) {
+                    if (buffer.remaining() < SensorRecordFormat.RECORD_SIZE) {
+                        flush();
+                    }
+                    SensorRecordFormat.write(buffer, batch[i]);
+                }else {
+                    int size = CsvFormat.appendLine(line, 0, batch[i]);
+                    if (buffer.remaining() < size) {
+                        flush();
+                    }
+                    buffer.put(line, 0, size);
+                }
+            }
+            flush();
+        }catch (IOException ex){
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Write the encoded records, as a single datagram over UDP
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Send generated events from several connections in parallel.
+     * Usage: SensorClient host:port [format=line|binary] [udp=false] [connections=4] [events=1000000] [rooms=1000] [rate=0]
+     * rate limits the events per second of each connection, 0 sends as fast as possible
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: SensorClient host:port [format=line|binary] [udp=false] [connections=4] [events=1000000] [rooms=1000] [rate=0]");
+            return;
+        }
+        String[] hostPort = args[0].split(":");
+        InetSocketAddress address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        WireFormat format = WireFormat.LINE;
+        boolean udp = false;
+        int connections = 4;
+        long events = 1000000;
+        int rooms = 1000;
+        double rate = 0;
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected name=value: " + args[i]);
+            }
+            String value = option[1];
+            switch (option[0]) {
+                case "format": format = WireFormat.valueOf(value.toUpperCase()); break;
+                case "udp": udp = Boolean.parseBoolean(value); break;
+                case "connections": connections = Integer.parseInt(value); break;
+                case "events": events = Long.parseLong(value); break;
+                case "rooms": rooms = Integer.parseInt(value); break;
+                case "rate": rate = Double.parseDouble(value); break;
+                default: throw new IllegalArgumentException("Unknown option: " + option[0]);
+            }
+        }
+
+        //Over UDP a batch fills a datagram
+        int recordSize = format == WireFormat.BINARY ? SensorRecordFormat.RECORD_SIZE : CsvFormat.MAX_LINE_LENGTH;
+        int batchSize = udp ? MAX_DATAGRAM / recordSize : 256;
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(connections);
+        List<Future<IngestStats>> results = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            LoadGenerator generator = new LoadGenerator();
+            generator.setEvents(events / connections + (i < events % connections ? 1 : 0));
+            generator.setRooms(rooms);
+            generator.setSeed(i);
+            generator.setThreads(1);
+            if (rate > 0) {
+                generator.setThrottle(rate);
+            }
+            SensorClient client = new SensorClient(address, format, udp);
+            results.add(executor.submit(() -> {
+                try {
+                    return generator.push(client, batchSize);
+                }finally {
+                    client.close();
+                }
+            }));
+        }
+        long sent = 0;
+        for (Future<IngestStats> result : results) {
+            sent += result.get().getEvents();
+        }
+        executor.shutdown();
+        System.out.println(new IngestStats("SensorClient(" + format + (udp ? ", udp, " : ", tcp, ") + connections + " connections)",
+                0, sent, 0, System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,427 @@
+package webmedia.cep2019.simplesample.net;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.CsvRecordParser;
+import webmedia.cep2019.simplesample.ingest.IngestStats;
+import webmedia.cep2019.simplesample.ingest.SensorRecordFormat;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receives SensorUpdate records from the network, over TCP from any number of connections and optionally over UDP.
+ * Connections are accepted on a thread of their own and spread over the selector threads, each selector thread reads its
+ * connections without blocking, decodes the records of the WireFormat and sends them to the sink in batches.
+ * Every selector thread has a single read buffer; the incomplete record at the end of a read is moved to a buffer of a pool
+ * and kept by its connection until the rest arrives, so idle connections hold no buffer.
+ * A UDP datagram must contain complete records
+ */
+public class SensorEndpoint implements Closeable {
+
+    //The largest incomplete record a connection can keep between two reads, a longer line is a decode error
+    private static final int CARRY_SIZE = 4096;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final WireFormat format;
+    private final int batchSize;
+    private final SensorSink sink;
+    private final ServerSocketChannel server;
+    private final DatagramChannel datagrams;
+    private final Worker[] workers;
+    private final Thread acceptor;
+    private final long start = System.nanoTime();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong openConnections = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong decodeErrors = new AtomicLong();
+    private final AtomicLong lastEvent = new AtomicLong(System.nanoTime());
+    private volatile boolean closed;
+
+    /**
+     * Start listening
+     * @param tcp the TCP address to listen on, port 0 picks a free port
+     * @param udp the UDP address to listen on, null to not listen on UDP
+     * @param format the format of the records
+     * @param threads the number of selector threads
+     * @param batchSize the number of events sent to the sink at once
+     * @param sink where the events are sent, it must accept calls from several threads if threads is greater than 1
+     */
+    public SensorEndpoint(InetSocketAddress tcp, InetSocketAddress udp, WireFormat format, int threads, int batchSize, SensorSink sink) throws IOException {
+        if (threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("threads and batchSize must be positive");
+        }
+        this.format = format;
+        this.batchSize = batchSize;
+        this.sink = sink;
+        this.server = ServerSocketChannel.open();
+        this.server.bind(tcp, 1024);
+        if (udp != null) {
+            this.datagrams = DatagramChannel.open();
+            this.datagrams.bind(udp);
+            this.datagrams.configureBlocking(false);
+        }else {
+            this.datagrams = null;
+        }
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i);
+        }
+        if (datagrams != null) {
+            datagrams.register(workers[0].selector, SelectionKey.OP_READ);
+        }
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+        this.acceptor = new Thread(this::accept, "sensor-endpoint-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    /**
+     * @return the address the TCP connections are accepted on
+     */
+    public InetSocketAddress getTcpAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    /**
+     * @return the address the UDP datagrams are received on, null if UDP is disabled
+     */
+    public InetSocketAddress getUdpAddress() throws IOException {
+        return datagrams == null ? null : (InetSocketAddress) datagrams.getLocalAddress();
+    }
+
+    /**
+     * Accept the connections and hand them to the selector threads in turn
+     */
+    private void accept() {
+        int next = 0;
+        while (!closed) {
+            try {
+                SocketChannel channel = server.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                connections.incrementAndGet();
+                openConnections.incrementAndGet();
+                workers[next].register(channel);
+                next = (next + 1) % workers.length;
+            }catch (AsynchronousCloseException ex){
+                return;
+            }catch (IOException ex){
+                if (!closed) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until no event was received for a while
+     * @param idleMillis how long without events
+     */
+    public void awaitIdle(long idleMillis) throws InterruptedException {
+        while (!closed && System.nanoTime() - lastEvent.get() < TimeUnit.MILLISECONDS.toNanos(idleMillis)) {
+            Thread.sleep(Math.max(1, idleMillis / 10));
+        }
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public long getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public long getDecodeErrors() {
+        return decodeErrors.get();
+    }
+
+    public long getEvents() {
+        return events.get();
+    }
+
+    /**
+     * @return the ingestion statistics since the endpoint started, the errors are the records that could not be decoded
+     */
+    public IngestStats stats() {
+        return new IngestStats("SensorEndpoint(" + format + ", " + workers.length + " threads)", bytes.get(), events.get(),
+                decodeErrors.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Stop accepting connections, close the open ones and wait for the selector threads to send their last events
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Worker worker : workers) {
+            worker.selector.wakeup();
+        }
+        try {
+            for (Worker worker : workers) {
+                worker.thread.join(TimeUnit.MINUTES.toMillis(1));
+            }
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+        if (datagrams != null) {
+            datagrams.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return stats() + String.format(" - %d connections (%d open)", connections.get(), openConnections.get());
+    }
+
+    /**
+     * The incomplete record a connection keeps between two reads
+     */
+    private static final class Connection {
+        ByteBuffer carry;
+    }
+
+    /**
+     * A selector thread, it reads and decodes the records of its connections
+     */
+    private class Worker implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE).order(SensorRecordFormat.ORDER);
+        final BufferPool carries = new BufferPool(CARRY_SIZE, 256);
+        final CsvRecordParser parser = new CsvRecordParser();
+        final SensorUpdate[] batch = new SensorUpdate[batchSize];
+        int length;
+        long decoded;
+        long errors;
+
+        Worker(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "sensor-endpoint-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void register(SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select();
+                    SocketChannel registration;
+                    while ((registration = registrations.poll()) != null) {
+                        registration.register(selector, SelectionKey.OP_READ, new Connection());
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.channel() == datagrams) {
+                            receive();
+                        }else {
+                            read(key);
+                        }
+                    }
+                    flush();
+                }
+            }catch (IOException ex){
+                if (!closed) {
+                    ex.printStackTrace();
+                }
+            }finally {
+                flush();
+                publishCounters();
+                SocketChannel registration;
+                while ((registration = registrations.poll()) != null) {
+                    try {
+                        registration.close();
+                    }catch (IOException ex){
+                        ex.printStackTrace();
+                    }
+                    openConnections.decrementAndGet();
+                }
+                for (SelectionKey key : selector.keys()) {
+                    if (key.channel() != datagrams) {
+                        disconnect(key);
+                    }
+                }
+                try {
+                    selector.close();
+                }catch (IOException ex){
+                    ex.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * Read what a connection sent, the incomplete record at the end is kept for the next read
+         */
+        private void read(SelectionKey key) {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            readBuffer.clear();
+            if (connection.carry != null) {
+                connection.carry.flip();
+                readBuffer.put(connection.carry);
+                carries.release(connection.carry);
+                connection.carry = null;
+            }
+            int read;
+            try {
+                read = channel.read(readBuffer);
+            }catch (IOException ex){
+                read = -1;
+            }
+            if (read > 0) {
+                bytes.addAndGet(read);
+            }
+            readBuffer.flip();
+            int consumed = decode(readBuffer);
+            int remaining = readBuffer.limit() - consumed;
+            if (read < 0) {
+                if (remaining > 0) {
+                    //The connection was closed in the middle of a record
+                    errors++;
+                }
+                disconnect(key);
+            }else if (remaining > CARRY_SIZE) {
+                //A line longer than any valid record, the rest of the stream cannot be trusted
+                errors++;
+                disconnect(key);
+            }else if (remaining > 0) {
+                readBuffer.position(consumed);
+                connection.carry = carries.acquire();
+                connection.carry.put(readBuffer);
+            }
+            publishCounters();
+        }
+
+        /**
+         * Receive the pending datagrams, each one must contain complete records.
+         * A failed receive (e.g. an ICMP error reported for the socket) stops this round, the selector reports the next datagrams again
+         */
+        private void receive() {
+            while (true) {
+                readBuffer.clear();
+                try {
+                    if (datagrams.receive(readBuffer) == null) {
+                        break;
+                    }
+                }catch (IOException ex){
+                    if (!closed) {
+                        ex.printStackTrace();
+                    }
+                    break;
+                }
+                readBuffer.flip();
+                bytes.addAndGet(readBuffer.limit());
+                if (decode(readBuffer) < readBuffer.limit()) {
+                    errors++;
+                }
+            }
+            publishCounters();
+        }
+
+        /**
+         * Decode the complete records of the buffer, between its position and its limit
+         * @return the index after the last complete record
+         */
+        private int decode(ByteBuffer buffer) {
+            int limit = buffer.limit();
+            int position = buffer.position();
+            if (format == WireFormat.BINARY) {
+                for (; position + SensorRecordFormat.RECORD_SIZE <= limit; position += SensorRecordFormat.RECORD_SIZE) {
+                    SensorUpdate event = new SensorUpdate();
+                    SensorRecordFormat.read(buffer, position, event);
+                    add(event);
+                }
+                return position;
+            }
+            int lineStart = position;
+            for (int i = position; i < limit; i++) {
+                if (buffer.get(i) != '\n') {
+                    continue;
+                }
+                if (i > lineStart && !(i == lineStart + 1 && buffer.get(lineStart) == '\r')) {
+                    SensorUpdate event = new SensorUpdate();
+                    if (parser.parse(buffer, lineStart, i, event)) {
+                        add(event);
+                    }else {
+                        errors++;
+                    }
+                }
+                lineStart = i + 1;
+            }
+            return lineStart;
+        }
+
+        private void add(SensorUpdate event) {
+            batch[length++] = event;
+            decoded++;
+            if (length == batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (length > 0) {
+                sink.send(batch, length);
+                length = 0;
+                lastEvent.set(System.nanoTime());
+            }
+        }
+
+        /**
+         * Add the events and errors of this thread to the totals, once per read instead of once per record
+         */
+        private void publishCounters() {
+            if (decoded > 0) {
+                events.addAndGet(decoded);
+                decoded = 0;
+            }
+            if (errors > 0) {
+                decodeErrors.addAndGet(errors);
+                errors = 0;
+            }
+        }
+
+        private void disconnect(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            if (connection.carry != null) {
+                carries.release(connection.carry);
+                connection.carry = null;
+            }
+            key.cancel();
+            try {
+                key.channel().close();
+            }catch (IOException ex){
+                ex.printStackTrace();
+            }
+            openConnections.decrementAndGet();
+        }
+    }
+}
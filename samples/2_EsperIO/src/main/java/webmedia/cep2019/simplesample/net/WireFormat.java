@@ -0,0 +1,15 @@
+package webmedia.cep2019.simplesample.net;
+
+/**
+ * How SensorUpdate records are written on the network
+ */
+public enum WireFormat {
+    /**
+     * "temperature,humidity,roomId,timestamp" lines ending with a line break
+     */
+    LINE,
+    /**
+     * Records of the SensorRecordFormat (28 bytes, little-endian), without the file header
+     */
+    BINARY
+}
@@ -0,0 +1,450 @@
+package webmedia.cep2019.simplesample.output;
+
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.EventType;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.UpdateListener;
+import webmedia.cep2019.simplesample.OverflowPolicy;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An update listener that writes the events as csv lines to a file, replacing the esperio FileSink dataflow.
+ * The listener only encodes the events into a chunk; full chunks are handed over to a writer thread, which copies them
+ * into a large direct buffer and writes it through a FileChannel when it is full or when the flush interval elapses.
+ * With fsync enabled every write is followed by a single force, so many events share the cost of one disk sync.
+ * The number of chunks is bounded: when the disk cannot keep up the overflow policy decides whether the listener
+ * waits for a chunk (BLOCK) or discards the events of the update (DROP).
+ * DROP_OLDEST is refused: the chunks already handed over are always written.
+ * If the writer thread stops, e.g. after a failed write, the sink does not wait for it: update, flush and close throw
+ */
+public class BufferedFileSink implements UpdateListener, Closeable, Flushable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+    public static final int DEFAULT_CHUNKS = 16;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    //Asks the writer thread to write what it received so far, it is not a chunk
+    private static final ByteBuffer FLUSH = ByteBuffer.allocate(0);
+
+    private static final ThreadLocal<LineBuffer> LINES = ThreadLocal.withInitial(LineBuffer::new);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer output;
+    private final long flushIntervalNanos;
+    private final boolean fsync;
+    private final OverflowPolicy policy;
+
+    private final BlockingQueue<ByteBuffer> freeChunks;
+    private final BlockingQueue<ByteBuffer> filledChunks;
+    private final ReentrantLock lock = new ReentrantLock();
+    //Guarded by lock
+    private ByteBuffer current;
+    private long flushRequests;
+    //Guarded by flushed
+    private final Object flushed = new Object();
+    private long flushesDone;
+
+    private final Thread writer;
+    private volatile boolean closed;
+    //Why the writer thread stopped before the sink was closed
+    private volatile Exception failure;
+    private volatile CsvEventEncoder[] encoders = new CsvEventEncoder[0];
+
+    private final AtomicLong receivedEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    /**
+     * Create a sink with the default sizes, the BLOCK policy and no fsync
+     * @param file the output file, it is truncated if it already exists
+     */
+    public BufferedFileSink(Path file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * Create a sink with the default sizes, the BLOCK policy and no fsync
+     * @param file the output file
+     * @param append if the events are added to the end of an existing file instead of truncating it
+     */
+    public BufferedFileSink(Path file, boolean append) throws IOException {
+        this(file, append, DEFAULT_BUFFER_SIZE, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNKS, DEFAULT_FLUSH_INTERVAL_MILLIS, false, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param file the output file
+     * @param append if the events are added to the end of an existing file instead of truncating it
+     * @param bufferSize the size of the direct buffer written to the file, the size threshold of a flush
+     * @param chunkSize the size of each chunk handed over to the writer thread
+     * @param chunks the number of chunks, it bounds the data waiting for the disk
+     * @param flushIntervalMillis the maximum time an event waits before being written, the time threshold of a flush
+     * @param fsync if each flush is followed by a force of the file contents to the disk
+     * @param policy what the listener does when every chunk is waiting for the disk, BLOCK or DROP
+     */
+    public BufferedFileSink(Path file, boolean append, int bufferSize, int chunkSize, int chunks, long flushIntervalMillis,
+                            boolean fsync, OverflowPolicy policy) throws IOException {
+        if (chunks < 2 || chunkSize < 1 || bufferSize < chunkSize) {
+            throw new IllegalArgumentException("At least two chunks are needed and the buffer must hold a chunk");
+        }
+        if (policy == OverflowPolicy.DROP_OLDEST) {
+            throw new IllegalArgumentException("DROP_OLDEST is not supported, the chunks handed over are always written");
+        }
+        this.file = file;
+        this.channel = append
+                ? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                : FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.output = ByteBuffer.allocateDirect(bufferSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.fsync = fsync;
+        this.policy = policy;
+
+        this.freeChunks = new ArrayBlockingQueue<>(chunks);
+        //The chunks are bounded by the free chunks, the flush requests also go through this queue
+        this.filledChunks = new LinkedBlockingQueue<>();
+        for (int i = 1; i < chunks; i++) {
+            freeChunks.add(ByteBuffer.allocate(chunkSize));
+        }
+        this.current = ByteBuffer.allocate(chunkSize);
+
+        this.writer = new Thread(this::write, "file-sink-" + file.getFileName());
+        this.writer.start();
+    }
+
+    public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+        if (newData == null) {
+            return;
+        }
+        //Encode outside of the lock, the lock is only held to copy the bytes
+        LineBuffer buffer = LINES.get();
+        buffer.text.setLength(0);
+        for (EventBean event : newData) {
+            encoderFor(event.getEventType()).format(event, buffer.text);
+        }
+        int length = buffer.encode();
+        receivedEvents.addAndGet(newData.length);
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The sink of " + file + " is closed");
+            }
+            checkWriter();
+            //Chunks are handed over between updates, so a line is never split between a written and a dropped chunk
+            if (current.remaining() < length && current.position() > 0 && !handOver(policy == OverflowPolicy.BLOCK)) {
+                droppedEvents.addAndGet(newData.length);
+                return;
+            }
+            int offset = 0;
+            while (offset < length) {
+                //Only an update larger than a chunk is split
+                if (!current.hasRemaining() && !handOver(true)) {
+                    droppedEvents.addAndGet(newData.length);
+                    return;
+                }
+                int count = Math.min(current.remaining(), length - offset);
+                current.put(buffer.bytes, offset, count);
+                offset += count;
+            }
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hand over the current chunk to the writer thread and take a free one.
+     * Must be called with the lock held
+     * @param block if the caller waits for a free chunk, as long as the writer thread runs
+     * @return false if there was no free chunk and the caller does not wait or was interrupted
+     * @throws IllegalStateException if the writer thread stopped while the caller waited
+     */
+    private boolean handOver(boolean block) {
+        ByteBuffer next = freeChunks.poll();
+        try {
+            while (next == null && block) {
+                next = freeChunks.poll(100, TimeUnit.MILLISECONDS);
+                if (next == null) {
+                    checkWriter();
+                }
+            }
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+        if (next == null) {
+            return false;
+        }
+        current.flip();
+        filledChunks.add(current);
+        current = next;
+        return true;
+    }
+
+    /**
+     * @throws IllegalStateException if the writer thread stopped, with the reason as its cause
+     */
+    private void checkWriter() {
+        if (!writer.isAlive()) {
+            throw new IllegalStateException("The writer thread of " + file + " stopped", failure);
+        }
+    }
+
+    private CsvEventEncoder encoderFor(EventType eventType) {
+        CsvEventEncoder[] current = encoders;
+        for (CsvEventEncoder encoder : current) {
+            if (encoder.getEventType() == eventType) {
+                return encoder;
+            }
+        }
+        synchronized (this) {
+            for (CsvEventEncoder encoder : encoders) {
+                if (encoder.getEventType() == eventType) {
+                    return encoder;
+                }
+            }
+            CsvEventEncoder encoder = new CsvEventEncoder(eventType);
+            CsvEventEncoder[] updated = new CsvEventEncoder[encoders.length + 1];
+            System.arraycopy(encoders, 0, updated, 0, encoders.length);
+            updated[encoders.length] = encoder;
+            encoders = updated;
+            return encoder;
+        }
+    }
+
+    /**
+     * The writer thread: copies the filled chunks to the output buffer and flushes it on size or time thresholds
+     */
+    private void write() {
+        long lastFlush = System.nanoTime();
+        try {
+            while (true) {
+                long wait = closed ? 0 : Math.max(0, flushIntervalNanos - (System.nanoTime() - lastFlush));
+                ByteBuffer chunk = filledChunks.poll(wait, TimeUnit.NANOSECONDS);
+                if (chunk == FLUSH) {
+                    //The chunks handed over before the request were taken before it
+                    writeOutput();
+                    lastFlush = System.nanoTime();
+                    synchronized (flushed) {
+                        flushesDone++;
+                        flushed.notifyAll();
+                    }
+                    continue;
+                }
+                if (chunk != null) {
+                    if (output.remaining() < chunk.remaining()) {
+                        writeOutput();
+                        lastFlush = System.nanoTime();
+                    }
+                    output.put(chunk);
+                    chunk.clear();
+                    freeChunks.add(chunk);
+                    //Under a steady stream of chunks the poll never times out, so the time threshold is also checked here
+                    if (System.nanoTime() - lastFlush >= flushIntervalNanos) {
+                        writeOutput();
+                        lastFlush = System.nanoTime();
+                    }
+                    continue;
+                }
+                if (!closed && System.nanoTime() - lastFlush < flushIntervalNanos) {
+                    continue;
+                }
+                //Time threshold: take the partially filled chunk too, unless the listener is holding the lock
+                boolean finished = false;
+                if (lock.tryLock()) {
+                    try {
+                        if (current.position() > 0) {
+                            handOver(false);
+                        }
+                        //The last chunk is handed over while the lock is held, so nothing is left after this point
+                        finished = closed && current.position() == 0;
+                    }finally {
+                        lock.unlock();
+                    }
+                }
+                if (filledChunks.isEmpty()) {
+                    writeOutput();
+                    lastFlush = System.nanoTime();
+                    if (finished) {
+                        return;
+                    }
+                }
+            }
+        }catch (InterruptedException ex){
+            failure = ex;
+            Thread.currentThread().interrupt();
+        }catch (IOException | RuntimeException ex){
+            failure = ex;
+            ex.printStackTrace();
+        }
+    }
+
+    private void writeOutput() throws IOException {
+        output.flip();
+        if (output.hasRemaining()) {
+            while (output.hasRemaining()) {
+                writtenBytes.addAndGet(channel.write(output));
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+            flushes.incrementAndGet();
+        }
+        output.clear();
+    }
+
+    /**
+     * Write every event received before this call to the file, and force it to the disk when fsync is enabled
+     */
+    @Override
+    public void flush() throws IOException {
+        long request;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            checkWriter();
+            if (current.position() > 0) {
+                handOver(true);
+            }
+            request = ++flushRequests;
+            filledChunks.add(FLUSH);
+        }catch (IllegalStateException ex){
+            throw new IOException(ex.getMessage(), failure);
+        }finally {
+            lock.unlock();
+        }
+        synchronized (flushed) {
+            while (flushesDone < request) {
+                if (!writer.isAlive()) {
+                    throw new IOException("The writer thread of " + file + " stopped", failure);
+                }
+                try {
+                    flushed.wait(100);
+                }catch (InterruptedException ex){
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing " + file);
+                }
+            }
+        }
+    }
+
+    public long getReceivedEvents() {
+        return receivedEvents.get();
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * @return the number of chunks waiting to be written
+     */
+    public int getQueueDepth() {
+        return filledChunks.size();
+    }
+
+    /**
+     * Write every pending event and close the file.
+     * If the writer thread already stopped the pending events are lost and the reason is thrown, after the file is closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        lock.lock();
+        try {
+            closed = true;
+            if (current.position() > 0 && writer.isAlive()) {
+                handOver(true);
+            }
+        }catch (IllegalStateException ex){
+            //The writer stopped while the last chunk waited, reported below
+        }finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) {
+            throw new IOException("The writer thread of " + file + " stopped", failure);
+        }
+    }
+
+    /**
+     * The text of an update and its encoded bytes, reused by each thread
+     */
+    private static final class LineBuffer {
+        final StringBuilder text = new StringBuilder(1024);
+        byte[] bytes = new byte[1024];
+
+        /**
+         * Encode the text as UTF-8, a surrogate pair as the 4 bytes of its code point and a lone surrogate as '?'
+         * @return the number of bytes
+         */
+        int encode() {
+            int length = text.length();
+            if (bytes.length < length * 3) {
+                bytes = new byte[length * 3];
+            }
+            int count = 0;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    bytes[count++] = (byte) c;
+                }else if (c < 0x800) {
+                    bytes[count++] = (byte) (0xC0 | (c >> 6));
+                    bytes[count++] = (byte) (0x80 | (c & 0x3F));
+                }else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    //Two chars, so the 4 bytes fit in the 6 reserved for them
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    bytes[count++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                }else if (Character.isSurrogate(c)) {
+                    bytes[count++] = '?';
+                }else {
+                    bytes[count++] = (byte) (0xE0 | (c >> 12));
+                    bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[count++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return count;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d events, %d dropped, %d bytes in %d flushes",
+                file.getFileName(), getReceivedEvents(), getDroppedEvents(), getWrittenBytes(), getFlushes());
+    }
+}
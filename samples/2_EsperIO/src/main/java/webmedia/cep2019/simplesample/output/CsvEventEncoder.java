@@ -0,0 +1,69 @@
+package webmedia.cep2019.simplesample.output;
+
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.EventPropertyGetter;
+import com.espertech.esper.common.client.EventType;
+
+/**
+ * Formats the events of one event type as a csv line with the values of its properties.
+ * The readings (SensorUpdate and the events derived from it) get the "temperature,humidity,roomId,timestamp" columns of
+ * input.csv, as written by CsvSensorWriter, so the files are the same whatever the output; other types get every property,
+ * in the order of getPropertyNames(). The property getters are resolved once, when the encoder is created
+ */
+public class CsvEventEncoder {
+
+    //The columns of input.csv
+    private static final String[] SENSOR_COLUMNS = {"temperature", "humidity", "roomId", "timestamp"};
+
+    private final EventType eventType;
+    private final EventPropertyGetter[] getters;
+
+    /**
+     * @param eventType the type of the events to be formatted
+     */
+    public CsvEventEncoder(EventType eventType) {
+        this.eventType = eventType;
+        String[] propertyNames = hasSensorColumns(eventType) ? SENSOR_COLUMNS : eventType.getPropertyNames();
+        this.getters = new EventPropertyGetter[propertyNames.length];
+        for (int i = 0; i < propertyNames.length; i++) {
+            getters[i] = eventType.getGetter(propertyNames[i]);
+        }
+    }
+
+    private static boolean hasSensorColumns(EventType eventType) {
+        for (String column : SENSOR_COLUMNS) {
+            if (eventType.getPropertyType(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public EventType getEventType() {
+        return eventType;
+    }
+
+    /**
+     * Append the event to a buffer, followed by a line break
+     * @param event the event, it must be of the encoder event type
+     * @param buffer the buffer
+     */
+    public void format(EventBean event, StringBuilder buffer) {
+        for (int i = 0; i < getters.length; i++) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+            Object value = getters[i].get(event);
+            if (value instanceof Double) {
+                buffer.append(((Double) value).doubleValue());
+            }else if (value instanceof Long) {
+                buffer.append(((Long) value).longValue());
+            }else if (value instanceof Integer) {
+                buffer.append(((Integer) value).intValue());
+            }else {
+                buffer.append(value);
+            }
+        }
+        buffer.append('\n');
+    }
+}
@@ -0,0 +1,67 @@
+package webmedia.cep2019.simplesample.output;
+
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+import webmedia.cep2019.simplesample.load.CsvFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes SensorUpdate events as "temperature,humidity,roomId,timestamp" lines, the format of input.csv.
+ * The lines are encoded into a buffer that is written when it is full and at the end of each batch,
+ * so a writer is meant to run on a thread of its own, e.g. behind an OutputPipeline. A writer must be used by a single thread
+ */
+public class CsvSensorWriter implements SensorSink, Closeable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final byte[] line = new byte[CsvFormat.MAX_LINE_LENGTH];
+
+    /**
+     * @param file the file
+     * @param append true to append to the file, false to replace it
+     */
+    public CsvSensorWriter(Path file, boolean append) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(1 << 16);
+    }
+
+    @Override
+    public void send(SensorUpdate[] batch, int length) {
+        try {
+            for (int i = 0; i < length; i++) {
+                int size = CsvFormat.appendLine(line, 0, batch[i]);
+                if (buffer.remaining() < size) {
+                    flush();
+                }
+                buffer.put(line, 0, size);
+            }
+            flush();
+        }catch (IOException ex){
+            throw new UncheckedIOException("Failed to write " + file, ex);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
@@ -0,0 +1,300 @@
+package webmedia.cep2019.simplesample.output;
+
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.runtime.client.EPStatement;
+import webmedia.cep2019.simplesample.OverflowPolicy;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Delivers the events of statements to several sinks in parallel.
+ * The statements get a subscriber object, so the runtime calls a typed method with the underlying event instead of
+ * wrapping it in EventBeans for a listener. The subscriber only puts the event on the bounded queue of each sink
+ * that accepts its type; every sink has its own thread, which takes the events from its queue in batches.
+ * A full queue applies the overflow policy of its sink: BLOCK slows the runtime down to the speed of that sink,
+ * DROP and DROP_OLDEST discard events of that sink only, so a slow sink never slows down the others or the ingestion.
+ * The events offered once the pipeline is closing, or after the thread of a sink stopped, are dropped
+ */
+public class OutputPipeline implements Closeable, Flushable {
+
+    private final List<Channel> channels = new ArrayList<>();
+    private final BooleanSupplier open;
+    private volatile boolean closed;
+
+    /**
+     * Allow subscriber objects on the statements compiled with this configuration
+     */
+    public static void configure(Configuration configuration) {
+        configuration.getCompiler().getByteCode().setAllowSubscriber(true);
+    }
+
+    public OutputPipeline() {
+        this(() -> true);
+    }
+
+    /**
+     * @param open the events are only delivered while it returns true, e.g. to mute the output while a checkpoint is restored
+     */
+    public OutputPipeline(BooleanSupplier open) {
+        this.open = open;
+    }
+
+    /**
+     * Add a sink, all sinks must be added before the first statement is subscribed
+     * @param name a name for the sink
+     * @param type the events delivered to the sink, e.g. LowHumidity.class, SensorUpdate.class for all of them
+     * @param sink the sink, it is called by a single thread; it is closed with the pipeline if it is Closeable
+     * @param capacity the number of events the queue of the sink holds
+     * @param batchSize the largest number of events given to the sink at once
+     * @param policy what happens when the queue of the sink is full
+     */
+    public synchronized void addSink(String name, Class<? extends SensorUpdate> type, SensorSink sink, int capacity, int batchSize, OverflowPolicy policy) {
+        if (capacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("capacity and batchSize must be positive");
+        }
+        Channel channel = new Channel(name, type, sink, capacity, batchSize, policy);
+        channels.add(channel);
+        channel.thread.start();
+    }
+
+    /**
+     * Deliver the events of a statement selecting whole SensorUpdate events (select * from LowHumidity, for instance) to the sinks
+     * @param statement the statement, compiled with a configuration that allows subscribers
+     */
+    public void subscribe(EPStatement statement) {
+        statement.setSubscriber(new Subscriber(channels.toArray(new Channel[0])));
+    }
+
+    /**
+     * The subscriber object of a statement, the runtime calls update with each event of the insert stream
+     */
+    public class Subscriber {
+        private final Channel[] targets;
+
+        Subscriber(Channel[] targets) {
+            this.targets = targets;
+        }
+
+        public void update(SensorUpdate event) {
+            if (!open.getAsBoolean()) {
+                return;
+            }
+            for (Channel target : targets) {
+                if (target.type.isInstance(event)) {
+                    target.offer(event);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until every sink took the events offered to it before this call, the sinks write each batch before taking the next one
+     */
+    @Override
+    public void flush() throws IOException {
+        for (Channel channel : channels) {
+            channel.await(channel.offered.get());
+        }
+    }
+
+    /**
+     * Wait for the sinks to take every queued event, stop their threads and close the sinks that are Closeable
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Channel channel : channels) {
+            channel.stop();
+        }
+        IOException failure = null;
+        for (Channel channel : channels) {
+            try {
+                channel.thread.join();
+            }catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+            channel.dropQueued();
+            if (channel.sink instanceof Closeable) {
+                try {
+                    ((Closeable) channel.sink).close();
+                }catch (IOException ex){
+                    failure = ex;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("OutputPipeline:");
+        for (Channel channel : channels) {
+            text.append(System.lineSeparator()).append("  ").append(channel);
+        }
+        return text.toString();
+    }
+
+    /**
+     * The queue and the thread of a sink
+     */
+    private static final class Channel implements Runnable {
+        final String name;
+        final Class<? extends SensorUpdate> type;
+        final SensorSink sink;
+        final BlockingQueue<SensorUpdate> queue;
+        final int batchSize;
+        final OverflowPolicy policy;
+        final Thread thread;
+        final AtomicLong offered = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        volatile long delivered;
+        volatile long batches;
+        //Set by close, the thread stops once the queue is empty; a flag rather than a queued marker, which DROP_OLDEST could discard
+        volatile boolean stopping;
+
+        Channel(String name, Class<? extends SensorUpdate> type, SensorSink sink, int capacity, int batchSize, OverflowPolicy policy) {
+            this.name = name;
+            this.type = type;
+            this.sink = sink;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.batchSize = batchSize;
+            this.policy = policy;
+            this.thread = new Thread(this, "output-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        void offer(SensorUpdate event) {
+            offered.incrementAndGet();
+            if (stopping) {
+                //Nothing would take it once the thread stops
+                dropped.incrementAndGet();
+                return;
+            }
+            if (queue.offer(event)) {
+                return;
+            }
+            switch (policy) {
+                case BLOCK:
+                    try {
+                        //Wait while the thread takes events, it stops when the pipeline is closed or interrupted
+                        while (!queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                            if (!thread.isAlive()) {
+                                dropped.incrementAndGet();
+                                break;
+                            }
+                        }
+                    }catch (InterruptedException ex){
+                        Thread.currentThread().interrupt();
+                        dropped.incrementAndGet();
+                    }
+                    break;
+                case DROP_OLDEST:
+                    //Another thread may fill the queue again in between, then the new event is dropped instead
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                    if (!queue.offer(event)) {
+                        dropped.incrementAndGet();
+                    }
+                    break;
+                default:
+                    dropped.incrementAndGet();
+            }
+        }
+
+        /**
+         * Wait until a number of offered events were delivered, dropped or lost by a failure of the sink
+         */
+        void await(long offeredEvents) throws IOException {
+            while (delivered + dropped.get() + failed.get() < offeredEvents) {
+                if (!thread.isAlive()) {
+                    throw new IOException("The thread of the sink " + name + " stopped");
+                }
+                try {
+                    Thread.sleep(1);
+                }catch (InterruptedException ex){
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing the sink " + name);
+                }
+            }
+        }
+
+        void stop() {
+            stopping = true;
+        }
+
+        /**
+         * Drop the events left in the queue once the thread stopped, offered while it was stopping
+         */
+        void dropQueued() {
+            while (queue.poll() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void run() {
+            SensorUpdate[] batch = new SensorUpdate[batchSize];
+            List<SensorUpdate> drained = new ArrayList<>(batchSize);
+            while (true) {
+                //Read the flag before polling, so the events offered before stop are all delivered
+                boolean last = stopping;
+                try {
+                    SensorUpdate first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (last) {
+                            break;
+                        }
+                        continue;
+                    }
+                    drained.add(first);
+                    queue.drainTo(drained, batchSize - 1);
+                }catch (InterruptedException ex){
+                    break;
+                }
+                int length = 0;
+                for (SensorUpdate event : drained) {
+                    batch[length++] = event;
+                }
+                drained.clear();
+                try {
+                    sink.send(batch, length);
+                    delivered += length;
+                    batches++;
+                }catch (RuntimeException ex){
+                    //A failing sink loses its batch, the pipeline keeps delivering; only the first failure is printed
+                    if (failed.getAndAdd(length) == 0) {
+                        ex.printStackTrace();
+                    }
+                }
+                //Do not keep the events of the batch reachable until the slots are reused
+                Arrays.fill(batch, 0, length, null);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s, %s): %d offered, %d delivered in %d batches, %d dropped, %d failed, %d queued",
+                    name, type.getSimpleName(), policy, offered.get(), delivered, batches, dropped.get(), failed.get(), queue.size());
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package webmedia.cep2019.simplesample.rules;
+
+import com.espertech.esper.common.client.EPCompiled;
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.common.client.util.EPCompiledIOUtil;
+import com.espertech.esper.compiler.client.CompilerArguments;
+import com.espertech.esper.compiler.client.EPCompileException;
+import com.espertech.esper.compiler.client.EPCompilerProvider;
+import com.espertech.esper.runtime.client.EPRuntimeProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.CodeSource;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A persistent cache of compiled EPL rules.
+ * Each rule is stored as a jar (EPCompiledIOUtil) named after a SHA-256 hash of the rule text and of a fingerprint of the
+ * configuration: the serialized common and compiler sections of the configuration, the methods of the event classes, and the
+ * version, location, size and date of the Esper jars. When the hash matches, the rule is read back and deployed without compiling it again.
+ * Misses can be compiled in parallel through compileAll.
+ * The directory is pruned when the cache is created: the rules not used for maxAgeMillis are deleted, then the least recently
+ * used ones until it holds at most maxBytes; a rule read from the cache is touched, so its last modified time is its last use
+ */
+public class CompiledRuleCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+    public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    //A temporary file this old was left by a process that stopped while writing it
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final File directory;
+    private final CompilerArguments compilerArguments;
+    private final String configurationFingerprint;
+    private final int threads;
+
+    //Rules already compiled or read by this process, by key
+    private final Map<String, EPCompiled> compiled = new ConcurrentHashMap<>();
+    //Rules resolved by this process, in the order they were requested
+    private final Map<String, RuleTiming> timings = new ConcurrentHashMap<>();
+    private final AtomicInteger order = new AtomicInteger();
+
+    /**
+     * @param directory where the compiled rules are stored, null to only keep them in memory
+     * @param configuration the configuration used to compile the rules
+     * @param threads the number of threads used by compileAll
+     */
+    public CompiledRuleCache(File directory, Configuration configuration, int threads) {
+        this(directory, configuration, threads, DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * @param directory where the compiled rules are stored, null to only keep them in memory
+     * @param configuration the configuration used to compile the rules
+     * @param threads the number of threads used by compileAll
+     * @param maxBytes the largest size of the stored rules
+     * @param maxAgeMillis how long a stored rule is kept since it was last used
+     */
+    public CompiledRuleCache(File directory, Configuration configuration, int threads, long maxBytes, long maxAgeMillis) {
+        this.directory = directory;
+        this.compilerArguments = new CompilerArguments(configuration);
+        this.configurationFingerprint = fingerprint(configuration);
+        this.threads = threads;
+        if (directory != null) {
+            directory.mkdirs();
+            int deleted = prune(directory, maxBytes, maxAgeMillis, System.currentTimeMillis());
+            if (deleted > 0) {
+                System.out.println("Rule cache: " + deleted + " old files deleted from " + directory);
+            }
+        }
+    }
+
+    /**
+     * Get a compiled rule from the cache, compiling it when it is not there
+     * @param label a label for the rule, it is added as the @name of the statement
+     * @param epl the EPL rule
+     * @return the compiled rule
+     */
+    public EPCompiled compile(String label, String epl) throws EPCompileException {
+        String text = "@name('" + label + "') " + epl;
+        String key = hash(configurationFingerprint + "\n" + text);
+        EPCompiled result = compiled.get(key);
+        if (result != null) {
+            return result;
+        }
+
+        long start = System.nanoTime();
+        boolean hit = false;
+        File file = directory == null ? null : new File(directory, key + ".jar");
+        if (file != null && file.exists()) {
+            try {
+                result = EPCompiledIOUtil.read(file);
+                hit = true;
+                //Record the use, the least recently used rules are pruned first
+                file.setLastModified(System.currentTimeMillis());
+            }catch (IOException ex){
+                //A damaged or incompatible file is replaced below
+                result = null;
+            }
+        }
+        if (result == null) {
+            result = EPCompilerProvider.getCompiler().compile(text, compilerArguments);
+            if (file != null) {
+                store(result, file);
+            }
+        }
+        compiled.put(key, result);
+        timings.put(label, new RuleTiming(order.getAndIncrement(), label, hit, System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * Resolve several rules, the rules that are not in the cache are compiled in parallel
+     * @param rules the EPL rules by label
+     * @return the compiled rules by label, in the order of the given map
+     */
+    public Map<String, EPCompiled> compileAll(Map<String, String> rules) throws EPCompileException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, Future<EPCompiled>> futures = new LinkedHashMap<>();
+            for (Map.Entry<String, String> rule : rules.entrySet()) {
+                futures.put(rule.getKey(), executor.submit(() -> compile(rule.getKey(), rule.getValue())));
+            }
+            Map<String, EPCompiled> result = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<EPCompiled>> future : futures.entrySet()) {
+                result.put(future.getKey(), future.getValue().get());
+            }
+            return result;
+        }catch (ExecutionException ex){
+            if (ex.getCause() instanceof EPCompileException) {
+                throw (EPCompileException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void store(EPCompiled result, File file) {
+        try {
+            //Write to a temporary file first, so a concurrent reader never sees a partial jar
+            File temp = File.createTempFile("rule", ".tmp", file.getParentFile());
+            EPCompiledIOUtil.write(result, temp);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Delete the stored rules not used for maxAgeMillis, then the least recently used ones until the rules take at most maxBytes,
+     * and the temporary files left by a process that stopped while writing a rule
+     * @return the number of files deleted
+     */
+    static int prune(File directory, long maxBytes, long maxAgeMillis, long now) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int deleted = 0;
+        List<File> rules = new ArrayList<>();
+        //Read once, so the order does not change while sorting
+        Map<File, Long> lastUse = new HashMap<>();
+        for (File file : files) {
+            long age = now - file.lastModified();
+            if (file.getName().endsWith(".tmp")) {
+                if (age > STALE_TEMP_MILLIS && file.delete()) {
+                    deleted++;
+                }
+            }else if (file.getName().endsWith(".jar")) {
+                if (age > maxAgeMillis) {
+                    if (file.delete()) {
+                        deleted++;
+                    }
+                }else {
+                    rules.add(file);
+                    lastUse.put(file, file.lastModified());
+                }
+            }
+        }
+        //The most recently used first, the rules after the size limit are deleted
+        rules.sort((a, b) -> Long.compare(lastUse.get(b), lastUse.get(a)));
+        long bytes = 0;
+        for (File file : rules) {
+            bytes += file.length();
+            if (bytes > maxBytes && file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    public int getHits() {
+        int hits = 0;
+        for (RuleTiming timing : timings.values()) {
+            if (timing.hit) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    public int getMisses() {
+        return timings.size() - getHits();
+    }
+
+    /**
+     * @return the hit rate and the time spent on each rule (reading it on a hit, compiling it on a miss)
+     */
+    public String report() {
+        List<RuleTiming> sorted = new ArrayList<>(timings.values());
+        sorted.sort((a, b) -> Integer.compare(a.order, b.order));
+        int hits = getHits();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Rule cache: %d rules, %d hits, %d misses (hit rate %.0f%%)%n",
+                sorted.size(), hits, sorted.size() - hits, sorted.isEmpty() ? 0.0 : hits * 100.0 / sorted.size()));
+        for (RuleTiming timing : sorted) {
+            report.append(String.format("  %-30s %-8s %6d ms%n", timing.label, timing.hit ? "cached" : "compiled",
+                    TimeUnit.NANOSECONDS.toMillis(timing.nanos)));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Describe everything in the configuration that changes the compiled code
+     */
+    static String fingerprint(Configuration configuration) {
+        StringBuilder fingerprint = new StringBuilder();
+        //Compiled rules only run on the Esper version that compiled them. The jars may have no version in their manifest,
+        //e.g. in a jar with dependencies, so their size and date are added too
+        for (Class<?> esperClass : new Class<?>[]{EPCompiled.class, EPCompilerProvider.class, EPRuntimeProvider.class}) {
+            fingerprint.append(esperClass.getPackage() == null ? null : esperClass.getPackage().getImplementationVersion());
+            CodeSource source = esperClass.getProtectionDomain().getCodeSource();
+            if (source != null && source.getLocation() != null) {
+                fingerprint.append(' ').append(source.getLocation());
+                try {
+                    File jar = new File(source.getLocation().toURI());
+                    if (jar.isFile()) {
+                        fingerprint.append(' ').append(jar.length()).append(' ').append(jar.lastModified());
+                    }
+                }catch (URISyntaxException | IllegalArgumentException ex){
+                    //Not a file, the location is enough
+                }
+            }
+            fingerprint.append('\n');
+        }
+        //The event types and their properties, so changing an event class also changes the key
+        for (Map.Entry<String, String> type : new TreeMap<>(configuration.getCommon().getEventTypeNames()).entrySet()) {
+            fingerprint.append(type.getKey()).append('=').append(type.getValue());
+            try {
+                List<String> methods = new ArrayList<>();
+                for (Method method : Class.forName(type.getValue()).getMethods()) {
+                    methods.add(method.toGenericString());
+                }
+                methods.sort(null);
+                fingerprint.append(methods);
+            }catch (ClassNotFoundException ex){
+                fingerprint.append("?");
+            }
+            fingerprint.append('\n');
+        }
+        //The object-array types, their property maps keep the order of the properties
+        Map<String, Map<String, Object>> objectArrayTypes = configuration.getCommon().getEventTypesNestableObjectArrayEvents();
+        if (objectArrayTypes != null) {
+            for (Map.Entry<String, Map<String, Object>> type : new TreeMap<>(objectArrayTypes).entrySet()) {
+                fingerprint.append(type.getKey()).append('=').append(type.getValue()).append('\n');
+            }
+        }
+        List<String> imports = new ArrayList<>(configuration.getCommon().getImports());
+        imports.sort(null);
+        fingerprint.append(imports);
+        //Statements compiled without subscriber support reject a subscriber object
+        fingerprint.append("\nallowSubscriber=").append(configuration.getCompiler().getByteCode().isAllowSubscriber());
+        //Every other setting of the common and compiler sections; the runtime section does not change the compiled code
+        fingerprint.append("\nconfiguration=").append(serializedHash(configuration));
+        return fingerprint.toString();
+    }
+
+    /**
+     * @return a hash of the serialized common and compiler sections of the configuration, "?" if they can not be serialized
+     */
+    private static String serializedHash(Configuration configuration) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(configuration.getCommon());
+            output.writeObject(configuration.getCompiler());
+        }catch (IOException ex){
+            System.out.println("Rule cache: the configuration can not be serialized, only the event types and imports are in the key: " + ex);
+            return "?";
+        }
+        return hash(bytes.toByteArray());
+    }
+
+    private static String hash(String text) {
+        return hash(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }catch (NoSuchAlgorithmException ex){
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * How a rule was resolved and how long it took
+     */
+    private static final class RuleTiming {
+        final int order;
+        final String label;
+        final boolean hit;
+        final long nanos;
+
+        RuleTiming(int order, String label, boolean hit, long nanos) {
+            this.order = order;
+            this.label = label;
+            this.hit = hit;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package webmedia.cep2019.simplesample.rules;
+
+import com.espertech.esper.common.client.EPCompiled;
+import com.espertech.esper.runtime.client.EPDeployException;
+import com.espertech.esper.runtime.client.EPDeployment;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.EPUndeployException;
+import com.espertech.esper.runtime.client.UpdateListener;
+import webmedia.cep2019.simplesample.metrics.LongHistogram;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Deploys, replaces and undeploys rules while events are flowing.
+ * A new version of a rule is compiled on a background thread, the threads sending events are not affected.
+ * Then, holding the runtime-wide write lock, the new version is deployed next to the old one, the listeners of the old
+ * statements are moved to the new statements with the same names and the old version is undeployed; senders wait only
+ * for this swap, never for the compiler, and never see both versions or neither. The time the lock is held is recorded
+ */
+public class RuleManager implements RuleManagerMBean, Closeable {
+
+    private final EPRuntime runtime;
+    private final CompiledRuleCache ruleCache;
+    private final ExecutorService compiler;
+    private final Map<String, ManagedRule> rules = new ConcurrentHashMap<>();
+    private final LongHistogram pauseNanos = new LongHistogram();
+
+    /**
+     * @param runtime the runtime of the rules
+     * @param ruleCache compiles the rules, or reads them when they were compiled before
+     * @param threads the number of background compiler threads
+     */
+    public RuleManager(EPRuntime runtime, CompiledRuleCache ruleCache, int threads) {
+        this.runtime = runtime;
+        this.ruleCache = ruleCache;
+        this.compiler = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "rule-compiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Manage a rule that is already deployed, so it can be replaced later
+     * @param label the label of the rule
+     * @param epl the EPL of the rule
+     * @param deploymentId the deployment of the rule
+     */
+    public void adopt(String label, String epl, String deploymentId) {
+        rules.put(label, new ManagedRule(label, epl, deploymentId, 0));
+    }
+
+    /**
+     * Deploy a rule, or replace it if a rule with the same label is deployed.
+     * The rule is compiled in the background
+     * @param label the label of the rule, it is the @name of its first statement
+     * @param epl the EPL of the rule
+     * @return the deployment id of the new version, when it is deployed, or of a newer one; null when the rule was undeployed
+     * while it compiled
+     */
+    public Future<String> deploy(String label, String epl) {
+        long version = nextVersion(label);
+        return compiler.submit(() -> swap(label, epl, ruleCache.compile(label, epl), version));
+    }
+
+    /**
+     * Undeploy a rule, holding the runtime-wide write lock.
+     * The versions requested before are not deployed when their compilation ends: the rule is replaced by a placeholder
+     * numbered as the last of them, the versions requested after it are deployed as usual
+     * @param label the label of the rule
+     */
+    public synchronized void undeploy(String label) throws EPUndeployException {
+        ManagedRule rule = rules.get(label);
+        if (rule == null) {
+            return;
+        }
+        if (rule.deploymentId != null) {
+            Lock lock = runtime.getRuntimeInstanceWideLock().writeLock();
+            lock.lock();
+            try {
+                runtime.getDeploymentService().undeploy(rule.deploymentId);
+            }finally {
+                lock.unlock();
+            }
+        }
+        rules.put(label, new ManagedRule(label, null, null, rule.requested));
+    }
+
+    /**
+     * Number a new version of a rule. A new label gets a placeholder without deployment, so the versions of concurrent
+     * deploys of a new rule are numbered apart too and only the last one requested is kept
+     */
+    private synchronized long nextVersion(String label) {
+        ManagedRule rule = rules.get(label);
+        if (rule == null) {
+            rule = new ManagedRule(label, null, null, 0);
+            rules.put(label, rule);
+        }
+        rule.requested++;
+        return rule.requested;
+    }
+
+    /**
+     * Swap the current version of a rule with a compiled one, the swaps are serialized
+     */
+    private synchronized String swap(String label, String epl, EPCompiled compiled, long version) throws EPDeployException, EPUndeployException {
+        ManagedRule current = rules.get(label);
+        if (current != null && current.version >= version) {
+            //A newer version was swapped in while this one was compiling
+            return current.deploymentId;
+        }
+        Lock lock = runtime.getRuntimeInstanceWideLock().writeLock();
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            EPDeployment deployment = runtime.getDeploymentService().deploy(compiled);
+            if (current != null && current.deploymentId != null) {
+                List<EPStatement[]> moved = moveListeners(current.deploymentId, deployment);
+                try {
+                    runtime.getDeploymentService().undeploy(current.deploymentId);
+                }catch (EPUndeployException ex){
+                    //Another deployment depends on the old version: put everything back as it was
+                    for (EPStatement[] pair : moved) {
+                        moveListeners(pair[1], pair[0]);
+                    }
+                    runtime.getDeploymentService().undeploy(deployment.getDeploymentId());
+                    throw ex;
+                }
+            }
+            ManagedRule rule = new ManagedRule(label, epl, deployment.getDeploymentId(), version);
+            rule.requested = Math.max(version, current == null ? 0 : current.requested);
+            rules.put(label, rule);
+            return deployment.getDeploymentId();
+        }finally {
+            lock.unlock();
+            pauseNanos.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Move the listeners of each statement of a deployment to the statement with the same name of another deployment
+     * @return the pairs of statements (old, new) whose listeners were moved
+     */
+    private List<EPStatement[]> moveListeners(String fromDeploymentId, EPDeployment to) {
+        List<EPStatement[]> moved = new ArrayList<>();
+        for (EPStatement target : to.getStatements()) {
+            EPStatement source = runtime.getDeploymentService().getStatement(fromDeploymentId, target.getName());
+            if (source != null) {
+                moveListeners(source, target);
+                moved.add(new EPStatement[]{source, target});
+            }
+        }
+        return moved;
+    }
+
+    private static void moveListeners(EPStatement source, EPStatement target) {
+        List<UpdateListener> listeners = new ArrayList<>();
+        for (Iterator<UpdateListener> it = source.getUpdateListeners(); it.hasNext(); ) {
+            listeners.add(it.next());
+        }
+        for (UpdateListener listener : listeners) {
+            target.addListener(listener);
+            source.removeListener(listener);
+        }
+    }
+
+    /**
+     * @param label the label of a rule
+     * @return the deployment id of its current version, null if it is not managed
+     */
+    public String getDeploymentId(String label) {
+        ManagedRule rule = rules.get(label);
+        return rule == null ? null : rule.deploymentId;
+    }
+
+    /**
+     * @param label the label of a rule
+     * @param statementName the name of a statement of the rule
+     * @return the statement of the current version
+     */
+    public EPStatement getStatement(String label, String statementName) {
+        String deploymentId = getDeploymentId(label);
+        return deploymentId == null ? null : runtime.getDeploymentService().getStatement(deploymentId, statementName);
+    }
+
+    /**
+     * @return the time the runtime-wide lock was held by each swap, in nanoseconds
+     */
+    public LongHistogram getPauseNanos() {
+        return pauseNanos;
+    }
+
+    @Override
+    public String replaceRule(String label, String epl) throws Exception {
+        try {
+            return deploy(label, epl).get();
+        }catch (ExecutionException ex){
+            throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+        }
+    }
+
+    @Override
+    public String[] getRuleLabels() {
+        List<String> labels = new ArrayList<>();
+        for (ManagedRule rule : rules.values()) {
+            if (rule.deploymentId != null) {
+                labels.add(rule.label);
+            }
+        }
+        return labels.toArray(new String[0]);
+    }
+
+    @Override
+    public String getRuleEpl(String label) {
+        ManagedRule rule = rules.get(label);
+        return rule == null ? null : rule.epl;
+    }
+
+    @Override
+    public long getSwaps() {
+        return pauseNanos.getCount();
+    }
+
+    @Override
+    public long getPauseP50Micros() {
+        return pauseNanos.getPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getPauseP99Micros() {
+        return pauseNanos.getPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getPauseMaxMicros() {
+        return pauseNanos.getMax() / 1000;
+    }
+
+    /**
+     * Stop the compiler threads, the rules stay deployed
+     */
+    @Override
+    public void close() {
+        compiler.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RuleManager: %d rules, %d swaps, pause p50 %d us, p99 %d us, max %d us",
+                getRuleLabels().length, getSwaps(), getPauseP50Micros(), getPauseP99Micros(), getPauseMaxMicros());
+    }
+
+    /**
+     * The current version of a rule, a placeholder without epl nor deployment while the first version compiles
+     * or after the rule was undeployed
+     */
+    private static final class ManagedRule {
+        final String label;
+        final String epl;
+        final String deploymentId;
+        final long version;
+        //The last version requested, may be newer than the deployed one while it compiles
+        long requested;
+
+        ManagedRule(String label, String epl, String deploymentId, long version) {
+            this.label = label;
+            this.epl = epl;
+            this.deploymentId = deploymentId;
+            this.version = version;
+            this.requested = version;
+        }
+    }
+}
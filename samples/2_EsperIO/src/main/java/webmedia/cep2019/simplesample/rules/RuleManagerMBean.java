@@ -0,0 +1,27 @@
+package webmedia.cep2019.simplesample.rules;
+
+/**
+ * The JMX view of a RuleManager: replace a rule at runtime and watch the pauses, times are in microseconds
+ */
+public interface RuleManagerMBean {
+
+    /**
+     * Compile a new version of a rule and swap it with the current one, waiting until it is done
+     * @param label the label of the rule
+     * @param epl the new EPL of the rule
+     * @return the deployment id of the new version
+     */
+    String replaceRule(String label, String epl) throws Exception;
+
+    String[] getRuleLabels();
+
+    String getRuleEpl(String label);
+
+    long getSwaps();
+
+    long getPauseP50Micros();
+
+    long getPauseP99Micros();
+
+    long getPauseMaxMicros();
+}
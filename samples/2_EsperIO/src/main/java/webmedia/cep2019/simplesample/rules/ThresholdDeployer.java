@@ -0,0 +1,111 @@
+package webmedia.cep2019.simplesample.rules;
+
+import com.espertech.esper.common.client.EPCompiled;
+import com.espertech.esper.compiler.client.EPCompileException;
+import com.espertech.esper.runtime.client.DeploymentOptions;
+import com.espertech.esper.runtime.client.EPDeployException;
+import com.espertech.esper.runtime.client.EPDeployment;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.EPUndeployException;
+import com.espertech.esper.runtime.client.UpdateListener;
+import webmedia.cep2019.simplesample.Rules;
+import webmedia.cep2019.simplesample.ThresholdLayout;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deploys threshold rules from templates (Rules.threshold): there is one template per shape (measure, comparison,
+ * one room or every room), compiled once, and each rule is a deployment of its template with its own values.
+ * So thousands of rules cost a few compilations, and with the FILTER layout the runtime evaluates them through
+ * shared filter indexes instead of one statement at a time. The statement of a rule is named threshold-id
+ */
+public class ThresholdDeployer {
+
+    private final EPRuntime runtime;
+    private final CompiledRuleCache ruleCache;
+    private final ThresholdLayout layout;
+    private final Map<String, String> deployments = new ConcurrentHashMap<>();
+    private long deployNanos;
+
+    /**
+     * @param runtime the runtime of the rules
+     * @param ruleCache compiles the templates, or reads them when they were compiled before
+     * @param layout where the conditions of the rules are written
+     */
+    public ThresholdDeployer(EPRuntime runtime, CompiledRuleCache ruleCache, ThresholdLayout layout) {
+        this.runtime = runtime;
+        this.ruleCache = ruleCache;
+        this.layout = layout;
+    }
+
+    /**
+     * Deploy a rule, replacing the rule with the same id if there is one
+     * @param rule the rule
+     * @return the statement of the rule
+     */
+    public EPStatement deploy(ThresholdRule rule) throws EPCompileException, EPDeployException, EPUndeployException {
+        long start = System.nanoTime();
+        String epl = Rules.threshold(rule.getMeasure(), rule.getComparison(), rule.getRoomId() != null, layout);
+        EPCompiled compiled = ruleCache.compile("threshold", epl);
+
+        DeploymentOptions options = new DeploymentOptions();
+        options.setStatementSubstitutionParameter(context -> {
+            context.setObject("ruleId", rule.getId());
+            context.setObject("threshold", rule.getThreshold());
+            if (rule.getRoomId() != null) {
+                context.setObject("roomId", rule.getRoomId());
+            }
+        });
+        options.setStatementNameRuntime(context -> "threshold-" + rule.getId());
+        EPDeployment deployment = runtime.getDeploymentService().deploy(compiled, options);
+
+        String previous = deployments.put(rule.getId(), deployment.getDeploymentId());
+        if (previous != null) {
+            runtime.getDeploymentService().undeploy(previous);
+        }
+        deployNanos += System.nanoTime() - start;
+        return deployment.getStatements()[0];
+    }
+
+    /**
+     * Deploy rules
+     * @param rules the rules
+     * @param listener added to the statement of each rule, may be null
+     * @return the number of rules deployed
+     */
+    public int deployAll(Collection<ThresholdRule> rules, UpdateListener listener) throws EPCompileException, EPDeployException, EPUndeployException {
+        for (ThresholdRule rule : rules) {
+            EPStatement statement = deploy(rule);
+            if (listener != null) {
+                statement.addListener(listener);
+            }
+        }
+        return rules.size();
+    }
+
+    /**
+     * Undeploy a rule
+     * @param id the id of the rule
+     */
+    public void undeploy(String id) throws EPUndeployException {
+        String deploymentId = deployments.remove(id);
+        if (deploymentId != null) {
+            runtime.getDeploymentService().undeploy(deploymentId);
+        }
+    }
+
+    /**
+     * @return the number of rules deployed
+     */
+    public int size() {
+        return deployments.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ThresholdDeployer(%s): %d rules, deployed in %d ms", layout, deployments.size(), deployNanos / 1000000);
+    }
+}
@@ -0,0 +1,107 @@
+package webmedia.cep2019.simplesample.rules;
+
+/**
+ * A threshold on a measure of the SensorUpdate events of one room or of every room, e.g.: temperature above 35 in room 12
+ */
+public class ThresholdRule {
+
+    /**
+     * The measure compared with the threshold
+     */
+    public enum Measure {
+        TEMPERATURE("temperature"),
+        HUMIDITY("humidity");
+
+        private final String property;
+
+        Measure(String property) {
+            this.property = property;
+        }
+
+        public String getProperty() {
+            return property;
+        }
+    }
+
+    /**
+     * How the measure is compared with the threshold
+     */
+    public enum Comparison {
+        ABOVE(">"),
+        BELOW("<");
+
+        private final String operator;
+
+        Comparison(String operator) {
+            this.operator = operator;
+        }
+
+        public String getOperator() {
+            return operator;
+        }
+    }
+
+    private final String id;
+    private final Integer roomId;
+    private final Measure measure;
+    private final Comparison comparison;
+    private final double threshold;
+
+    /**
+     * @param id the id of the rule, it names the statement of the rule
+     * @param roomId the room of the rule, null for every room
+     * @param measure the measure
+     * @param comparison how the measure is compared with the threshold
+     * @param threshold the threshold
+     */
+    public ThresholdRule(String id, Integer roomId, Measure measure, Comparison comparison, double threshold) {
+        this.id = id;
+        this.roomId = roomId;
+        this.measure = measure;
+        this.comparison = comparison;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Parse a "id,roomId,measure,comparison,threshold" line, e.g.: "r1,12,temperature,above,35" or "r2,*,humidity,below,0.35"
+     * @param line the line
+     * @return the rule
+     */
+    public static ThresholdRule parse(String line) {
+        String[] fields = line.split(",");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("Expected id,roomId,measure,comparison,threshold: " + line);
+        }
+        String room = fields[1].trim();
+        return new ThresholdRule(fields[0].trim(),
+                room.equals("*") ? null : Integer.valueOf(room),
+                Measure.valueOf(fields[2].trim().toUpperCase()),
+                Comparison.valueOf(fields[3].trim().toUpperCase()),
+                Double.parseDouble(fields[4].trim()));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Integer getRoomId() {
+        return roomId;
+    }
+
+    public Measure getMeasure() {
+        return measure;
+    }
+
+    public Comparison getComparison() {
+        return comparison;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public String toString() {
+        return id + ": " + measure.getProperty() + " " + comparison.getOperator() + " " + threshold + (roomId == null ? "" : " in room " + roomId);
+    }
+}
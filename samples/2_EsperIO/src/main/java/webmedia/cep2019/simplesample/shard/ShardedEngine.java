@@ -0,0 +1,261 @@
+package webmedia.cep2019.simplesample.shard;
+
+import com.espertech.esper.common.client.EPCompiled;
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.runtime.client.EPDeployException;
+import com.espertech.esper.runtime.client.EPDeployment;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPRuntimeProvider;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.UpdateListener;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.RoomPartitioner;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits the processing of SensorUpdate events among several runtimes, each one with its own thread.
+ * Every runtime gets the same rules and the events are routed by a hash of their roomId, so all the events of a room
+ * are processed by the same runtime, in the order they were sent. Rules that relate events of different rooms
+ * do not see every event and must not be deployed on a sharded engine.
+ * Listeners added through addListener receive the output of every shard as a single stream: calls are serialized,
+ * but the order of the events of different rooms is not defined.
+ * An event the runtime fails to process is counted as failed and the shard continues with the next one; an event a sender
+ * could not hand over because it was interrupted is counted as dropped
+ */
+public class ShardedEngine implements SensorSink, Closeable {
+
+    //Marks the end of a shard queue, it is compared by reference
+    private static final SensorUpdate END = new SensorUpdate();
+
+    private final EPRuntime[] runtimes;
+    private final Shard[] shards;
+
+    /**
+     * @param name a prefix for the runtime URIs
+     * @param configuration the configuration of every runtime
+     * @param shardCount the number of runtimes
+     * @param queueCapacity the number of events waiting on each shard, senders block when it is reached
+     */
+    public ShardedEngine(String name, Configuration configuration, int shardCount, int queueCapacity) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        runtimes = new EPRuntime[shardCount];
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            runtimes[i] = EPRuntimeProvider.getRuntime(name + "-" + i, configuration);
+            shards[i] = new Shard(name + "-shard-" + i, runtimes[i], queueCapacity);
+            shards[i].start();
+        }
+    }
+
+    /**
+     * Deploy a compiled rule to every shard
+     * @param compiled the compiled rule, it is compiled once and deployed many times
+     * @return the deployment of each shard
+     */
+    public EPDeployment[] deploy(EPCompiled compiled) throws EPDeployException {
+        EPDeployment[] deployments = new EPDeployment[runtimes.length];
+        for (int i = 0; i < runtimes.length; i++) {
+            deployments[i] = runtimes[i].getDeploymentService().deploy(compiled);
+        }
+        return deployments;
+    }
+
+    /**
+     * Add a listener to the statements of a deployment on every shard
+     * @param deployments the deployments returned by deploy
+     * @param statementName the name of the statement
+     * @param listener the listener, it receives the output of all shards one call at a time
+     */
+    public void addListener(EPDeployment[] deployments, String statementName, UpdateListener listener) {
+        UpdateListener merged = new MergedListener(listener);
+        for (int i = 0; i < runtimes.length; i++) {
+            EPStatement statement = runtimes[i].getDeploymentService().getStatement(deployments[i].getDeploymentId(), statementName);
+            statement.addListener(merged);
+        }
+    }
+
+    /**
+     * Send an event to the shard of its room.
+     * The event type is the simple name of its class (e.g.: SensorUpdate, HighTemperature or LowHumidity)
+     * @param event the event
+     */
+    public void send(SensorUpdate event) {
+        shards[shardOf(event.getRoomId())].put(event);
+    }
+
+    @Override
+    public void send(SensorUpdate[] batch, int length) {
+        for (int i = 0; i < length; i++) {
+            send(batch[i]);
+        }
+    }
+
+    /**
+     * @param roomId the room
+     * @return the index of the shard that processes the events of the room
+     */
+    public int shardOf(int roomId) {
+        return RoomPartitioner.partition(roomId, shards.length);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public EPRuntime getRuntime(int shard) {
+        return runtimes[shard];
+    }
+
+    /**
+     * @return the number of events processed by each shard
+     */
+    public long[] getProcessedEvents() {
+        long[] processed = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            processed[i] = shards[i].processed.get();
+        }
+        return processed;
+    }
+
+    /**
+     * @return the number of events of each shard not handed over because the sender was interrupted
+     */
+    public long[] getDroppedEvents() {
+        long[] dropped = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            dropped[i] = shards[i].dropped.get();
+        }
+        return dropped;
+    }
+
+    /**
+     * @return the number of events of each shard whose processing threw an exception
+     */
+    public long[] getFailedEvents() {
+        long[] failed = new long[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            failed[i] = shards[i].failed.get();
+        }
+        return failed;
+    }
+
+    /**
+     * @return the number of events waiting on each shard
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            depths[i] = shards[i].queue.size();
+        }
+        return depths;
+    }
+
+    /**
+     * Process every event already sent, stop the shard threads and destroy the runtimes
+     */
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            if (shard.isAlive()) {
+                shard.put(END);
+            }
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.join();
+            }catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (EPRuntime runtime : runtimes) {
+            runtime.destroy();
+        }
+    }
+
+    /**
+     * The thread that sends the events of a shard to its runtime
+     */
+    private static final class Shard extends Thread {
+        final EPRuntime runtime;
+        final BlockingQueue<SensorUpdate> queue;
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+
+        Shard(String name, EPRuntime runtime, int queueCapacity) {
+            super(name);
+            this.runtime = runtime;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        /**
+         * Queue an event, waiting while the queue is full unless the shard thread stopped
+         */
+        void put(SensorUpdate event) {
+            try {
+                while (!queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                    if (!isAlive()) {
+                        throw new IllegalStateException("The thread of " + getName() + " stopped");
+                    }
+                }
+            }catch (InterruptedException ex){
+                dropped.incrementAndGet();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            List<SensorUpdate> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    for (SensorUpdate event : batch) {
+                        if (event == END) {
+                            return;
+                        }
+                        try {
+                            runtime.getEventService().sendEventBean(event, event.getClass().getSimpleName());
+                            processed.incrementAndGet();
+                        }catch (RuntimeException ex){
+                            //Print the first failure only, the others are counted
+                            if (failed.getAndIncrement() == 0) {
+                                ex.printStackTrace();
+                            }
+                        }
+                    }
+                    batch.clear();
+                }
+            }catch (InterruptedException ex){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Serializes the calls made by the shard threads, so the listener sees a single stream
+     */
+    private static final class MergedListener implements UpdateListener {
+        private final UpdateListener listener;
+
+        MergedListener(UpdateListener listener) {
+            this.listener = listener;
+        }
+
+        public synchronized void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+            listener.update(newData, oldData, epStatement, epRuntime);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package webmedia.cep2019.simplesample.shard;
+
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.runtime.client.EPDeployment;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.UpdateListener;
+import org.apache.log4j.varia.NullAppender;
+import webmedia.cep2019.simplesample.Rules;
+import webmedia.cep2019.simplesample.event.HighTemperature;
+import webmedia.cep2019.simplesample.event.LowHumidity;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.IngestStats;
+import webmedia.cep2019.simplesample.ingest.SequentialCsvSource;
+import webmedia.cep2019.simplesample.output.BufferedFileSink;
+import webmedia.cep2019.simplesample.rules.CompiledRuleCache;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the rules of the SimpleSample on a ShardedEngine.
+ * The input file is given as the first argument (default: input.csv) and the number of shards
+ * by the system property simplesample.shards (default: the number of processors)
+ */
+public class ShardedSample {
+
+    public static void main(String[] args) throws Exception {
+        //This just remove the Warnings
+        org.apache.log4j.BasicConfigurator.configure(new NullAppender());
+        String currentDir = System.getProperty("user.dir");
+        File inputFile = new File(args.length > 0 ? args[0] : "input.csv");
+        int shards = Integer.getInteger("simplesample.shards", Runtime.getRuntime().availableProcessors());
+
+        //The same configuration of the SimpleSample
+        Configuration configuration = new Configuration();
+        configuration.getCommon().addEventType(SensorUpdate.class);
+        configuration.getCommon().addEventType(LowHumidity.class);
+        configuration.getCommon().addEventType(HighTemperature.class);
+
+        //The rules are compiled once and deployed to every shard
+        CompiledRuleCache ruleCache = new CompiledRuleCache(new File(currentDir, ".eplcache"), configuration, shards);
+        ShardedEngine engine = new ShardedEngine("sharded-sample", configuration, shards, 8192);
+
+        //Counts the SensorUpdate events instead of printing them, there may be millions
+        AtomicLong selected = new AtomicLong();
+        EPDeployment[] select = engine.deploy(ruleCache.compile("select-SensorUpdate", Rules.SELECT_SENSOR_UPDATE));
+        engine.addListener(select, "select-SensorUpdate", new UpdateListener() {
+            public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+                selected.addAndGet(newData.length);
+            }
+        });
+        engine.deploy(ruleCache.compile("insert-LowHumidity", Rules.INSERT_LOW_HUMIDITY));
+        engine.deploy(ruleCache.compile("insert-HighTemperature", Rules.INSERT_HIGH_TEMPERATURE));
+
+        //Log the special events of every shard to the same files
+        BufferedFileSink lowHumidity = new BufferedFileSink(new File(currentDir, "LowHumidityLog.csv").toPath());
+        BufferedFileSink highTemperature = new BufferedFileSink(new File(currentDir, "HighTemperatureLog.csv").toPath());
+        engine.addListener(engine.deploy(ruleCache.compile("LowHumidityBufferedOutput", "select * from LowHumidity")),
+                "LowHumidityBufferedOutput", lowHumidity);
+        engine.addListener(engine.deploy(ruleCache.compile("HighTemperatureBufferedOutput", "select * from HighTemperature")),
+                "HighTemperatureBufferedOutput", highTemperature);
+
+        //Read the input in file order, so the readings of each room reach their shard in order, and wait until every shard has processed its events
+        long start = System.nanoTime();
+        IngestStats read = new SequentialCsvSource(inputFile.toPath(), 0, Long.MAX_VALUE, 256, engine, null).run();
+        engine.close();
+        long elapsed = System.nanoTime() - start;
+        lowHumidity.close();
+        highTemperature.close();
+
+        System.out.println(read);
+        System.out.println(new IngestStats("ShardedEngine(" + shards + " shards)", read.getBytes(), read.getEvents(), read.getErrors(), elapsed));
+        System.out.println("Events per shard: " + Arrays.toString(engine.getProcessedEvents())
+                + ", failed: " + Arrays.toString(engine.getFailedEvents()) + ", dropped: " + Arrays.toString(engine.getDroppedEvents()));
+        System.out.println("select-SensorUpdate: " + selected.get() + " events");
+        System.out.println(lowHumidity);
+        System.out.println(highTemperature);
+    }
+}
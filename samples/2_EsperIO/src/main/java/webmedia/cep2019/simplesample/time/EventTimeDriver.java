@@ -0,0 +1,195 @@
+package webmedia.cep2019.simplesample.time;
+
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.runtime.client.EPEventService;
+import com.espertech.esper.runtime.client.EPRuntime;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+
+/**
+ * Drives the clock of a runtime from the timestamps of the events, so a replay runs as fast as the events can be read
+ * and the time windows and timer patterns see the same times they would see live.
+ * Events are held in a buffer ordered by timestamp until the watermark (the largest timestamp seen minus the allowed
+ * lateness) passes them; then the runtime time is advanced to the timestamp of the event, firing every timer on the way,
+ * and the event is sent. An event older than an event already sent is late: it is counted and discarded.
+ * The runtime must use an external clock (see configure) and process the events on the sending thread
+ * (no inbound thread pool), otherwise events and time would not be in order
+ */
+public class EventTimeDriver implements SensorSink, Closeable {
+
+    private final EPEventService eventService;
+    private final long allowedLatenessMillis;
+    private final PriorityQueue<Pending> buffer = new PriorityQueue<>();
+    //The buffered events in arrival order, the released ones are removed from the head
+    private final ArrayDeque<Pending> arrivalOrder = new ArrayDeque<>();
+
+    private long arrivals;
+    private long maxTimestamp = Long.MIN_VALUE;
+    //The timestamp of the last event sent, older events are late
+    private long released = Long.MIN_VALUE;
+    private boolean started;
+    private long sent;
+    private long late;
+    private int maxBuffered;
+
+    /**
+     * Turn off the internal timer of the runtime, must be called before the runtime is created
+     * @param configuration the configuration of the runtime
+     */
+    public static void configure(Configuration configuration) {
+        configuration.getRuntime().getThreading().setInternalTimerEnabled(false);
+    }
+
+    /**
+     * @param runtime the runtime, created with a configuration passed to configure
+     * @param allowedLatenessMillis how long an event may arrive after a later event and still be processed in order
+     */
+    public EventTimeDriver(EPRuntime runtime, long allowedLatenessMillis) {
+        this.eventService = runtime.getEventService();
+        this.allowedLatenessMillis = allowedLatenessMillis;
+    }
+
+    /**
+     * Buffer an event and send every event the watermark has passed
+     * @param event the event
+     * @return false if the event is late and was discarded
+     */
+    public synchronized boolean send(SensorUpdate event) {
+        long timestamp = event.getTimestamp();
+        if (timestamp < released) {
+            late++;
+            return false;
+        }
+        Pending pending = new Pending(event, arrivals++);
+        buffer.add(pending);
+        arrivalOrder.addLast(pending);
+        maxBuffered = Math.max(maxBuffered, buffer.size());
+        if (timestamp > maxTimestamp) {
+            maxTimestamp = timestamp;
+            release(maxTimestamp - allowedLatenessMillis);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void send(SensorUpdate[] batch, int length) {
+        for (int i = 0; i < length; i++) {
+            send(batch[i]);
+        }
+    }
+
+    /**
+     * Send the buffered events up to a watermark, in timestamp order
+     */
+    private void release(long watermark) {
+        while (!buffer.isEmpty() && buffer.peek().event.getTimestamp() <= watermark) {
+            Pending pending = buffer.poll();
+            pending.released = true;
+            SensorUpdate event = pending.event;
+            advanceTo(event.getTimestamp());
+            eventService.sendEventBean(event, "SensorUpdate");
+            released = event.getTimestamp();
+            sent++;
+        }
+        while (!arrivalOrder.isEmpty() && arrivalOrder.peekFirst().released) {
+            arrivalOrder.pollFirst();
+        }
+    }
+
+    private void advanceTo(long time) {
+        if (!started) {
+            //The first time jumps straight to the first event, there are no timers before it
+            eventService.advanceTime(time);
+            started = true;
+        }else if (time > eventService.getCurrentTime()) {
+            //Step through every timer up to the time, in order
+            eventService.advanceTimeSpan(time);
+        }
+    }
+
+    /**
+     * Send every buffered event, as when the input ended
+     */
+    public synchronized void flush() {
+        release(Long.MAX_VALUE);
+    }
+
+    /**
+     * Send every buffered event and advance the time to the largest timestamp seen
+     */
+    @Override
+    public synchronized void close() {
+        flush();
+        if (started && maxTimestamp > eventService.getCurrentTime()) {
+            advanceTo(maxTimestamp);
+        }
+    }
+
+    /**
+     * @return the time of the runtime, every event up to it was sent
+     */
+    public synchronized long getWatermark() {
+        return maxTimestamp == Long.MIN_VALUE ? Long.MIN_VALUE : maxTimestamp - allowedLatenessMillis;
+    }
+
+    /**
+     * @return the number of events buffered so far, the late events are not counted
+     */
+    public synchronized long getArrivals() {
+        return arrivals;
+    }
+
+    /**
+     * @return the arrival number of the oldest arrived event still buffered, getArrivals if none is;
+     * every event that arrived before it was sent to the runtime
+     */
+    public synchronized long getOldestPending() {
+        return arrivalOrder.isEmpty() ? arrivals : arrivalOrder.peekFirst().arrival;
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    public synchronized long getLate() {
+        return late;
+    }
+
+    public synchronized int getBuffered() {
+        return buffer.size();
+    }
+
+    public synchronized int getMaxBuffered() {
+        return maxBuffered;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("EventTimeDriver(lateness %d ms): %d events sent, %d late, %d buffered at most",
+                allowedLatenessMillis, sent, late, maxBuffered);
+    }
+
+    /**
+     * A buffered event, events with the same timestamp are sent in the order they arrived
+     */
+    private static final class Pending implements Comparable<Pending> {
+        final SensorUpdate event;
+        final long arrival;
+        boolean released;
+
+        Pending(SensorUpdate event, long arrival) {
+            this.event = event;
+            this.arrival = arrival;
+        }
+
+        @Override
+        public int compareTo(Pending other) {
+            int byTime = Long.compare(event.getTimestamp(), other.event.getTimestamp());
+            return byTime != 0 ? byTime : Long.compare(arrival, other.arrival);
+        }
+    }
+}
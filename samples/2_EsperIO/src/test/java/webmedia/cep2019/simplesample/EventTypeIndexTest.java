@@ -0,0 +1,57 @@
+package webmedia.cep2019.simplesample;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that an index in a classes directory is ignored once an event class is compiled after it
+ */
+public class EventTypeIndexTest {
+
+    private Path classes;
+    private Path index;
+    private Path eventClass;
+
+    @Before
+    public void createClasses() throws IOException {
+        classes = Files.createTempDirectory("event-type-index");
+        index = classes.resolve(EventTypeIndex.RESOURCE);
+        Files.createDirectories(index.getParent());
+        Files.write(index, new byte[0]);
+        eventClass = classes.resolve(EventTypeIndex.EVENT_PACKAGE.replace('.', '/')).resolve("LowHumidity.class");
+        Files.createDirectories(eventClass.getParent());
+        Files.write(eventClass, new byte[0]);
+    }
+
+    @After
+    public void deleteClasses() throws IOException {
+        try (Stream<Path> files = Files.walk(classes)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void trustsAnIndexWrittenAfterTheClasses() throws IOException {
+        Files.setLastModifiedTime(eventClass, FileTime.fromMillis(1000000));
+        Files.setLastModifiedTime(index, FileTime.fromMillis(2000000));
+        assertFalse(EventTypeIndex.isStale(index.toUri().toURL()));
+    }
+
+    @Test
+    public void ignoresAnIndexOlderThanAClass() throws IOException {
+        Files.setLastModifiedTime(index, FileTime.fromMillis(1000000));
+        Files.setLastModifiedTime(eventClass, FileTime.fromMillis(2000000));
+        assertTrue(EventTypeIndex.isStale(index.toUri().toURL()));
+    }
+}
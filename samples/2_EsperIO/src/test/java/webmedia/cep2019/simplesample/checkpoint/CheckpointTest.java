@@ -0,0 +1,107 @@
+package webmedia.cep2019.simplesample.checkpoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Writes and reads checkpoint files
+ */
+public class CheckpointTest {
+
+    private Path directory;
+    private File file;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("checkpoint");
+        file = directory.resolve("input.checkpoint").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File child : files) {
+                Files.delete(child.toPath());
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        new Checkpoint(0xCAFEBABEL, 123456789012L, 42, 123000000000L, 1568271145976L).write(file);
+        Checkpoint checkpoint = Checkpoint.read(file);
+        assertNotNull(checkpoint);
+        assertEquals(0xCAFEBABEL, checkpoint.getInputIdentity());
+        assertEquals(123456789012L, checkpoint.getOffset());
+        assertEquals(42, checkpoint.getEvents());
+        assertEquals(123000000000L, checkpoint.getWarmupOffset());
+        assertEquals(1568271145976L, checkpoint.getCreatedMillis());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void replacesThePreviousCheckpoint() throws IOException {
+        new Checkpoint(1, 100, 1, 0, 1).write(file);
+        new Checkpoint(1, 200, 2, 100, 2).write(file);
+        assertEquals(200, Checkpoint.read(file).getOffset());
+    }
+
+    @Test
+    public void ignoresAMissingOrDamagedFile() throws IOException {
+        assertNull(Checkpoint.read(file));
+        new Checkpoint(1, 100, 1, 0, 1).write(file);
+        try (RandomAccessFile damaged = new RandomAccessFile(file, "rw")) {
+            damaged.seek(20);
+            damaged.write(0xFF);
+        }
+        assertNull(Checkpoint.read(file));
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        assertNull(Checkpoint.read(file));
+    }
+
+    @Test
+    public void keepsTheRestoredWarmupUntilEnoughEventsFollow() throws IOException {
+        //Restored at offset 1000 after 50 events, 20 of them replayed from offset 400
+        Checkpointer checkpointer = new Checkpointer(file, 1, Long.MAX_VALUE / 1000000, 100, 1000, 50);
+        checkpointer.restored(400, 20);
+        checkpointer.sent(1100, 10);
+        checkpointer.finish();
+        Checkpoint early = Checkpoint.read(file);
+        assertEquals(1100, early.getOffset());
+        assertEquals(60, early.getEvents());
+        assertEquals(400, early.getWarmupOffset());
+
+        checkpointer.sent(2000, 200);
+        checkpointer.finish();
+        Checkpoint later = Checkpoint.read(file);
+        assertEquals(2000, later.getOffset());
+        assertEquals(250, later.getEvents());
+        assertEquals(1100, later.getWarmupOffset());
+    }
+
+    @Test
+    public void identifiesTheInputByItsFirstBytes() throws IOException {
+        Path input = directory.resolve("input.csv");
+        Files.write(input, "21.5,0.45,7,1000\n".getBytes(StandardCharsets.US_ASCII));
+        long identity = Checkpoint.identify(input);
+        assertEquals(identity, Checkpoint.identify(input));
+        Files.write(input, "21.5,0.45,8,1000\n".getBytes(StandardCharsets.US_ASCII));
+        assertNotEquals(identity, Checkpoint.identify(input));
+    }
+}
@@ -0,0 +1,105 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import org.junit.Test;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parses single csv lines, the values must match what Double.parseDouble and Long.parseLong return
+ */
+public class CsvRecordParserTest {
+
+    private final CsvRecordParser parser = new CsvRecordParser();
+
+    @Test
+    public void parsesARecord() {
+        SensorUpdate event = parse("21.5,0.45,7,1568271145976");
+        assertEquals(21.5, event.getTemperature(), 0);
+        assertEquals(0.45, event.getHumidity(), 0);
+        assertEquals(7, event.getRoomId());
+        assertEquals(1568271145976L, event.getTimestamp());
+    }
+
+    @Test
+    public void ignoresACarriageReturn() {
+        SensorUpdate event = parse("21.5,0.45,7,1000\r");
+        assertEquals(1000, event.getTimestamp());
+    }
+
+    @Test
+    public void parsesSignsAndExponents() {
+        SensorUpdate event = parse("-3.25e1,+4.5E-1,-2,-1000");
+        assertEquals(-32.5, event.getTemperature(), 0);
+        assertEquals(0.45, event.getHumidity(), 0);
+        assertEquals(-2, event.getRoomId());
+        assertEquals(-1000, event.getTimestamp());
+    }
+
+    @Test
+    public void roundsLikeParseDouble() {
+        String[] values = {"0.1", "33.333333333333336", "0.30000000000000004", "12345678901234567890.5", "1e300", "4.9e-324", "17.", ".5"};
+        for (String value : values) {
+            SensorUpdate event = parse(value + ",0,1,1");
+            assertEquals(value, Double.parseDouble(value), event.getTemperature(), 0);
+        }
+    }
+
+    @Test
+    public void roundsHalfwayAndLongNumbersLikeParseDouble() {
+        String[] values = {"9007199254740993", "9007199254740995", "2.2250738585072014e-308", "1.7976931348623157e308",
+                "0.1000000000000000055511151231257827", "123456789012345678901234567890", "1e-400", "1e400", "0e50"};
+        for (String value : values) {
+            SensorUpdate event = parse(value + ",0,1,1");
+            assertEquals(value, Double.parseDouble(value), event.getTemperature(), 0);
+        }
+    }
+
+    @Test
+    public void readsTheShortestDoublesWithoutFallingBack() {
+        //Double.toString of sensor values, as in a generated input.csv: up to 17 significant digits
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 100000; i++) {
+            double temperature = -10 + random.nextDouble() * 60;
+            double humidity = random.nextDouble();
+            SensorUpdate event = parse(temperature + "," + humidity + "," + i + ",1568271145976");
+            assertEquals(temperature, event.getTemperature(), 0);
+            assertEquals(humidity, event.getHumidity(), 0);
+        }
+        assertEquals(0, parser.getFallbacks());
+    }
+
+    @Test
+    public void rejectsMalformedLines() {
+        String[] lines = {"", "21.5,0.45,7", "21.5,0.45,7,1000,1", "21.5;0.45;7;1000", "a,0.45,7,1000", "21.5,0.45,7.5,1000",
+                "21.5,0.45,2147483648,1000", "21.5,0.45,7,1e3", "21.5e,0.45,7,1000", "21.5,0.45,,1000", "21.5,0.45,7,1000 "};
+        for (String line : lines) {
+            assertFalse(line, parser.parse(buffer(line), 0, line.length(), new SensorUpdate()));
+        }
+    }
+
+    @Test
+    public void readsALineInsideABuffer() {
+        ByteBuffer buffer = buffer("xx21.5,0.45,7,1000\nyy");
+        SensorUpdate event = new SensorUpdate();
+        assertTrue(parser.parse(buffer, 2, 18, event));
+        assertEquals(1000, event.getTimestamp());
+        assertEquals(0, buffer.position());
+    }
+
+    private SensorUpdate parse(String line) {
+        SensorUpdate event = new SensorUpdate();
+        assertTrue(line, parser.parse(buffer(line), 0, line.length(), event));
+        return event;
+    }
+
+    private static ByteBuffer buffer(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,102 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import org.junit.Test;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Sends readings through a DedupFilter, checking what reaches each sink and how the time buckets are reused
+ */
+public class DedupFilterTest {
+
+    private final List<SensorUpdate> accepted = new ArrayList<>();
+    private final List<SensorUpdate> duplicates = new ArrayList<>();
+    private final List<SensorUpdate> late = new ArrayList<>();
+
+    private DedupFilter newFilter(long horizonMillis, int buckets, int keysPerBucket) {
+        DedupFilter filter = new DedupFilter(collect(accepted), horizonMillis, buckets, keysPerBucket);
+        filter.setDuplicateSink(collect(duplicates));
+        filter.setLateSink(collect(late));
+        return filter;
+    }
+
+    @Test
+    public void dropsRepeatedReadings() {
+        DedupFilter filter = newFilter(1000, 4, 100);
+        send(filter, reading(1, 100), reading(2, 100), reading(1, 100), reading(1, 101), reading(2, 100));
+        assertEquals(3, accepted.size());
+        assertEquals(2, duplicates.size());
+        assertEquals(3, filter.getAccepted());
+        assertEquals(2, filter.getDuplicates());
+    }
+
+    @Test
+    public void remembersReadingsForTheHorizon() {
+        DedupFilter filter = newFilter(1000, 4, 100);
+        send(filter, reading(1, 0), reading(1, 999), reading(1, 0));
+        assertEquals(1, duplicates.size());
+        //1 ms after the horizon the first reading is late, it can not be checked anymore
+        send(filter, reading(1, 1001), reading(1, 0));
+        assertEquals(1, late.size());
+        assertEquals(1, filter.getLate());
+        assertEquals(3, accepted.size());
+    }
+
+    @Test
+    public void reusesTheBucketsAsTheTimeMoves() {
+        //Buckets of 250 ms that remember 250 readings each: one reading per ms never fills them if they are reused
+        DedupFilter filter = newFilter(1000, 4, 250);
+        for (long timestamp = 0; timestamp < 100000; timestamp++) {
+            send(filter, reading(7, timestamp));
+            if (timestamp >= 500) {
+                //A reading inside the horizon is still remembered
+                send(filter, reading(7, timestamp - 500));
+            }
+        }
+        assertEquals(100000, filter.getAccepted());
+        assertEquals(99500, filter.getDuplicates());
+        assertEquals(0, filter.getOverflows());
+        assertEquals(0, filter.getLate());
+    }
+
+    @Test
+    public void passesReadingsOfAFullBucketUnchecked() {
+        DedupFilter filter = newFilter(1000, 4, 2);
+        send(filter, reading(1, 10), reading(2, 10), reading(3, 10), reading(3, 10));
+        assertEquals(4, accepted.size());
+        assertEquals(2, filter.getOverflows());
+        assertEquals(0, duplicates.size());
+    }
+
+    @Test
+    public void keepsTheSideSinksClosedWhenAsked() {
+        DedupFilter filter = newFilter(1000, 4, 100);
+        filter.setSideSinksOpen(() -> false);
+        send(filter, reading(1, 5000), reading(1, 5000), reading(1, 0));
+        assertEquals(1, accepted.size());
+        assertEquals(0, duplicates.size());
+        assertEquals(0, late.size());
+        assertEquals(1, filter.getDuplicates());
+        assertEquals(1, filter.getLate());
+    }
+
+    private static void send(DedupFilter filter, SensorUpdate... batch) {
+        filter.send(batch, batch.length);
+    }
+
+    private static SensorUpdate reading(int roomId, long timestamp) {
+        return new SensorUpdate(20, 0.5, roomId, timestamp);
+    }
+
+    private static SensorSink collect(List<SensorUpdate> events) {
+        return (batch, length) -> {
+            for (int i = 0; i < length; i++) {
+                events.add(batch[i]);
+            }
+        };
+    }
+}
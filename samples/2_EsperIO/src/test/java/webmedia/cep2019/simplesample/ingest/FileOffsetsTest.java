@@ -0,0 +1,89 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Keeps the offsets of the files of a directory across replaced, renamed and copied files
+ */
+public class FileOffsetsTest {
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("offsets");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File child : files) {
+                Files.delete(child.toPath());
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void continuesAfterASaveAndReadsAReplacedFileFromItsStart() throws IOException {
+        Path input = write("x.csv", "21.5,0.45,7,1000\n");
+        FileOffsets offsets = new FileOffsets(directory.resolve("watch.offsets"));
+        offsets.put(input, 17);
+        offsets.save();
+        assertEquals(17, new FileOffsets(directory.resolve("watch.offsets")).get(input));
+
+        write("x.csv", "22.5,0.45,7,2000\n");
+        assertEquals(0, offsets.get(input));
+    }
+
+    @Test
+    public void keepsTheOffsetOfARenamedFile() throws IOException {
+        Path input = write("x.csv", "21.5,0.45,7,1000\n");
+        FileOffsets offsets = new FileOffsets(directory.resolve("watch.offsets"));
+        offsets.put(input, 17);
+        Path rotated = directory.resolve("x-1.csv");
+        Files.move(input, rotated);
+        assertEquals(17, offsets.get(rotated));
+        assertFalse(offsets.names().contains("x.csv"));
+    }
+
+    @Test
+    public void keepsTheOffsetOfARotatedFileWhicheverNameIsReadFirst() throws IOException {
+        Path input = write("x.csv", "21.5,0.45,7,1000\n");
+        FileOffsets offsets = new FileOffsets(directory.resolve("watch.offsets"));
+        offsets.put(input, 17);
+        Path rotated = directory.resolve("x-1.csv");
+        Files.move(input, rotated);
+        write("x.csv", "22.5,0.45,7,2000\n");
+        assertEquals(0, offsets.get(input));
+        assertEquals(17, offsets.get(rotated));
+    }
+
+    @Test
+    public void readsACopyFromItsStart() throws IOException {
+        Path input = write("x.csv", "21.5,0.45,7,1000\n");
+        FileOffsets offsets = new FileOffsets(directory.resolve("watch.offsets"));
+        offsets.put(input, 17);
+        Path copy = write("y.csv", "21.5,0.45,7,1000\n");
+        assertEquals(0, offsets.get(copy));
+        assertEquals(17, offsets.get(input));
+        assertTrue(offsets.names().contains("x.csv"));
+    }
+
+    private Path write(String name, String text) throws IOException {
+        return Files.write(directory.resolve(name), text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
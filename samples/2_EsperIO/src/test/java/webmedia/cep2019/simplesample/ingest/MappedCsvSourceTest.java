@@ -0,0 +1,106 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import org.junit.After;
+import org.junit.Test;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads csv files split in segments, every line must be read by exactly one segment whatever the number of threads
+ */
+public class MappedCsvSourceTest {
+
+    private Path file;
+
+    @After
+    public void delete() throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void readsEveryLineOnceWithAnyNumberOfThreads() throws Exception {
+        write(lines(1000, "\n", true));
+        for (int threads = 1; threads <= 9; threads++) {
+            assertReadsOnce(1000, 0, threads);
+        }
+    }
+
+    @Test
+    public void readsCrLfLinesAndALastLineWithoutBreak() throws Exception {
+        write(lines(257, "\r\n", false));
+        for (int threads = 1; threads <= 5; threads++) {
+            assertReadsOnce(257, 0, threads);
+        }
+    }
+
+    @Test
+    public void skipsBlankLinesAndCountsMalformedOnes() throws Exception {
+        write("\n" + lines(100, "\n", true) + "\n\r\nnot a record\n" + lines(0, "\n", true));
+        for (int threads = 1; threads <= 4; threads++) {
+            assertReadsOnce(100, 1, threads);
+        }
+    }
+
+    @Test
+    public void readsAFileWithFewerLinesThanThreads() throws Exception {
+        write(lines(2, "\n", true));
+        assertReadsOnce(2, 0, 8);
+    }
+
+    @Test
+    public void readsAnEmptyFile() throws Exception {
+        write("");
+        assertReadsOnce(0, 0, 3);
+    }
+
+    /**
+     * Read the file and check that events 0 to count - 1 were each sent once
+     */
+    private void assertReadsOnce(int count, int errors, int threads) throws Exception {
+        boolean[] seen = new boolean[count];
+        SensorSink sink = (batch, length) -> {
+            synchronized (seen) {
+                for (int i = 0; i < length; i++) {
+                    int room = batch[i].getRoomId();
+                    assertFalse("Line " + room + " read twice with " + threads + " threads", seen[room]);
+                    seen[room] = true;
+                }
+            }
+        };
+        IngestStats stats = new MappedCsvSource(file, threads, 16, sink).run();
+        assertEquals(count, stats.getEvents());
+        assertEquals(errors, stats.getErrors());
+        for (int i = 0; i < count; i++) {
+            assertTrue("Line " + i + " not read with " + threads + " threads", seen[i]);
+        }
+    }
+
+    private void write(String text) throws IOException {
+        file = Files.createTempFile("mapped-csv", ".csv");
+        Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return count lines with the line number as the room, of varying lengths so the segments start mid-line
+     */
+    private static String lines(int count, String lineBreak, boolean lastBreak) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(20 + i % 7 * 1.125).append(',').append(0.5).append(',').append(i).append(',').append(1000L * i);
+            if (i + 1 < count || lastBreak) {
+                text.append(lineBreak);
+            }
+        }
+        return text.toString();
+    }
+}
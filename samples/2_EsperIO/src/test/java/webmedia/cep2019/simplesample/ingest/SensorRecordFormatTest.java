@@ -0,0 +1,78 @@
+package webmedia.cep2019.simplesample.ingest;
+
+import org.junit.Test;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes and reads records of the binary format
+ */
+public class SensorRecordFormatTest {
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        SensorUpdate[] events = {
+                new SensorUpdate(21.5, 0.45, 7, 1568271145976L),
+                new SensorUpdate(-40.125, 1, Integer.MAX_VALUE, Long.MIN_VALUE),
+                new SensorUpdate(Double.NaN, 0, -1, 0)
+        };
+        ByteBuffer buffer = ByteBuffer.allocate(SensorRecordFormat.HEADER_SIZE + events.length * SensorRecordFormat.RECORD_SIZE)
+                .order(SensorRecordFormat.ORDER);
+        SensorRecordFormat.writeHeader(buffer);
+        for (SensorUpdate event : events) {
+            SensorRecordFormat.write(buffer, event);
+        }
+        assertEquals(buffer.capacity(), buffer.position());
+        assertEquals(events.length, SensorRecordFormat.records(buffer.capacity()));
+
+        SensorRecordFormat.checkHeader(buffer, "test");
+        for (int i = 0; i < events.length; i++) {
+            SensorUpdate event = new SensorUpdate();
+            SensorRecordFormat.read(buffer, SensorRecordFormat.HEADER_SIZE + i * SensorRecordFormat.RECORD_SIZE, event);
+            assertEquals(events[i].getTemperature(), event.getTemperature(), 0);
+            assertEquals(events[i].getHumidity(), event.getHumidity(), 0);
+            assertEquals(events[i].getRoomId(), event.getRoomId());
+            assertEquals(events[i].getTimestamp(), event.getTimestamp());
+        }
+    }
+
+    @Test
+    public void writesLittleEndianRecords() {
+        ByteBuffer buffer = ByteBuffer.allocate(SensorRecordFormat.RECORD_SIZE).order(SensorRecordFormat.ORDER);
+        SensorRecordFormat.write(buffer, new SensorUpdate(0, 0, 0x01020304, 0));
+        assertEquals(0x04, buffer.get(16));
+        assertEquals(0x01, buffer.get(19));
+    }
+
+    @Test
+    public void countsOnlyCompleteRecords() {
+        assertEquals(0, SensorRecordFormat.records(0));
+        assertEquals(0, SensorRecordFormat.records(SensorRecordFormat.HEADER_SIZE + SensorRecordFormat.RECORD_SIZE - 1));
+        assertEquals(2, SensorRecordFormat.records(SensorRecordFormat.HEADER_SIZE + 3 * SensorRecordFormat.RECORD_SIZE - 1));
+    }
+
+    @Test
+    public void rejectsOtherFiles() {
+        ByteBuffer csv = ByteBuffer.wrap("21.5,0.45,7,1000\n".getBytes());
+        assertRejected(csv);
+        assertRejected(ByteBuffer.allocate(4));
+
+        ByteBuffer otherVersion = ByteBuffer.allocate(SensorRecordFormat.HEADER_SIZE).order(SensorRecordFormat.ORDER);
+        otherVersion.putInt(SensorRecordFormat.MAGIC).putInt(SensorRecordFormat.VERSION + 1).putInt(SensorRecordFormat.RECORD_SIZE).putInt(0);
+        assertRejected(otherVersion);
+    }
+
+    private static void assertRejected(ByteBuffer buffer) {
+        try {
+            SensorRecordFormat.checkHeader(buffer, "test");
+            fail("The header was accepted");
+        }catch (IOException ex){
+            //Expected
+        }
+    }
+}
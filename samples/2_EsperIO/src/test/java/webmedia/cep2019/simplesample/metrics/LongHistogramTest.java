@@ -0,0 +1,68 @@
+package webmedia.cep2019.simplesample.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the buckets of the histogram and the precision of its percentiles
+ */
+public class LongHistogramTest {
+
+    @Test
+    public void bucketsHoldTheirValues() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 123456789, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LongHistogram.bucketOf(value);
+            assertTrue("Value " + value, value <= LongHistogram.upperBoundOf(bucket));
+            assertTrue("Value " + value, bucket == 0 || value > LongHistogram.upperBoundOf(bucket - 1));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (int bucket = 1; bucket < 100; bucket++) {
+            long lower = LongHistogram.upperBoundOf(bucket - 1) + 1;
+            assertEquals(bucket, LongHistogram.bucketOf(lower));
+            assertEquals(bucket, LongHistogram.bucketOf(LongHistogram.upperBoundOf(bucket)));
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketPrecision() {
+        LongHistogram histogram = new LongHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 1e-9);
+        double[] percentiles = {1, 50, 90, 99, 99.9};
+        for (double percentile : percentiles) {
+            long exact = (long) (percentile * 1000);
+            long value = histogram.getPercentile(percentile);
+            assertTrue("p" + percentile + " = " + value, value >= exact && value <= exact * 1.125);
+        }
+        assertEquals(100000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesDoNotExceedTheMax() {
+        LongHistogram histogram = new LongHistogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void emptyAndNegativeValues() {
+        LongHistogram histogram = new LongHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        assertEquals(0, histogram.getMean(), 0);
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+}
@@ -0,0 +1,162 @@
+package webmedia.cep2019.simplesample.net;
+
+import org.junit.After;
+import org.junit.Test;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sends records to a SensorEndpoint over the loopback interface
+ */
+public class SensorEndpointTest {
+
+    private static final InetSocketAddress LOOPBACK = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    private final List<SensorUpdate> received = new ArrayList<>();
+    private final SensorSink sink = (batch, length) -> {
+        synchronized (received) {
+            for (int i = 0; i < length; i++) {
+                received.add(batch[i]);
+            }
+        }
+    };
+    private SensorEndpoint endpoint;
+
+    @After
+    public void close() throws IOException {
+        if (endpoint != null) {
+            endpoint.close();
+        }
+    }
+
+    @Test
+    public void receivesLinesOverTcp() throws Exception {
+        endpoint = new SensorEndpoint(LOOPBACK, null, WireFormat.LINE, 2, 16, sink);
+        sendOverTcp(WireFormat.LINE, 1000);
+        awaitEvents(1000);
+        assertReceived(1000);
+        assertEquals(0, endpoint.getDecodeErrors());
+    }
+
+    @Test
+    public void receivesBinaryRecordsOverTcp() throws Exception {
+        endpoint = new SensorEndpoint(LOOPBACK, null, WireFormat.BINARY, 2, 16, sink);
+        sendOverTcp(WireFormat.BINARY, 1000);
+        awaitEvents(1000);
+        assertReceived(1000);
+        assertEquals(0, endpoint.getDecodeErrors());
+    }
+
+    @Test
+    public void receivesDatagrams() throws Exception {
+        endpoint = new SensorEndpoint(LOOPBACK, LOOPBACK, WireFormat.LINE, 1, 16, sink);
+        try (SensorClient client = new SensorClient(endpoint.getUdpAddress(), WireFormat.LINE, true)) {
+            client.send(events(0, 50), 50);
+        }
+        awaitEvents(50);
+        assertReceived(50);
+        assertEquals(0, endpoint.getDecodeErrors());
+    }
+
+    @Test
+    public void joinsARecordSplitAcrossReads() throws Exception {
+        endpoint = new SensorEndpoint(LOOPBACK, null, WireFormat.LINE, 1, 16, sink);
+        try (SocketChannel channel = SocketChannel.open(endpoint.getTcpAddress())) {
+            channel.socket().setTcpNoDelay(true);
+            write(channel, "21.500000,0.4");
+            //Give the endpoint the time to read the first half on its own
+            Thread.sleep(100);
+            write(channel, "50000,7,1000\n");
+            awaitEvents(1);
+        }
+        SensorUpdate event = received.get(0);
+        assertEquals(21.5, event.getTemperature(), 0);
+        assertEquals(0.45, event.getHumidity(), 1e-9);
+        assertEquals(7, event.getRoomId());
+        assertEquals(1000, event.getTimestamp());
+        assertEquals(0, endpoint.getDecodeErrors());
+    }
+
+    @Test
+    public void countsTheRecordsThatCannotBeDecoded() throws Exception {
+        endpoint = new SensorEndpoint(LOOPBACK, null, WireFormat.LINE, 1, 16, sink);
+        try (SocketChannel channel = SocketChannel.open(endpoint.getTcpAddress())) {
+            write(channel, "not,a,sensor,line\n21.5,0.45,7,1000\n21.5,0.45");
+        }
+        //The connection was closed in the middle of the last record
+        await(() -> endpoint.getDecodeErrors() == 2 && endpoint.getOpenConnections() == 0);
+        assertEquals(1, endpoint.getEvents());
+        assertEquals(2, endpoint.getDecodeErrors());
+    }
+
+    private void sendOverTcp(WireFormat format, int count) throws IOException {
+        try (SensorClient client = new SensorClient(endpoint.getTcpAddress(), format, false)) {
+            for (int first = 0; first < count; first += 100) {
+                client.send(events(first, 100), 100);
+            }
+        }
+    }
+
+    private static SensorUpdate[] events(int first, int count) {
+        SensorUpdate[] events = new SensorUpdate[count];
+        for (int i = 0; i < count; i++) {
+            events[i] = new SensorUpdate(20 + (first + i) % 10, 0.5, first + i, 1000L * (first + i));
+        }
+        return events;
+    }
+
+    private static void write(SocketChannel channel, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Check that events 0 to count - 1 were each received once, with their values
+     */
+    private void assertReceived(int count) {
+        boolean[] seen = new boolean[count];
+        synchronized (received) {
+            assertEquals(count, received.size());
+            for (SensorUpdate event : received) {
+                int i = event.getRoomId();
+                assertFalse("Event " + i + " received twice", seen[i]);
+                seen[i] = true;
+                assertEquals(20 + i % 10, event.getTemperature(), 0);
+                assertEquals(0.5, event.getHumidity(), 0);
+                assertEquals(1000L * i, event.getTimestamp());
+            }
+        }
+    }
+
+    private void awaitEvents(int count) throws InterruptedException {
+        await(() -> {
+            synchronized (received) {
+                return received.size() >= count;
+            }
+        });
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package webmedia.cep2019.simplesample.rules;
+
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.compiler.client.EPCompileException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads the stored rules back only for the same label, EPL and configuration, and prunes a directory of stored rules by age and by size
+ */
+public class CompiledRuleCacheTest {
+
+    private static final long NOW = TimeUnit.DAYS.toMillis(20000);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final String EPL = "select 1 as alive from pattern[every timer:interval(1 sec)]";
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("eplcache").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void readsARuleCompiledBeforeBackFromTheDirectory() throws EPCompileException {
+        CompiledRuleCache first = new CompiledRuleCache(directory, new Configuration(), 1);
+        first.compile("alive", EPL);
+        assertEquals(0, first.getHits());
+        assertEquals(1, first.getMisses());
+
+        CompiledRuleCache second = new CompiledRuleCache(directory, new Configuration(), 1);
+        second.compile("alive", EPL);
+        assertEquals(1, second.getHits());
+        assertEquals(0, second.getMisses());
+    }
+
+    @Test
+    public void compilesAgainWhenTheEplTheLabelOrTheConfigurationChanges() throws EPCompileException {
+        new CompiledRuleCache(directory, new Configuration(), 1).compile("alive", EPL);
+
+        CompiledRuleCache changed = new CompiledRuleCache(directory, new Configuration(), 1);
+        changed.compile("alive", EPL.replace("1 sec", "2 sec"));
+        changed.compile("alive2", EPL);
+        assertEquals(0, changed.getHits());
+        assertEquals(2, changed.getMisses());
+
+        Configuration configuration = new Configuration();
+        configuration.getCompiler().getExpression().setIntegerDivision(true);
+        CompiledRuleCache reconfigured = new CompiledRuleCache(directory, configuration, 1);
+        reconfigured.compile("alive", EPL);
+        assertEquals(0, reconfigured.getHits());
+        assertEquals(1, reconfigured.getMisses());
+    }
+
+    @Test
+    public void compilesADamagedRuleAgainAndReplacesIt() throws EPCompileException, IOException {
+        new CompiledRuleCache(directory, new Configuration(), 1).compile("alive", EPL);
+        File[] stored = directory.listFiles((dir, name) -> name.endsWith(".jar"));
+        assertEquals(1, stored.length);
+        Files.write(stored[0].toPath(), "not a jar".getBytes(StandardCharsets.US_ASCII));
+
+        CompiledRuleCache damaged = new CompiledRuleCache(directory, new Configuration(), 1);
+        assertNotNull(damaged.compile("alive", EPL));
+        assertEquals(0, damaged.getHits());
+        assertEquals(1, damaged.getMisses());
+
+        CompiledRuleCache repaired = new CompiledRuleCache(directory, new Configuration(), 1);
+        repaired.compile("alive", EPL);
+        assertEquals(1, repaired.getHits());
+    }
+
+    @Test
+    public void deletesTheRulesNotUsedForTheMaxAge() throws IOException {
+        File recent = rule("recent.jar", 100, NOW - DAY);
+        File old = rule("old.jar", 100, NOW - 31 * DAY);
+        assertEquals(1, CompiledRuleCache.prune(directory, Long.MAX_VALUE, 30 * DAY, NOW));
+        assertTrue(recent.exists());
+        assertFalse(old.exists());
+    }
+
+    @Test
+    public void deletesTheLeastRecentlyUsedRulesAboveTheMaxSize() throws IOException {
+        File newest = rule("a.jar", 400, NOW - 1000);
+        File middle = rule("b.jar", 400, NOW - 2000);
+        File oldest = rule("c.jar", 400, NOW - 3000);
+        assertEquals(1, CompiledRuleCache.prune(directory, 1000, 30 * DAY, NOW));
+        assertTrue(newest.exists());
+        assertTrue(middle.exists());
+        assertFalse(oldest.exists());
+    }
+
+    @Test
+    public void deletesOnlyTheStaleTemporaryFiles() throws IOException {
+        File writing = rule("rule1.tmp", 10, NOW - 1000);
+        File abandoned = rule("rule2.tmp", 10, NOW - DAY);
+        File other = rule("notes.txt", 10, NOW - 365 * DAY);
+        assertEquals(1, CompiledRuleCache.prune(directory, 0, 30 * DAY, NOW));
+        assertTrue(writing.exists());
+        assertFalse(abandoned.exists());
+        assertTrue(other.exists());
+    }
+
+    private File rule(String name, int size, long lastModified) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), new byte[size]);
+        assertTrue(file.setLastModified(lastModified));
+        return file;
+    }
+}
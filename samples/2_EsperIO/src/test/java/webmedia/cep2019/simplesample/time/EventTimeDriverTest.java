@@ -0,0 +1,130 @@
+package webmedia.cep2019.simplesample.time;
+
+import com.espertech.esper.runtime.client.EPEventService;
+import com.espertech.esper.runtime.client.EPRuntime;
+import org.junit.Before;
+import org.junit.Test;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a fake runtime that records the calls of the event service: every event must be sent after the time was
+ * advanced to its timestamp, in timestamp order
+ */
+public class EventTimeDriverTest {
+
+    //The calls of the event service, "time t", "span t" or "event roomId@timestamp"
+    private final List<String> calls = new ArrayList<>();
+    private long currentTime;
+    private EPRuntime runtime;
+
+    @Before
+    public void createRuntime() {
+        EPEventService eventService = (EPEventService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{EPEventService.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "advanceTime":
+                            currentTime = (Long) args[0];
+                            calls.add("time " + currentTime);
+                            return null;
+                        case "advanceTimeSpan":
+                            currentTime = (Long) args[0];
+                            calls.add("span " + currentTime);
+                            return null;
+                        case "getCurrentTime":
+                            return currentTime;
+                        case "sendEventBean":
+                            SensorUpdate event = (SensorUpdate) args[0];
+                            assertEquals(event.getTimestamp(), currentTime);
+                            calls.add("event " + event.getRoomId() + "@" + event.getTimestamp());
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        runtime = (EPRuntime) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{EPRuntime.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getEventService")) {
+                        return eventService;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Test
+    public void sendsTheEventsInTimestampOrder() {
+        EventTimeDriver driver = new EventTimeDriver(runtime, 100);
+        send(driver, event(1, 1000), event(2, 1050), event(3, 1020), event(4, 1200));
+        //The watermark is 1100: the first three events are sent, the last one waits
+        assertCalls("time 1000", "event 1@1000", "span 1020", "event 3@1020", "span 1050", "event 2@1050");
+        assertEquals(1, driver.getBuffered());
+        driver.close();
+        assertCalls("time 1000", "event 1@1000", "span 1020", "event 3@1020", "span 1050", "event 2@1050",
+                "span 1200", "event 4@1200");
+        assertEquals(4, driver.getSent());
+        assertEquals(0, driver.getLate());
+    }
+
+    @Test
+    public void keepsTheArrivalOrderOfEqualTimestamps() {
+        EventTimeDriver driver = new EventTimeDriver(runtime, 0);
+        send(driver, event(1, 1000), event(2, 1000), event(3, 1000));
+        driver.flush();
+        assertCalls("time 1000", "event 1@1000", "event 2@1000", "event 3@1000");
+    }
+
+    @Test
+    public void discardsLateEvents() {
+        EventTimeDriver driver = new EventTimeDriver(runtime, 10);
+        assertTrue(driver.send(event(1, 1000)));
+        assertTrue(driver.send(event(2, 1100)));
+        //1000 was sent when 1100 arrived, an older event is late
+        assertFalse(driver.send(event(3, 999)));
+        assertTrue(driver.send(event(4, 1095)));
+        driver.close();
+        assertEquals(1, driver.getLate());
+        assertEquals(3, driver.getSent());
+        assertCalls("time 1000", "event 1@1000", "span 1095", "event 4@1095", "span 1100", "event 2@1100");
+    }
+
+    @Test
+    public void tracksTheOldestPendingArrival() {
+        EventTimeDriver driver = new EventTimeDriver(runtime, 100);
+        assertEquals(0, driver.getOldestPending());
+        send(driver, event(1, 1000), event(2, 1010), event(3, 1100));
+        //The event at 1000 was sent, the one at 1010 is still buffered
+        assertEquals(3, driver.getArrivals());
+        assertEquals(1, driver.getOldestPending());
+        driver.flush();
+        assertEquals(3, driver.getOldestPending());
+    }
+
+    @Test
+    public void advancesToTheLargestTimestampOnClose() {
+        EventTimeDriver driver = new EventTimeDriver(runtime, 0);
+        send(driver, event(1, 1000));
+        driver.close();
+        assertEquals(1000, currentTime);
+        assertCalls("time 1000", "event 1@1000");
+    }
+
+    private static void send(EventTimeDriver driver, SensorUpdate... batch) {
+        driver.send(batch, batch.length);
+    }
+
+    private static SensorUpdate event(int roomId, long timestamp) {
+        return new SensorUpdate(20, 0.5, roomId, timestamp);
+    }
+
+    private void assertCalls(String... expected) {
+        assertEquals(Arrays.asList(expected), calls);
+    }
+}
@@ -0,0 +1,183 @@
+package webmedia.cep2019.benchmark;
+
+import com.espertech.esper.common.client.EPCompiled;
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.compiler.client.CompilerArguments;
+import com.espertech.esper.compiler.client.EPCompileException;
+import com.espertech.esper.compiler.client.EPCompilerProvider;
+import com.espertech.esper.runtime.client.EPDeployException;
+import com.espertech.esper.runtime.client.EPDeployment;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPRuntimeProvider;
+import org.apache.log4j.varia.NullAppender;
+import webmedia.cep2019.simplesample.Rules;
+import webmedia.cep2019.simplesample.compact.SensorRowTypes;
+import webmedia.cep2019.simplesample.event.HighTemperature;
+import webmedia.cep2019.simplesample.event.LowHumidity;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.ingest.CsvToBinary;
+import webmedia.cep2019.simplesample.ingest.RuntimeSink;
+import webmedia.cep2019.simplesample.ingest.SensorSink;
+import webmedia.cep2019.simplesample.load.LoadGenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Engine setup shared by the benchmarks, it mirrors the configuration done by SimpleSample.init()
+ */
+final class BenchmarkSupport {
+
+    private static final AtomicInteger RUNTIME_COUNTER = new AtomicInteger();
+
+    static {
+        //This just remove the Warnings
+        org.apache.log4j.BasicConfigurator.configure(new NullAppender());
+    }
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Create a configuration with the SensorUpdate and compact event types and the esperio imports
+     * @return the configuration
+     */
+    static Configuration newConfiguration(){
+        Configuration configuration = new Configuration();
+        configuration.getCommon().addEventType(SensorUpdate.class);
+        configuration.getCommon().addEventType(LowHumidity.class);
+        configuration.getCommon().addEventType(HighTemperature.class);
+        SensorRowTypes.register(configuration);
+        configuration.getCommon().addImport("com.espertech.esperio.file.*");
+        return configuration;
+    }
+
+    /**
+     * Create a new runtime, each benchmark trial gets its own runtime so no state leaks between trials
+     * @param configuration the runtime configuration
+     * @return the runtime
+     */
+    static EPRuntime newRuntime(Configuration configuration){
+        return EPRuntimeProvider.getRuntime("benchmark-" + RUNTIME_COUNTER.incrementAndGet(), configuration);
+    }
+
+    /**
+     * Compile an EPL rule
+     * @param configuration the configuration used by the compiler
+     * @param label a label for the rule
+     * @param epl the EPL rule
+     * @return the compiled rule
+     */
+    static EPCompiled compile(Configuration configuration, String label, String epl){
+        try {
+            return EPCompilerProvider.getCompiler().compile("@name('" + label + "') " + epl, new CompilerArguments(configuration));
+        }catch (EPCompileException ex){
+            throw new IllegalStateException("Failed to compile " + label, ex);
+        }
+    }
+
+    /**
+     * Deploy a compiled rule
+     * @param runtime the runtime
+     * @param compiled the compiled rule
+     * @return the deployment
+     */
+    static EPDeployment deploy(EPRuntime runtime, EPCompiled compiled){
+        try {
+            return runtime.getDeploymentService().deploy(compiled);
+        }catch (EPDeployException ex){
+            throw new IllegalStateException("Failed to deploy", ex);
+        }
+    }
+
+    /**
+     * The input files of the ingestion benchmarks and the sink of the events read from them
+     */
+    static final class IngestFixture implements Closeable {
+        final Path directory;
+        final Path csv;
+        final Path binary;
+        final SensorSink target;
+        final EPRuntime runtime;
+
+        /**
+         * Generate the csv input in a temporary directory and convert it to the binary input
+         * @param prefix the prefix of the temporary directory
+         * @param events the number of events of the input
+         * @param engine false to only count the events, true to send them to a runtime running the two insert rules
+         */
+        IngestFixture(String prefix, long events, boolean engine) throws IOException, InterruptedException {
+            directory = Files.createTempDirectory(prefix);
+            csv = directory.resolve("input.csv");
+            binary = directory.resolve("input.bin");
+            LoadGenerator generator = new LoadGenerator();
+            generator.setEvents(events);
+            generator.writeCsv(csv);
+            CsvToBinary.convert(csv, binary);
+
+            if (!engine) {
+                runtime = null;
+                target = new SensorSink() {
+                    long count;
+                    public void send(SensorUpdate[] batch, int length) {
+                        count += length;
+                    }
+                };
+                return;
+            }
+            Configuration configuration = newConfiguration();
+            runtime = newRuntime(configuration);
+            deploy(runtime, compile(configuration, "insert-LowHumidity", Rules.INSERT_LOW_HUMIDITY));
+            deploy(runtime, compile(configuration, "insert-HighTemperature", Rules.INSERT_HIGH_TEMPERATURE));
+            target = new RuntimeSink(runtime);
+        }
+
+        /**
+         * Destroy the runtime and delete the input files
+         */
+        @Override
+        public void close() throws IOException {
+            if (runtime != null) {
+                runtime.destroy();
+            }
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(binary);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Pre-generated sensor values, the same distribution used by SimpleSample.generateInput()
+     */
+    static final class SensorData {
+        final double[] temperature;
+        final double[] humidity;
+        final int[] roomId;
+        final int mask;
+
+        /**
+         * @param size the number of values, must be a power of two
+         * @param rooms the number of distinct rooms
+         * @param seed the random seed
+         */
+        SensorData(int size, int rooms, long seed) {
+            if (Integer.bitCount(size) != 1) {
+                throw new IllegalArgumentException("size must be a power of two: " + size);
+            }
+            temperature = new double[size];
+            humidity = new double[size];
+            roomId = new int[size];
+            mask = size - 1;
+            Random random = new Random(seed);
+            for (int i = 0; i < size; i++) {
+                temperature[i] = random.nextInt(50) + random.nextDouble();
+                humidity[i] = random.nextDouble();
+                roomId[i] = random.nextInt(rooms);
+            }
+        }
+    }
+}
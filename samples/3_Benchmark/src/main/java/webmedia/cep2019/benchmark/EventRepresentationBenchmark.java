@@ -0,0 +1,129 @@
+package webmedia.cep2019.benchmark;
+
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.runtime.client.EPDeployment;
+import com.espertech.esper.runtime.client.EPEventService;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.UpdateListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webmedia.cep2019.simplesample.Rules;
+import webmedia.cep2019.simplesample.compact.SensorColumns;
+import webmedia.cep2019.simplesample.compact.SensorRowTypes;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the event representations of a sensor reading running the same rules:
+ * the SensorUpdate bean, the SensorRow object array and the SensorCursor flyweight over a SensorColumns buffer.
+ * Run it with the gc profiler (-prof gc) to get the bytes allocated per event (gc.alloc.rate.norm)
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventRepresentationBenchmark {
+
+    static final int BATCH = 1024;
+
+    /**
+     * bean - a new SensorUpdate per reading, sent with sendEventBean
+     * objectArray - a new Object[] per reading (SensorRow), sent with sendEventObjectArray
+     * flyweight - one SensorCursor moved over a SensorColumns batch
+     */
+    @Param({"bean", "objectArray", "flyweight"})
+    String representation;
+
+    /**
+     * select - a select * rule with a counting listener
+     * derived - the two insert rules, deriving the low humidity and high temperature events
+     */
+    @Param({"select", "derived"})
+    String ruleShape;
+
+    @Param({"1000"})
+    int rooms;
+
+    EPRuntime runtime;
+    EPEventService eventService;
+    BenchmarkSupport.SensorData data;
+    SensorColumns columns;
+    int index;
+    long timestamp;
+    long delivered;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Configuration configuration = BenchmarkSupport.newConfiguration();
+        runtime = BenchmarkSupport.newRuntime(configuration);
+        eventService = runtime.getEventService();
+        data = new BenchmarkSupport.SensorData(1 << 16, rooms, 42);
+        columns = new SensorColumns(BATCH);
+        timestamp = 1568271145976L;
+
+        boolean bean = representation.equals("bean");
+        String source = representation.equals("objectArray") ? SensorRowTypes.SENSOR_ROW : SensorRowTypes.SENSOR_CURSOR;
+        if (ruleShape.equals("select")) {
+            deploy(configuration, "select", "select * from " + (bean ? "SensorUpdate" : source));
+        }else {
+            deploy(configuration, "insert-LowHumidity", bean ? Rules.INSERT_LOW_HUMIDITY : Rules.insertLowHumidityRow(source));
+            deploy(configuration, "insert-HighTemperature", bean ? Rules.INSERT_HIGH_TEMPERATURE : Rules.insertHighTemperatureRow(source));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runtime.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void send() {
+        if (representation.equals("bean")) {
+            for (int n = 0; n < BATCH; n++) {
+                int i = index++ & data.mask;
+                eventService.sendEventBean(new SensorUpdate(data.temperature[i], data.humidity[i], data.roomId[i], timestamp++), "SensorUpdate");
+            }
+            return;
+        }
+        //The readings are copied into the columns, as an ingestion source would parse them
+        columns.clear();
+        for (int n = 0; n < BATCH; n++) {
+            int i = index++ & data.mask;
+            columns.add(data.temperature[i], data.humidity[i], data.roomId[i], timestamp++);
+        }
+        if (representation.equals("objectArray")) {
+            columns.sendRows(eventService);
+        }else {
+            columns.sendCursor(eventService);
+        }
+    }
+
+    private void deploy(Configuration configuration, String label, String epl) {
+        EPDeployment deployment = BenchmarkSupport.deploy(runtime, BenchmarkSupport.compile(configuration, label, epl));
+        for (EPStatement statement : deployment.getStatements()) {
+            statement.addListener(new UpdateListener() {
+                public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+                    delivered += newData.length;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package webmedia.cep2019.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webmedia.cep2019.simplesample.ingest.IngestStats;
+import webmedia.cep2019.simplesample.ingest.MappedBinarySource;
+import webmedia.cep2019.simplesample.ingest.SequentialCsvSource;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the same events from the csv input and from its binary copy, on a single thread and in file order.
+ * Each operation reads the whole file, divide the events by the time of an operation to get events per second
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class InputFormatBenchmark {
+
+    @Param({"1000000"})
+    long events;
+
+    /**
+     * none - the events are only counted, it measures the reading alone
+     * derived - the events are sent to a runtime running the two insert rules
+     */
+    @Param({"none", "derived"})
+    String sink;
+
+    BenchmarkSupport.IngestFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        fixture = new BenchmarkSupport.IngestFixture("input-format", events, sink.equals("derived"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+    }
+
+    @Benchmark
+    public IngestStats csv() throws IOException {
+        return new SequentialCsvSource(fixture.csv, 0, Long.MAX_VALUE, 256, fixture.target, null).run();
+    }
+
+    @Benchmark
+    public IngestStats binary() throws IOException, InterruptedException {
+        return new MappedBinarySource(fixture.binary, 1, 256, fixture.target).run();
+    }
+}
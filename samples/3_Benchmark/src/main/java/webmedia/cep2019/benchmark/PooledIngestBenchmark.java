@@ -0,0 +1,71 @@
+package webmedia.cep2019.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webmedia.cep2019.simplesample.ingest.IngestStats;
+import webmedia.cep2019.simplesample.ingest.MappedBinarySource;
+import webmedia.cep2019.simplesample.ingest.SensorUpdatePool;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the binary input with a new SensorUpdate per record and with events recycled by a SensorUpdatePool.
+ * Run it with the gc profiler, the bytes allocated per operation (gc.alloc.rate.norm) divided by the events are the bytes per event
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PooledIngestBenchmark {
+
+    @Param({"1000000"})
+    long events;
+
+    /**
+     * none - the events are only counted, it measures the reading alone
+     * filter - the events are sent to a runtime running the two insert rules, which keep no event
+     */
+    @Param({"none", "filter"})
+    String sink;
+
+    @Param({"false", "true"})
+    boolean pooled;
+
+    BenchmarkSupport.IngestFixture fixture;
+    SensorUpdatePool pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        fixture = new BenchmarkSupport.IngestFixture("pooled-ingest", events, sink.equals("filter"));
+        pool = pooled ? new SensorUpdatePool() : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (pool != null) {
+            System.out.println(pool);
+        }
+        fixture.close();
+    }
+
+    @Benchmark
+    public IngestStats binary() throws IOException, InterruptedException {
+        MappedBinarySource source = new MappedBinarySource(fixture.binary, 1, 256, fixture.target);
+        source.setPool(pool);
+        return source.run();
+    }
+}
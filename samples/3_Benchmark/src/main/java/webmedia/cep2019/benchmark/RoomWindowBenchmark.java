@@ -0,0 +1,109 @@
+package webmedia.cep2019.benchmark;
+
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.runtime.client.EPEventService;
+import com.espertech.esper.runtime.client.EPRuntime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webmedia.cep2019.simplesample.Rules;
+import webmedia.cep2019.simplesample.WindowGrouping;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.time.EventTimeDriver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a SensorUpdate event with the per-room window rules deployed, as the number of rooms grows.
+ * The runtime time is driven by the timestamps of the events, as with the event clock of SimpleSample, and each room reports
+ * about once a second of event time: the 60 sec windows hold a minute of readings of every room and expire the older ones,
+ * however fast the events are sent. The windows are filled before the measurement starts, so all the context partitions
+ * or groups exist and the state is steady
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class RoomWindowBenchmark {
+
+    @Param({"CONTEXT", "GROUPWIN"})
+    WindowGrouping grouping;
+
+    @Param({"1000", "10000", "100000"})
+    int rooms;
+
+    EPRuntime runtime;
+    EPEventService eventService;
+    BenchmarkSupport.SensorData data;
+    int index;
+    long events;
+    long startTime;
+    long time;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Configuration configuration = BenchmarkSupport.newConfiguration();
+        EventTimeDriver.configure(configuration);
+        runtime = BenchmarkSupport.newRuntime(configuration);
+        eventService = runtime.getEventService();
+        startTime = 1568271145976L;
+        time = startTime;
+        eventService.advanceTime(time);
+        BenchmarkSupport.deploy(runtime, BenchmarkSupport.compile(configuration, "room-readings", Rules.roomWindows(grouping)));
+        data = new BenchmarkSupport.SensorData(Math.max(1 << 16, Integer.highestOneBit(rooms) << 3), rooms, 42);
+        //Create the partitions of every room, then fill a minute of readings before measuring
+        for (int room = 0; room < rooms; room++) {
+            eventService.sendEventBean(new SensorUpdate(20, 0.5, room, nextTimestamp()), "SensorUpdate");
+        }
+        for (long n = 60L * rooms; n > 0; n--) {
+            sendNext();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runtime.destroy();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput() {
+        sendNext();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void latency() {
+        sendNext();
+    }
+
+    private void sendNext() {
+        int i = index++ & data.mask;
+        eventService.sendEventBean(new SensorUpdate(data.temperature[i], data.humidity[i], data.roomId[i], nextTimestamp()), "SensorUpdate");
+    }
+
+    /**
+     * Advance the runtime time to the timestamp of the next event, rooms events per second of event time
+     */
+    private long nextTimestamp() {
+        long timestamp = startTime + events++ * 1000 / rooms;
+        if (timestamp > time) {
+            //The steps are of a millisecond or less, the timers due in between fire at the end of the step
+            eventService.advanceTime(timestamp);
+            time = timestamp;
+        }
+        return timestamp;
+    }
+}
@@ -0,0 +1,61 @@
+package webmedia.cep2019.benchmark;
+
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.runtime.client.EPEventService;
+import com.espertech.esper.runtime.client.EPRuntime;
+import webmedia.cep2019.simplesample.Rules;
+import webmedia.cep2019.simplesample.WindowGrouping;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Measures the heap used per room by the per-room window rules, it is not a JMH benchmark.
+ * For each grouping and number of rooms it deploys the rules on a new runtime, sends the same number of readings to
+ * every room and compares the heap used after a garbage collection with the heap used before the readings.
+ * The readings are sent within a few seconds, so the time windows keep all of them.
+ * Usage: RoomWindowFootprint [readingsPerRoom] [rooms ...]
+ */
+public class RoomWindowFootprint {
+
+    public static void main(String[] args) {
+        int readingsPerRoom = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int[] roomCounts = {1000, 10000, 100000};
+        if (args.length > 1) {
+            roomCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                roomCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.out.println("grouping,rooms,readingsPerRoom,bytesPerRoom,nanosPerEvent");
+        for (WindowGrouping grouping : WindowGrouping.values()) {
+            for (int rooms : roomCounts) {
+                Configuration configuration = BenchmarkSupport.newConfiguration();
+                EPRuntime runtime = BenchmarkSupport.newRuntime(configuration);
+                BenchmarkSupport.deploy(runtime, BenchmarkSupport.compile(configuration, "room-readings", Rules.roomWindows(grouping)));
+                EPEventService eventService = runtime.getEventService();
+                BenchmarkSupport.SensorData data = new BenchmarkSupport.SensorData(1 << 16, 1000, 42);
+
+                memory.gc();
+                long before = memory.getHeapMemoryUsage().getUsed();
+                long timestamp = 1568271145976L;
+                long start = System.nanoTime();
+                int i = 0;
+                for (int reading = 0; reading < readingsPerRoom; reading++) {
+                    for (int room = 0; room < rooms; room++) {
+                        int value = i++ & data.mask;
+                        eventService.sendEventBean(new SensorUpdate(data.temperature[value], data.humidity[value], room, timestamp++), "SensorUpdate");
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                memory.gc();
+                long after = memory.getHeapMemoryUsage().getUsed();
+                long events = (long) rooms * readingsPerRoom;
+                System.out.printf("%s,%d,%d,%d,%d%n", grouping, rooms, readingsPerRoom, (after - before) / rooms, elapsed / events);
+                runtime.destroy();
+            }
+        }
+    }
+}
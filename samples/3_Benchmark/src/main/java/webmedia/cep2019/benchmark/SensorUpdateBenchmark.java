@@ -0,0 +1,255 @@
+package webmedia.cep2019.benchmark;
+
+import com.espertech.esper.common.client.EPCompiled;
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.common.client.dataflow.core.EPDataFlowInstance;
+import com.espertech.esper.runtime.client.EPDeployment;
+import com.espertech.esper.runtime.client.EPEventService;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.UpdateListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webmedia.cep2019.simplesample.DerivationMode;
+import webmedia.cep2019.simplesample.Rules;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.listener.AsyncAppender;
+import webmedia.cep2019.simplesample.listener.PrintListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of sending a SensorUpdate through runtime.getEventService().sendEventBean(...)
+ * for each rule shape deployed by the samples.
+ * The throughput benchmark reports events per second and the latency benchmark reports the p50/p99/p999 percentiles.
+ * The default parameters are a representative subset that runs in about half an hour, each parameter lists the other values;
+ * pass them with -p for a wider sweep (the full cross-product takes about 15 hours)
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class SensorUpdateBenchmark {
+
+    /**
+     * The rule shape deployed:
+     * select - select * from SensorUpdate
+     * lowHumidity - the insert-LowHumidity rule
+     * highTemperature - the insert-HighTemperature rule
+     * derived - both insert rules
+     * fileSink - both insert rules and the FileSink dataflows of SimpleSample.logSpecialEvents
+     * all - everything above
+     */
+    @Param({"select", "derived", "all"})
+    String ruleShape;
+
+    /**
+     * How many copies of the rule shape are deployed, e.g. also 10
+     */
+    @Param({"1", "100"})
+    int ruleCount;
+
+    /**
+     * The number of distinct rooms in the generated events, e.g. also 3 or 100000
+     */
+    @Param({"1000"})
+    int rooms;
+
+    /**
+     * How the insert rules avoid deriving from derived events (see DerivationMode), EXACT_TYPE or DISTINCT_TIMESTAMP
+     */
+    @Param({"EXACT_TYPE"})
+    DerivationMode derivation;
+
+    /**
+     * The listener added to each rule:
+     * none - no listener
+     * noop - a listener that only counts the events
+     * propertyWalk - a listener that reads every property by name, like the printListener (without the console)
+     * asyncPrint - the PrintListener writing through an AsyncAppender (to a writer that discards the text)
+     */
+    @Param({"none", "asyncPrint"})
+    String listener;
+
+    EPRuntime runtime;
+    EPEventService eventService;
+    BenchmarkSupport.SensorData data;
+    List<EPDataFlowInstance> dataflows = new ArrayList<>();
+    File outputDir;
+    AsyncAppender appender;
+
+    int index;
+    long timestamp;
+    long delivered;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Configuration configuration = BenchmarkSupport.newConfiguration();
+        runtime = BenchmarkSupport.newRuntime(configuration);
+        eventService = runtime.getEventService();
+        data = new BenchmarkSupport.SensorData(1 << 16, rooms, 42);
+        //Timestamps must be unique, otherwise the DISTINCT_TIMESTAMP patterns would stop matching after the first loop over the data
+        timestamp = 1568271145976L;
+
+        UpdateListener updateListener = createListener();
+        boolean all = ruleShape.equals("all");
+        if (all || ruleShape.equals("select")) {
+            deployCopies(configuration, "select-SensorUpdate", Rules.SELECT_SENSOR_UPDATE, updateListener);
+        }
+        if (all || ruleShape.equals("lowHumidity") || ruleShape.equals("derived") || ruleShape.equals("fileSink")) {
+            deployCopies(configuration, "insert-LowHumidity", Rules.insertLowHumidity(derivation), updateListener);
+        }
+        if (all || ruleShape.equals("highTemperature") || ruleShape.equals("derived") || ruleShape.equals("fileSink")) {
+            deployCopies(configuration, "insert-HighTemperature", Rules.insertHighTemperature(derivation), updateListener);
+        }
+        if (all || ruleShape.equals("fileSink")) {
+            outputDir = Files.createTempDirectory("sensor-benchmark").toFile();
+            startFileSink(configuration, "LowHumidity", new File(outputDir, "LowHumidityLog.csv"));
+            startFileSink(configuration, "HighTemperature", new File(outputDir, "HighTemperatureLog.csv"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (EPDataFlowInstance instance : dataflows) {
+            instance.cancel();
+        }
+        dataflows.clear();
+        runtime.destroy();
+        if (appender != null) {
+            try {
+                appender.close();
+            }catch (IOException ex){
+                ex.printStackTrace();
+            }
+            appender = null;
+        }
+        if (outputDir != null) {
+            File[] files = outputDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            outputDir.delete();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput() {
+        sendNext();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void latency() {
+        sendNext();
+    }
+
+    private void sendNext() {
+        int i = index++ & data.mask;
+        eventService.sendEventBean(new SensorUpdate(data.temperature[i], data.humidity[i], data.roomId[i], timestamp++), "SensorUpdate");
+    }
+
+    /**
+     * Compile a rule once and deploy it ruleCount times
+     */
+    private void deployCopies(Configuration configuration, String label, String epl, UpdateListener updateListener) {
+        EPCompiled compiled = BenchmarkSupport.compile(configuration, label, epl);
+        for (int i = 0; i < ruleCount; i++) {
+            EPDeployment deployment = BenchmarkSupport.deploy(runtime, compiled);
+            for (EPStatement statement : deployment.getStatements()) {
+                if (appender != null) {
+                    //The PrintListener is created per statement
+                    statement.addListener(new PrintListener(appender));
+                }else if (updateListener != null) {
+                    statement.addListener(updateListener);
+                }
+            }
+        }
+    }
+
+    private void startFileSink(Configuration configuration, String eventName, File file) {
+        String dataflowName = eventName + "CSVOutput";
+        //The dataflow EPL is a string literal so the path always uses forward slashes
+        String epl = Rules.fileSinkDataflow(dataflowName, eventName, file.getAbsolutePath().replace('\\', '/'));
+        EPDeployment deployment = BenchmarkSupport.deploy(runtime, BenchmarkSupport.compile(configuration, dataflowName, epl));
+        EPDataFlowInstance instance = runtime.getDataFlowService().instantiate(deployment.getDeploymentId(), dataflowName);
+        instance.start();
+        dataflows.add(instance);
+    }
+
+    private UpdateListener createListener() {
+        if (listener.equals("noop")) {
+            return new UpdateListener() {
+                public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+                    delivered += newData.length;
+                }
+            };
+        }
+        if (listener.equals("propertyWalk")) {
+            return new UpdateListener() {
+                public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+                    for (EventBean event : newData) {
+                        //Builds the same text the printListener sends to the console
+                        String line = "{" + event.getEventType().getName() + ": ";
+                        for (String propertyName : event.getEventType().getPropertyNames()) {
+                            line += propertyName + "=" + event.get(propertyName) + ", ";
+                        }
+                        delivered += line.length();
+                    }
+                }
+            };
+        }
+        if (listener.equals("asyncPrint")) {
+            appender = new AsyncAppender("benchmark-appender", new DiscardingWriter(), 1024);
+        }
+        return null;
+    }
+
+    /**
+     * A writer that only counts the characters, so the benchmark measures the listener and not the console
+     */
+    static final class DiscardingWriter extends Writer {
+        long written;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            written += len;
+        }
+
+        @Override
+        public void write(String str) {
+            written += str.length();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
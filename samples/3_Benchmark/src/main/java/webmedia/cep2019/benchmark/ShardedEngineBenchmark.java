@@ -0,0 +1,88 @@
+package webmedia.cep2019.benchmark;
+
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.runtime.client.EPDeployException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webmedia.cep2019.simplesample.Rules;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.shard.ShardedEngine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the throughput of the SimpleSample rules grows with the number of shards of a ShardedEngine.
+ * Each invocation sends a batch of events and waits until every shard has processed them
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ShardedEngineBenchmark {
+
+    static final int BATCH = 10000;
+
+    @Param({"1", "2", "4", "8"})
+    int shards;
+
+    @Param({"1000", "100000"})
+    int rooms;
+
+    ShardedEngine engine;
+    BenchmarkSupport.SensorData data;
+    int index;
+    long timestamp;
+    long sent;
+
+    @Setup(Level.Trial)
+    public void setup() throws EPDeployException {
+        Configuration configuration = BenchmarkSupport.newConfiguration();
+        engine = new ShardedEngine("sharded-benchmark-" + System.nanoTime(), configuration, shards, 8192);
+        engine.deploy(BenchmarkSupport.compile(configuration, "select-SensorUpdate", Rules.SELECT_SENSOR_UPDATE));
+        engine.deploy(BenchmarkSupport.compile(configuration, "insert-LowHumidity", Rules.INSERT_LOW_HUMIDITY));
+        engine.deploy(BenchmarkSupport.compile(configuration, "insert-HighTemperature", Rules.INSERT_HIGH_TEMPERATURE));
+        data = new BenchmarkSupport.SensorData(1 << 16, rooms, 42);
+        timestamp = 1568271145976L;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendBatch() {
+        for (int n = 0; n < BATCH; n++) {
+            int i = index++ & data.mask;
+            engine.send(new SensorUpdate(data.temperature[i], data.humidity[i], data.roomId[i], timestamp++));
+        }
+        sent += BATCH;
+        //Wait for the shards, so the measure is the processing rate and not the queueing rate
+        while (processed() < sent) {
+            Thread.yield();
+        }
+    }
+
+    private long processed() {
+        long total = 0;
+        for (long count : engine.getProcessedEvents()) {
+            total += count;
+        }
+        return total;
+    }
+}
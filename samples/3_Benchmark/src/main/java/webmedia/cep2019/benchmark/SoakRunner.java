@@ -0,0 +1,395 @@
+package webmedia.cep2019.benchmark;
+
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.runtime.client.EPDeployment;
+import com.espertech.esper.runtime.client.EPEventService;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.EPUndeployException;
+import com.espertech.esper.runtime.client.UpdateListener;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import webmedia.cep2019.simplesample.DerivationMode;
+import webmedia.cep2019.simplesample.Rules;
+import webmedia.cep2019.simplesample.WindowGrouping;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.listener.AsyncAppender;
+import webmedia.cep2019.simplesample.listener.PrintListener;
+import webmedia.cep2019.simplesample.metrics.LongHistogram;
+import webmedia.cep2019.simplesample.metrics.StatementMetrics;
+
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A long running test of the SimpleSample rule set under a steady input rate, it is not a JMH benchmark.
+ * It deploys the rules, each one in its own deployment, and sends readings at the configured rate for the configured time.
+ * At every sample it records the bytes allocated per event by all the threads, collects the garbage and records the heap
+ * still used (the live set). Every other collection is recorded as a pause in a histogram, through the GC notifications.
+ * At the end it records the heap released by undeploying each rule, which is the state the rule kept, and checks the thresholds:
+ * the live set must not grow faster than the allowed slope, fitted over at least MIN_SLOPE_SAMPLES samples, the pauses and the
+ * allocation per event must stay below their maximum, the rate must be reached and the insert rules must derive exactly one
+ * event per matching reading. The report is printed and written to a file; the exit code is 1 when a check fails.
+ * A JFR recording of the run, with the allocation and GC events, can be written next to the report.
+ * Usage: SoakRunner, with the system properties:
+ * soak.minutes - the duration (default: 60)
+ * soak.rate - the events per second, 0 sends as fast as possible (default: 100000)
+ * soak.sample - the seconds between samples (default: 60)
+ * soak.rooms - the number of rooms (default: 1000)
+ * soak.derivation - exact (default) or distinct, as simplesample.derivation
+ * soak.windows - none (default), context or groupwin, as simplesample.windows
+ * soak.listener - none, noop or print (default), the PrintListener writing through an AsyncAppender to a discarding writer
+ * soak.jfr - the JFR recording file, none to not record (default: soak.jfr)
+ * soak.report - the report file (default: soak-report.txt)
+ * soak.max.slope - the live set growth, in bytes per million events (default: 65536)
+ * soak.max.pause - the longest GC pause, in milliseconds (default: 500)
+ * soak.max.alloc - the bytes allocated per event, 0 to not check (default: 0)
+ * soak.min.rate - the fraction of the rate that must be reached (default: 0.95)
+ */
+public class SoakRunner {
+
+    private static final String JFR_NAME = "soak";
+
+    //The fewest samples the live set slope is fitted to, over the second half of the run
+    private static final int MIN_SLOPE_SAMPLES = 4;
+
+    public static void main(String[] args) throws Exception {
+        long minutes = Long.getLong("soak.minutes", 60);
+        long rate = Long.getLong("soak.rate", 100000);
+        long sampleSeconds = Long.getLong("soak.sample", 60);
+        int rooms = Integer.getInteger("soak.rooms", 1000);
+        DerivationMode derivation = System.getProperty("soak.derivation", "exact").equals("distinct")
+                ? DerivationMode.DISTINCT_TIMESTAMP : DerivationMode.EXACT_TYPE;
+        String windows = System.getProperty("soak.windows", "none");
+        String listener = System.getProperty("soak.listener", "print");
+        String jfr = System.getProperty("soak.jfr", "soak.jfr");
+        File reportFile = new File(System.getProperty("soak.report", "soak-report.txt"));
+        double maxSlope = Double.parseDouble(System.getProperty("soak.max.slope", "65536"));
+        long maxPause = Long.getLong("soak.max.pause", 500);
+        double maxAlloc = Double.parseDouble(System.getProperty("soak.max.alloc", "0"));
+        double minRate = Double.parseDouble(System.getProperty("soak.min.rate", "0.95"));
+
+        //The rules, named as SimpleSample names them
+        Map<String, String> rules = new LinkedHashMap<>();
+        rules.put("select-SensorUpdate", Rules.SELECT_SENSOR_UPDATE);
+        rules.put("insert-LowHumidity", Rules.insertLowHumidity(derivation));
+        rules.put("insert-HighTemperature", Rules.insertHighTemperature(derivation));
+        if (!windows.equals("none")) {
+            rules.put("room-readings", Rules.roomWindows(windows.equals("context") ? WindowGrouping.CONTEXT : WindowGrouping.GROUPWIN));
+        }
+
+        Configuration configuration = BenchmarkSupport.newConfiguration();
+        StatementMetrics.enable(configuration, TimeUnit.SECONDS.toMillis(sampleSeconds));
+        EPRuntime runtime = BenchmarkSupport.newRuntime(configuration);
+        StatementMetrics metrics = new StatementMetrics(null);
+        EPDeployment metricsDeployment = BenchmarkSupport.deploy(runtime,
+                BenchmarkSupport.compile(configuration, StatementMetrics.STATEMENT_NAME, StatementMetrics.EPL));
+        metrics.listen(runtime.getDeploymentService().getStatement(metricsDeployment.getDeploymentId(), StatementMetrics.STATEMENT_NAME));
+
+        //Count the derived events, the rules must derive exactly one per matching reading
+        AtomicLong lowHumidity = count(runtime, configuration, "LowHumidity");
+        AtomicLong highTemperature = count(runtime, configuration, "HighTemperature");
+
+        AsyncAppender appender = listener.equals("print")
+                ? new AsyncAppender("soak-appender", new SensorUpdateBenchmark.DiscardingWriter(), 1024) : null;
+        AtomicLong delivered = new AtomicLong();
+        Map<String, String> deployments = new LinkedHashMap<>();
+        for (Map.Entry<String, String> rule : rules.entrySet()) {
+            EPDeployment deployment = BenchmarkSupport.deploy(runtime, BenchmarkSupport.compile(configuration, rule.getKey(), rule.getValue()));
+            deployments.put(rule.getKey(), deployment.getDeploymentId());
+            for (EPStatement statement : deployment.getStatements()) {
+                if (appender != null) {
+                    statement.addListener(new PrintListener(appender));
+                }else if (listener.equals("noop")) {
+                    statement.addListener(new UpdateListener() {
+                        public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+                            delivered.addAndGet(newData.length);
+                        }
+                    });
+                }
+            }
+        }
+
+        //Record every collection but the ones of the samples
+        LongHistogram pauses = new LongHistogram();
+        listenToCollections(pauses);
+        boolean recording = !jfr.equals("none") && startRecording(new File(jfr));
+
+        EPEventService eventService = runtime.getEventService();
+        BenchmarkSupport.SensorData data = new BenchmarkSupport.SensorData(1 << 16, rooms, 42);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        List<long[]> liveSet = new ArrayList<>();
+        StringBuilder samples = new StringBuilder("minutes,events,eventsPerSecond,allocatedBytesPerEvent,liveHeapBytes,pauses,pauseMaxMillis\n");
+        long timestamp = 1568271145976L;
+        long sent = 0;
+        long expectedLowHumidity = 0;
+        long expectedHighTemperature = 0;
+        long allocated = 0;
+        long lastSent = 0;
+        long lastAllocated = allocatedBytes();
+        long lastSample = System.nanoTime();
+        //Pace in slices of a millisecond, so the events are spread over each second
+        int slice = rate > 0 ? (int) Math.max(1, Math.min(4096, rate / 1000)) : 4096;
+
+        System.out.print(samples);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MINUTES.toNanos(minutes);
+        long nextSample = start + TimeUnit.SECONDS.toNanos(sampleSeconds);
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= nextSample || now >= end) {
+                long allocatedNow = allocatedBytes();
+                allocated += allocatedNow - lastAllocated;
+                double allocationPerEvent = sent == lastSent ? 0 : (double) (allocatedNow - lastAllocated) / (sent - lastSent);
+                double eventsPerSecond = (sent - lastSent) * 1e9 / (now - lastSample);
+                memory.gc();
+                long used = memory.getHeapMemoryUsage().getUsed();
+                liveSet.add(new long[]{sent, used});
+                String line = String.format("%.2f,%d,%.0f,%.1f,%d,%d,%d%n", (now - start) / 60e9, sent, eventsPerSecond, allocationPerEvent,
+                        used, pauses.getCount(), pauses.getMax());
+                samples.append(line);
+                System.out.print(line);
+                //The collection of the sample is not part of the next interval
+                lastAllocated = allocatedBytes();
+                lastSent = sent;
+                lastSample = System.nanoTime();
+                nextSample = lastSample + TimeUnit.SECONDS.toNanos(sampleSeconds);
+                if (now >= end) {
+                    break;
+                }
+            }
+            //In double, rate * nanoseconds would overflow a long after about a day at 100000 events/s
+            if (rate > 0 && sent >= rate * ((now - start) / 1e9)) {
+                LockSupport.parkNanos(100_000);
+                continue;
+            }
+            for (int n = 0; n < slice; n++) {
+                int i = (int) (sent & data.mask);
+                eventService.sendEventBean(new SensorUpdate(data.temperature[i], data.humidity[i], data.roomId[i], timestamp++), "SensorUpdate");
+                if (data.humidity[i] < 0.35) {
+                    expectedLowHumidity++;
+                }
+                if (data.temperature[i] > 35) {
+                    expectedHighTemperature++;
+                }
+                sent++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (recording) {
+            stopRecording();
+        }
+        if (appender != null) {
+            appender.close();
+        }
+
+        //Wait for the last interval of the statement metrics
+        Thread.sleep(TimeUnit.SECONDS.toMillis(sampleSeconds) + 1000);
+        metrics.close();
+        String statementReport = metrics.report();
+
+        //The heap released by each deployment is the state kept by its rules, the rules are undeployed in reverse order
+        List<String> names = new ArrayList<>(deployments.keySet());
+        StringBuilder state = new StringBuilder(String.format("%-30s %15s%n", "Deployment", "state bytes"));
+        for (int i = names.size() - 1; i >= 0; i--) {
+            memory.gc();
+            long before = memory.getHeapMemoryUsage().getUsed();
+            try {
+                runtime.getDeploymentService().undeploy(deployments.get(names.get(i)));
+            }catch (EPUndeployException ex){
+                ex.printStackTrace();
+            }
+            memory.gc();
+            state.append(String.format("%-30s %15d%n", names.get(i), before - memory.getHeapMemoryUsage().getUsed()));
+        }
+        runtime.destroy();
+
+        //Checks
+        List<long[]> slopeSamples = liveSet.subList(liveSet.size() / 2, liveSet.size());
+        double slope = slope(slopeSamples) * 1e6;
+        double eventsPerSecond = sent * 1e9 / elapsed;
+        double allocationPerEvent = sent == 0 ? 0 : (double) allocated / sent;
+        List<String> failures = new ArrayList<>();
+        if (slopeSamples.size() < MIN_SLOPE_SAMPLES) {
+            failures.add(String.format("only %d samples in the second half of the run, the live set slope needs %d: lower soak.sample or raise soak.minutes",
+                    slopeSamples.size(), MIN_SLOPE_SAMPLES));
+        }
+        if (slope > maxSlope) {
+            failures.add(String.format("live set grows %.0f bytes per million events, the maximum is %.0f", slope, maxSlope));
+        }
+        if (pauses.getMax() > maxPause) {
+            failures.add(String.format("the longest GC pause took %d ms, the maximum is %d", pauses.getMax(), maxPause));
+        }
+        if (maxAlloc > 0 && allocationPerEvent > maxAlloc) {
+            failures.add(String.format("%.1f bytes allocated per event, the maximum is %.1f", allocationPerEvent, maxAlloc));
+        }
+        if (rate > 0 && eventsPerSecond < rate * minRate) {
+            failures.add(String.format("%.0f events per second, the minimum is %.0f", eventsPerSecond, rate * minRate));
+        }
+        if (lowHumidity.get() != expectedLowHumidity || highTemperature.get() != expectedHighTemperature) {
+            failures.add(String.format("derived LowHumidity %d/%d and HighTemperature %d/%d", lowHumidity.get(), expectedLowHumidity,
+                    highTemperature.get(), expectedHighTemperature));
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("SoakRunner: %d minutes at %s events/s, %d rooms, %s derivation, %s windows, %s listener%n",
+                minutes, rate > 0 ? String.valueOf(rate) : "max", rooms, derivation, windows, listener));
+        report.append(String.format("Events: %d (%.0f per second), %.1f bytes allocated per event%n", sent, eventsPerSecond, allocationPerEvent));
+        report.append(String.format("Derived: LowHumidity %d/%d, HighTemperature %d/%d%n", lowHumidity.get(), expectedLowHumidity,
+                highTemperature.get(), expectedHighTemperature));
+        report.append(String.format("Live set: %.0f bytes per million events over the %d samples of the second half (max %.0f)%n",
+                slope, slopeSamples.size(), maxSlope));
+        report.append(String.format("GC pauses: %d, p50 %d ms, p99 %d ms, max %d ms (max %d), %d ms in total%n", pauses.getCount(),
+                pauses.getPercentile(50), pauses.getPercentile(99), pauses.getMax(), maxPause, pauses.getSum()));
+        if (recording) {
+            report.append("JFR recording: ").append(new File(jfr).getAbsolutePath()).append(System.lineSeparator());
+        }
+        report.append(System.lineSeparator()).append(samples);
+        report.append(System.lineSeparator()).append(statementReport);
+        report.append(System.lineSeparator()).append(state);
+        report.append(System.lineSeparator()).append(failures.isEmpty() ? "PASS" : "FAIL").append(System.lineSeparator());
+        for (String failure : failures) {
+            report.append("  ").append(failure).append(System.lineSeparator());
+        }
+        System.out.print(report);
+        try {
+            Files.write(reportFile.toPath(), report.toString().getBytes(StandardCharsets.UTF_8));
+        }catch (IOException ex){
+            ex.printStackTrace();
+        }
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Count the events of a type
+     */
+    private static AtomicLong count(EPRuntime runtime, Configuration configuration, String eventName) {
+        AtomicLong counter = new AtomicLong();
+        String label = "count-" + eventName;
+        EPDeployment deployment = BenchmarkSupport.deploy(runtime, BenchmarkSupport.compile(configuration, label, "select * from " + eventName));
+        runtime.getDeploymentService().getStatement(deployment.getDeploymentId(), label).addListener(new UpdateListener() {
+            public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+                counter.addAndGet(newData.length);
+            }
+        });
+        return counter;
+    }
+
+    /**
+     * Least squares slope of the heap used over the number of events
+     * @param samples pairs of (events, used heap)
+     * @return bytes per event
+     */
+    static double slope(List<long[]> samples) {
+        int n = samples.size();
+        if (n < 2) {
+            return 0;
+        }
+        double meanX = 0;
+        double meanY = 0;
+        for (long[] sample : samples) {
+            meanX += sample[0];
+            meanY += sample[1];
+        }
+        meanX /= n;
+        meanY /= n;
+        double covariance = 0;
+        double variance = 0;
+        for (long[] sample : samples) {
+            covariance += (sample[0] - meanX) * (sample[1] - meanY);
+            variance += (sample[0] - meanX) * (sample[0] - meanX);
+        }
+        return variance == 0 ? 0 : covariance / variance;
+    }
+
+    /**
+     * @return the bytes allocated so far by the live threads
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Record the duration of the collections in a histogram, in milliseconds.
+     * The collections asked by System.gc() and the concurrent cycles, which do not stop the application, are left out
+     */
+    private static void listenToCollections(LongHistogram pauses) {
+        NotificationListener listener = new NotificationListener() {
+            public void handleNotification(Notification notification, Object handback) {
+                if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                if (info.getGcCause().equals("System.gc()") || info.getGcName().contains("Concurrent")) {
+                    return;
+                }
+                pauses.record(info.getGcInfo().getDuration());
+            }
+        };
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+            }
+        }
+    }
+
+    /**
+     * Start a JFR recording with the profile settings, through the diagnostic commands so it also works on the JDKs
+     * without the jdk.jfr API
+     * @return true if the recording started
+     */
+    private static boolean startRecording(File file) {
+        try {
+            diagnosticCommand("jfrStart", "name=" + JFR_NAME, "settings=profile", "filename=" + file.getAbsolutePath());
+            return true;
+        }catch (Exception ex){
+            ex.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Stop the JFR recording, which writes it to its file
+     */
+    private static void stopRecording() {
+        try {
+            diagnosticCommand("jfrStop", "name=" + JFR_NAME);
+        }catch (Exception ex){
+            ex.printStackTrace();
+        }
+    }
+
+    private static void diagnosticCommand(String operation, String... arguments) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Object output = server.invoke(new ObjectName("com.sun.management:type=DiagnosticCommand"), operation,
+                new Object[]{arguments}, new String[]{String[].class.getName()});
+        if (output != null && !output.toString().trim().isEmpty()) {
+            System.out.println(output.toString().trim());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package webmedia.cep2019.benchmark;
+
+import com.espertech.esper.common.client.EventBean;
+import com.espertech.esper.common.client.configuration.Configuration;
+import com.espertech.esper.runtime.client.EPEventService;
+import com.espertech.esper.runtime.client.EPRuntime;
+import com.espertech.esper.runtime.client.EPStatement;
+import com.espertech.esper.runtime.client.UpdateListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import webmedia.cep2019.simplesample.ThresholdLayout;
+import webmedia.cep2019.simplesample.event.SensorUpdate;
+import webmedia.cep2019.simplesample.rules.CompiledRuleCache;
+import webmedia.cep2019.simplesample.rules.ThresholdDeployer;
+import webmedia.cep2019.simplesample.rules.ThresholdRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a SensorUpdate event as the number of deployed threshold rules grows from 10 to 100000,
+ * with the conditions in the filter (indexed across the rules) or in the where clause (evaluated by every rule).
+ * Rule i watches room i % rooms, alternating a high temperature and a low humidity threshold, and every 100th rule watches
+ * every room; the thresholds are near the ends of the ranges, so an event matches a few rules
+ */
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ThresholdRuleBenchmark {
+
+    @Param({"FILTER", "WHERE"})
+    ThresholdLayout layout;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    int ruleCount;
+
+    @Param({"1000"})
+    int rooms;
+
+    EPRuntime runtime;
+    EPEventService eventService;
+    BenchmarkSupport.SensorData data;
+    int index;
+    long timestamp;
+    long alerts;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Configuration configuration = BenchmarkSupport.newConfiguration();
+        runtime = BenchmarkSupport.newRuntime(configuration);
+        eventService = runtime.getEventService();
+        data = new BenchmarkSupport.SensorData(1 << 16, rooms, 42);
+        timestamp = 1568271145976L;
+
+        Random random = new Random(7);
+        List<ThresholdRule> rules = new ArrayList<>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            Integer roomId = i % 100 == 99 ? null : i % rooms;
+            if (i % 2 == 0) {
+                rules.add(new ThresholdRule("r" + i, roomId, ThresholdRule.Measure.TEMPERATURE, ThresholdRule.Comparison.ABOVE, 45 + random.nextDouble() * 5));
+            }else {
+                rules.add(new ThresholdRule("r" + i, roomId, ThresholdRule.Measure.HUMIDITY, ThresholdRule.Comparison.BELOW, random.nextDouble() * 0.05));
+            }
+        }
+        ThresholdDeployer deployer = new ThresholdDeployer(runtime, new CompiledRuleCache(null, configuration, 1), layout);
+        deployer.deployAll(rules, new UpdateListener() {
+            public void update(EventBean[] newData, EventBean[] oldData, EPStatement epStatement, EPRuntime epRuntime) {
+                alerts += newData.length;
+            }
+        });
+        System.out.println(deployer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runtime.destroy();
+    }
+
+    @Benchmark
+    public void send() {
+        int i = index++ & data.mask;
+        eventService.sendEventBean(new SensorUpdate(data.temperature[i], data.humidity[i], data.roomId[i], timestamp++), "SensorUpdate");
+    }
+}